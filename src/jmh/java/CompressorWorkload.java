@@ -0,0 +1,66 @@
+import benchmarks.CompressionWorkload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class CompressorWorkload implements CompressionWorkload {
+
+    private byte[] content;
+    private ContentEncoding encoding;
+    private Path file;
+    private FileChannel source;
+    private FileChannel sink;
+
+    @Override
+    public void prepare(byte[] content, String encoding) throws IOException {
+        this.content = content;
+        this.encoding = ContentEncoding.valueOf(encoding.toUpperCase());
+        file = Files.createTempFile("hts-bench", ".txt");
+        Files.write(file, content);
+        source = FileChannel.open(file, StandardOpenOption.READ);
+        sink = FileChannel.open(Path.of("/dev/null"), StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public int pooled() {
+        return Compressor.compress(encoding, content).length;
+    }
+
+    @Override
+    public int streamPerCall() throws IOException {
+        var output = new ByteArrayOutputStream(content.length / 2 + 32);
+        try (OutputStream compressed = encoding == ContentEncoding.GZIP
+                ? new GZIPOutputStream(output)
+                : new DeflaterOutputStream(output)) {
+            compressed.write(content);
+        }
+        return output.size();
+    }
+
+    @Override
+    public long chunked() throws IOException {
+        var body = new CompressingBody(encoding, source, 0, content.length);
+        try {
+            while (!body.writeTo(sink)) {
+                Thread.onSpinWait();
+            }
+        } finally {
+            body.release();
+        }
+        return content.length;
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        source.close();
+        sink.close();
+        Files.deleteIfExists(file);
+    }
+}
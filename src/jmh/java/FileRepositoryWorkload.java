@@ -0,0 +1,64 @@
+import benchmarks.FileServingWorkload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class FileRepositoryWorkload implements FileServingWorkload {
+
+    private final HttpRequestParser parser = new HttpRequestParser();
+    private Path directory;
+    private FileRepository repository;
+    private FileChannel sink;
+    private HttpRequest request;
+
+    @Override
+    public void prepare(int fileSize, String mode, String acceptEncoding) throws IOException {
+        directory = Files.createTempDirectory("hts-bench");
+        byte[] content = new byte[fileSize];
+        byte[] line = "GET /files/asset.txt HTTP/1.1 200 application/octet-stream\n".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < fileSize; i++) {
+            content[i] = (byte) (line[i % line.length] + (i / line.length) % 3);
+        }
+        Files.write(directory.resolve("asset.txt"), content);
+
+        AppConfig.directory = directory.toString();
+        AppConfig.memoryMappedFiles = "mmap".equals(mode);
+        repository = new DirectoryFileRepository("cached".equals(mode) ? new FileCache(64L * 1024 * 1024, 2L * 1024 * 1024, 1000) : null);
+        sink = FileChannel.open(Path.of("/dev/null"), StandardOpenOption.WRITE);
+        Log.configure(new AsyncLogger(LogLevel.DEBUG, 16 * 1024, Path.of("/dev/null"), 0, 0));
+
+        byte[] head = ("GET /files/asset.txt HTTP/1.1\r\nHost: localhost:4221\r\n"
+                + (acceptEncoding != null ? "Accept-Encoding: " + acceptEncoding + "\r\n" : "")
+                + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        parser.parse(head, 0, head.length);
+        request = parser.getRequest();
+    }
+
+    @Override
+    public long serve() throws IOException {
+        var context = new RequestContext(request, InputStream.nullInputStream());
+        HttpResponse response = repository.getFileByName(context);
+        try {
+            response.compress(context.getContentEncoding(), AppConfig.compressionMinSize, true);
+            response.frame(true);
+            response.writeFully(sink);
+        } finally {
+            response.close();
+        }
+        return response.getBodyLength();
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        repository.close();
+        sink.close();
+        Files.deleteIfExists(directory.resolve("asset.txt"));
+        Files.deleteIfExists(directory);
+        AppConfig.memoryMappedFiles = false;
+    }
+}
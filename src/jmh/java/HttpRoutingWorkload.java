@@ -0,0 +1,35 @@
+import benchmarks.RoutingWorkload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class HttpRoutingWorkload implements RoutingWorkload {
+
+    private final HTSService service = new HTSService();
+    private final HttpRequestParser parser = new HttpRequestParser();
+    private FileChannel sink;
+    private byte[] request;
+
+    @Override
+    public void prepare(byte[] request) throws IOException {
+        this.request = request;
+        this.sink = FileChannel.open(Path.of("/dev/null"), StandardOpenOption.WRITE);
+        // Log lines would flood JMH's output; enqueueing them still counts
+        Log.configure(new AsyncLogger(LogLevel.DEBUG, 16 * 1024, Path.of("/dev/null"), 0, 0));
+    }
+
+    @Override
+    public long handle() throws IOException {
+        parser.parse(request, 0, request.length);
+        HttpResponse response = service.handleRequest(parser.getRequest(), InputStream.nullInputStream(), false);
+        try {
+            response.writeFully(sink);
+        } finally {
+            response.close();
+        }
+        return response.getBodyLength();
+    }
+}
@@ -0,0 +1,58 @@
+import benchmarks.ParserWorkload;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+public class RequestParserWorkload implements ParserWorkload {
+
+    private final HttpRequestParser parser = new HttpRequestParser();
+    private byte[] request;
+
+    @Override
+    public void prepare(byte[] request) {
+        this.request = request;
+    }
+
+    @Override
+    public int byteParser() throws IOException {
+        int headEnd = parser.parse(request, 0, request.length);
+        HttpRequest parsed = parser.getRequest();
+        int result = headEnd + parsed.getMethod().ordinal() + parsed.getPath().length();
+        if (parsed.headerEquals("Host", "localhost:4221")) {
+            result++;
+        }
+        if (parsed.headerContainsToken("Connection", "close")) {
+            result++;
+        }
+        String acceptEncoding = parsed.header("Accept-Encoding");
+        return acceptEncoding == null ? result : result + acceptEncoding.length();
+    }
+
+    // The request handling HTSService used before HttpRequestParser
+    @Override
+    public int readerSplitHashMap() throws IOException {
+        var reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(request)));
+        String[] parts = reader.readLine().split(" ");
+        Map<String, String> headers = new HashMap<>();
+        String headerLine;
+        while ((headerLine = reader.readLine()) != null && !headerLine.isEmpty()) {
+            int index = headerLine.indexOf(':');
+            if (index > 0) {
+                headers.put(headerLine.substring(0, index).trim(), headerLine.substring(index + 1).trim());
+            }
+        }
+        int result = parts[0].length() + parts[1].length();
+        if ("localhost:4221".equals(headers.get("Host"))) {
+            result++;
+        }
+        if ("close".equalsIgnoreCase(headers.get("Connection"))) {
+            result++;
+        }
+        String acceptEncoding = headers.get("Accept-Encoding");
+        return acceptEncoding == null ? result : result + acceptEncoding.length();
+    }
+}
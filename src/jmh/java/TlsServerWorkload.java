@@ -0,0 +1,171 @@
+import benchmarks.TlsWorkload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+public class TlsServerWorkload implements TlsWorkload {
+
+    private static final int TLS_PORT = 4443;
+    private static final String PASSWORD = "changeit";
+    private static final byte[] REQUEST = "GET /echo/hello HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] response = new byte[4096];
+    private Path keystore;
+    private SSLContext clientContext;
+    private HTSController controller;
+    private Thread serverThread;
+    private ServerSocket proxy;
+    private SSLSocket connection;
+
+    @Override
+    public void prepare(String setup) throws Exception {
+        Log.configure(new AsyncLogger(LogLevel.WARN, 16 * 1024, Path.of("/dev/null"), 0, 0));
+        AppConfig.maxRequestsPerConnection = Integer.MAX_VALUE;
+        keystore = Files.createTempDirectory("hts-bench").resolve("server.p12");
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "hts", "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost",
+                "-validity", "1", "-storetype", "PKCS12", "-keystore", keystore.toString(), "-storepass", PASSWORD)
+                .redirectErrorStream(true).start();
+        keytool.getInputStream().transferTo(OutputStream.nullOutputStream());
+        if (keytool.waitFor() != 0) {
+            throw new IOException("keytool failed");
+        }
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keystore)) {
+            keyStore.load(in, PASSWORD.toCharArray());
+        }
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagers.getTrustManagers(), null);
+
+        if ("native".equals(setup)) {
+            AppConfig.tlsPort = TLS_PORT;
+            AppConfig.tlsKeystore = keystore.toString();
+            AppConfig.tlsKeystorePassword = PASSWORD;
+        } else {
+            AppConfig.tlsPort = 0;
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, PASSWORD.toCharArray());
+            SSLContext serverContext = SSLContext.getInstance("TLS");
+            serverContext.init(keyManagers.getKeyManagers(), null, null);
+            proxy = serverContext.getServerSocketFactory().createServerSocket(TLS_PORT);
+            ((SSLServerSocket) proxy).setEnabledProtocols(AppConfig.tlsProtocols.split(","));
+            Thread.ofPlatform().daemon().start(this::runProxy);
+        }
+        controller = new HTSController();
+        serverThread = new Thread(controller::run);
+        serverThread.start();
+        if (!controller.awaitReady(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Server did not start");
+        }
+        connection = open();
+    }
+
+    @Override
+    public long connect(boolean resume) throws IOException {
+        try (SSLSocket socket = open()) {
+            long length = exchange(socket);
+            if (!resume) {
+                socket.getSession().invalidate();
+            }
+            return length;
+        }
+    }
+
+    @Override
+    public long request() throws IOException {
+        return exchange(connection);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        connection.close();
+        if (proxy != null) {
+            proxy.close();
+        }
+        controller.stopServer();
+        serverThread.join();
+        AppConfig.tlsPort = 0;
+        Files.deleteIfExists(keystore);
+        Files.deleteIfExists(keystore.getParent());
+    }
+
+    private SSLSocket open() throws IOException {
+        SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", TLS_PORT);
+        socket.setTcpNoDelay(true);
+        socket.startHandshake();
+        return socket;
+    }
+
+    // The /echo response is small enough to arrive whole; reads until the end of its body
+    private long exchange(SSLSocket socket) throws IOException {
+        socket.getOutputStream().write(REQUEST);
+        socket.getOutputStream().flush();
+        InputStream in = socket.getInputStream();
+        int length = 0;
+        while (!complete(length)) {
+            int count = in.read(response, length, response.length - length);
+            if (count == -1) {
+                throw new IOException("Connection closed mid-response");
+            }
+            length += count;
+        }
+        return length;
+    }
+
+    private boolean complete(int length) {
+        String head = new String(response, 0, length, StandardCharsets.ISO_8859_1);
+        int headEnd = head.indexOf("\r\n\r\n");
+        int lengthAt = head.indexOf("Content-Length: ");
+        if (headEnd < 0 || lengthAt < 0) {
+            return false;
+        }
+        int bodyLength = Integer.parseInt(head.substring(lengthAt + 16, head.indexOf('\r', lengthAt)));
+        return length >= headEnd + 4 + bodyLength;
+    }
+
+    // Terminates TLS and copies bytes both ways to the plaintext port, as a sidecar proxy would
+    private void runProxy() {
+        while (!proxy.isClosed()) {
+            try {
+                Socket client = proxy.accept();
+                Socket upstream = new Socket("localhost", 4221);
+                client.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+                Thread.ofVirtual().start(() -> pump(client, upstream));
+                Thread.ofVirtual().start(() -> pump(upstream, client));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private static void pump(Socket from, Socket to) {
+        try (from; to) {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Either side closing ends the pair
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+
+    @Param({"32", "4096", "262144"})
+    public int size;
+
+    @Param({"gzip", "deflate"})
+    public String encoding;
+
+    private CompressionWorkload workload;
+
+    @Setup
+    public void setUp() throws IOException {
+        workload = Workloads.load(CompressionWorkload.class, "CompressorWorkload");
+        workload.prepare(logLines(size), encoding);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public int pooled() {
+        return workload.pooled();
+    }
+
+    @Benchmark
+    public int streamPerCall() throws IOException {
+        return workload.streamPerCall();
+    }
+
+    @Benchmark
+    public long chunked() throws IOException {
+        return workload.chunked();
+    }
+
+    // Access-log-like text: repetitive structure with varying fields, compressing roughly like real text assets
+    private static byte[] logLines(int size) {
+        var random = new Random(42);
+        var text = new StringBuilder(size + 128);
+        while (text.length() < size) {
+            text.append("127.0.0.").append(random.nextInt(256))
+                    .append(" - - [17/Oct/2026:10:").append(10 + random.nextInt(50)).append(":00 +0000] \"GET /files/")
+                    .append(Integer.toHexString(random.nextInt())).append(" HTTP/1.1\" 200 ").append(random.nextInt(100000))
+                    .append('\n');
+        }
+        return text.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+}
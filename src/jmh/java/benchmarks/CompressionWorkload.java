@@ -0,0 +1,19 @@
+package benchmarks;
+
+import java.io.IOException;
+
+public interface CompressionWorkload {
+
+    void prepare(byte[] content, String encoding) throws IOException;
+
+    // Whole body in memory through a pooled Deflater, as used for small responses
+    int pooled();
+
+    // A GZIPOutputStream over a ByteArrayOutputStream per call, as the echo route used to do
+    int streamPerCall() throws IOException;
+
+    // Chunked on-the-fly compression of a file region, as used for large responses
+    long chunked() throws IOException;
+
+    void tearDown() throws IOException;
+}
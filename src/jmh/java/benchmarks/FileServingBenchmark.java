@@ -0,0 +1,40 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// GET /files/ through FileRepository into /dev/null, for each way a body can be served
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileServingBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int fileSize;
+
+    @Param({"cached", "transferTo", "mmap"})
+    public String mode;
+
+    @Param({"identity", "gzip"})
+    public String encoding;
+
+    private FileServingWorkload workload;
+
+    @Setup
+    public void setUp() throws IOException {
+        workload = Workloads.load(FileServingWorkload.class, "FileRepositoryWorkload");
+        workload.prepare(fileSize, mode, "identity".equals(encoding) ? null : encoding);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public long serve() throws IOException {
+        return workload.serve();
+    }
+}
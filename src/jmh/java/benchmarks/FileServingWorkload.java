@@ -0,0 +1,13 @@
+package benchmarks;
+
+import java.io.IOException;
+
+public interface FileServingWorkload {
+
+    // mode is "cached", "transferTo" or "mmap"; acceptEncoding may be null
+    void prepare(int fileSize, String mode, String acceptEncoding) throws IOException;
+
+    long serve() throws IOException;
+
+    void tearDown() throws IOException;
+}
@@ -0,0 +1,12 @@
+package benchmarks;
+
+import java.io.IOException;
+
+public interface ParserWorkload {
+
+    void prepare(byte[] request);
+
+    int byteParser() throws IOException;
+
+    int readerSplitHashMap() throws IOException;
+}
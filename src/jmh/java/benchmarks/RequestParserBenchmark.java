@@ -0,0 +1,50 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Compares the byte parser with the BufferedReader/split/HashMap path it replaced in HTSService
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestParserBenchmark {
+
+    static final String BROWSER_REQUEST = "GET /files/report-2024.pdf HTTP/1.1\r\n" +
+            "Host: localhost:4221\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Accept-Language: en-US,en;q=0.9\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Cookie: session=4f1c2a9e7b; theme=dark; tracking=0\r\n" +
+            "Referer: http://localhost:4221/\r\n" +
+            "\r\n";
+
+    static final String MINIMAL_REQUEST = "GET /echo/abc HTTP/1.1\r\nHost: localhost:4221\r\n\r\n";
+
+    @Param({"minimal", "browser"})
+    public String headers;
+
+    private ParserWorkload workload;
+
+    @Setup
+    public void setUp() {
+        workload = Workloads.load(ParserWorkload.class, "RequestParserWorkload");
+        String request = "minimal".equals(headers) ? MINIMAL_REQUEST : BROWSER_REQUEST;
+        workload.prepare(request.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Benchmark
+    public int byteParser() throws IOException {
+        return workload.byteParser();
+    }
+
+    @Benchmark
+    public int readerSplitHashMap() throws IOException {
+        return workload.readerSplitHashMap();
+    }
+}
@@ -0,0 +1,37 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// One request through HTSService from parsed head to written bytes, per route
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RoutingBenchmark {
+
+    @Param({"root", "echo", "echoGzip", "userAgent", "notFound"})
+    public String route;
+
+    private RoutingWorkload workload;
+
+    @Setup
+    public void setUp() throws IOException {
+        workload = Workloads.load(RoutingWorkload.class, "HttpRoutingWorkload");
+        String request = switch (route) {
+            case "root" -> "GET / HTTP/1.1\r\nHost: localhost:4221\r\n\r\n";
+            case "echo" -> "GET /echo/abc HTTP/1.1\r\nHost: localhost:4221\r\n\r\n";
+            case "echoGzip" -> "GET /echo/abc HTTP/1.1\r\nHost: localhost:4221\r\nAccept-Encoding: gzip, deflate, br\r\n\r\n";
+            case "userAgent" -> "GET /user-agent HTTP/1.1\r\nHost: localhost:4221\r\nUser-Agent: curl/8.5.0\r\n\r\n";
+            default -> "GET /does/not/exist HTTP/1.1\r\nHost: localhost:4221\r\n\r\n";
+        };
+        workload.prepare(request.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Benchmark
+    public long handle() throws IOException {
+        return workload.handle();
+    }
+}
@@ -0,0 +1,11 @@
+package benchmarks;
+
+import java.io.IOException;
+
+public interface RoutingWorkload {
+
+    void prepare(byte[] request) throws IOException;
+
+    // Parses, routes, builds and frames one response, then writes it to a discarding channel
+    long handle() throws IOException;
+}
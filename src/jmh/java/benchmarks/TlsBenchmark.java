@@ -0,0 +1,44 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// HTTPS on HTSController against the proxy setup it replaces: full and resumed handshakes, each with
+// one request, and requests on an established connection. The proxy adds a hop to every request.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TlsBenchmark {
+
+    @Param({"native", "proxy"})
+    public String setup;
+
+    private TlsWorkload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workloads.load(TlsWorkload.class, "TlsServerWorkload");
+        workload.prepare(setup);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public long fullHandshake() throws Exception {
+        return workload.connect(false);
+    }
+
+    @Benchmark
+    public long resumedHandshake() throws Exception {
+        return workload.connect(true);
+    }
+
+    @Benchmark
+    public long steadyState() throws Exception {
+        return workload.request();
+    }
+}
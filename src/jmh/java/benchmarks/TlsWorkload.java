@@ -0,0 +1,18 @@
+package benchmarks;
+
+import java.io.IOException;
+
+public interface TlsWorkload {
+
+    // setup is "native" for HTTPS served by HTSController itself, or "proxy" for a TLS-terminating
+    // proxy in front of the plaintext port
+    void prepare(String setup) throws Exception;
+
+    // Connects, sends one request and closes; resume reuses the client's cached session
+    long connect(boolean resume) throws IOException;
+
+    // One request on a connection kept open across calls
+    long request() throws IOException;
+
+    void tearDown() throws Exception;
+}
@@ -0,0 +1,18 @@
+package benchmarks;
+
+// The server lives in the default package, which named packages cannot import, and JMH refuses
+// benchmarks in the default package. Each suite therefore drives a workload interface that a
+// default-package adapter next to it implements, loaded here by name once per trial.
+public final class Workloads {
+
+    private Workloads() {
+    }
+
+    public static <T> T load(Class<T> type, String implementation) {
+        try {
+            return type.cast(Class.forName(implementation).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load workload " + implementation, e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Decides whether a connection or request goes ahead before any work is done for it: per address
+// request rates, per route rates (set on the Route), concurrent connections per address and requests
+// in flight server-wide. Each check is a map lookup plus a CAS, and a limit set to 0 is skipped.
+public class AdmissionControl {
+
+    private final TokenBuckets addressRates;
+    private final int maxConnectionsPerAddress;
+    private final int maxInFlight;
+    private final Map<InetAddress, Integer> connections = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder routeRateLimited = new LongAdder();
+    private final LongAdder connectionLimited = new LongAdder();
+    private final LongAdder overloaded = new LongAdder();
+
+    public AdmissionControl(double requestsPerSecond, int burst, int maxConnectionsPerAddress, int maxInFlight) {
+        this.addressRates = requestsPerSecond > 0 ? new TokenBuckets(requestsPerSecond, burst) : null;
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public static AdmissionControl fromConfig() {
+        return new AdmissionControl(AppConfig.rateLimit, AppConfig.rateLimitBurst,
+                AppConfig.maxConnectionsPerAddress, AppConfig.maxInFlightRequests);
+    }
+
+    // An admitted connection must be handed back through connectionClosed
+    public boolean admitConnection(InetAddress address) {
+        if (maxConnectionsPerAddress <= 0) {
+            return true;
+        }
+        // compute locks only this key's bin, and an address whose last connection closes is removed,
+        // so the map never holds idle entries
+        boolean[] admitted = new boolean[1];
+        connections.compute(address, (key, open) -> {
+            int count = open == null ? 0 : open;
+            admitted[0] = count < maxConnectionsPerAddress;
+            return admitted[0] ? count + 1 : open;
+        });
+        if (!admitted[0]) {
+            connectionLimited.increment();
+        }
+        return admitted[0];
+    }
+
+    public void connectionClosed(InetAddress address) {
+        if (maxConnectionsPerAddress > 0) {
+            connections.computeIfPresent(address, (key, open) -> open > 1 ? open - 1 : null);
+        }
+    }
+
+    // Null when the request may go ahead, else the status to turn it away with. An admitted request
+    // must be handed back through requestFinished.
+    public HttpStatus admitRequest(InetAddress address, Route route) {
+        if (address != null && addressRates != null && !addressRates.tryAcquire(address)) {
+            rateLimited.increment();
+            return HttpStatus.TOO_MANY_REQUESTS;
+        }
+        if (address != null && route != null && route.getRateLimit() != null && !route.getRateLimit().tryAcquire(address)) {
+            routeRateLimited.increment();
+            return HttpStatus.TOO_MANY_REQUESTS;
+        }
+        if (maxInFlight > 0 && inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            overloaded.increment();
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        return null;
+    }
+
+    public void requestFinished() {
+        if (maxInFlight > 0) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    public long getRouteRateLimited() {
+        return routeRateLimited.sum();
+    }
+
+    public long getConnectionLimited() {
+        return connectionLimited.sum();
+    }
+
+    public long getOverloaded() {
+        return overloaded.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getTrackedAddresses() {
+        return connections.size() + (addressRates != null ? addressRates.size() : 0);
+    }
+}
@@ -1,4 +1,67 @@
 public class AppConfig {
 
     public static String directory;
+    public static int port = 4221;
+    // null binds every interface
+    public static String bindAddress;
+    public static int acceptors = 1;
+    public static boolean reusePort = false;
+    public static boolean tcpNoDelay = true;
+    // 0 keeps the operating system's default
+    public static int socketSendBuffer = 0;
+    public static int socketReceiveBuffer = 0;
+    public static int keepAliveTimeoutMillis = 5000;
+    // Whole-phase read deadlines, however slowly the bytes arrive; 0 turns one off
+    public static long headerTimeoutMillis = 10_000;
+    public static long bodyTimeoutMillis = 5 * 60_000;
+    public static int maxRequestsPerConnection = 100;
+    // How long stopServer waits for in-flight requests before cutting them off
+    public static long shutdownTimeoutMillis = 10_000;
+    // Admission limits; 0 turns a limit off
+    public static double rateLimit = 0;
+    public static int rateLimitBurst = 100;
+    public static double uploadRateLimit = 0;
+    public static int uploadRateLimitBurst = 10;
+    public static int maxConnectionsPerAddress = 0;
+    public static int maxInFlightRequests = 0;
+    public static String executorMode = "virtual";
+    public static int workerThreads = Runtime.getRuntime().availableProcessors() * 8;
+    public static int queueDepth = 1024;
+    public static int acceptBacklog = 128;
+    public static String engine = "blocking";
+    public static boolean memoryMappedFiles = false;
+    public static int maxRequestLineLength = 8 * 1024;
+    public static int maxHeaderSize = 16 * 1024;
+    public static long maxBodySize = 1024L * 1024 * 1024;
+    // The NIO engine buffers each request body whole, so it takes far smaller ones
+    public static long nioMaxBodySize = 1024 * 1024;
+    public static long fileCacheMaxBytes = 32L * 1024 * 1024;
+    public static long fileCacheMaxEntryBytes = 256 * 1024;
+    public static long fileCacheRevalidateMillis = 1000;
+    public static boolean fileCacheGzip = true;
+    public static long compressionMinSize = 0;
+    public static boolean precompressedFiles = true;
+    public static String fileStore = "directory";
+    public static boolean directoryIndex = true;
+    public static String uploadFsync = "batch";
+    public static long uploadFsyncBatchMillis = 2;
+    public static int uploadLockStripes = 256;
+    public static boolean http2 = true;
+    public static int http2MaxConcurrentStreams = 256;
+    public static int http2InitialWindowSize = 256 * 1024;
+    public static int tlsPort = 0;
+    public static String tlsKeystore;
+    public static String tlsKeystorePassword = "";
+    public static String tlsKeystoreType = "PKCS12";
+    public static String tlsProtocols = "TLSv1.3,TLSv1.2";
+    public static int tlsSessionCacheSize = 20_000;
+    public static int tlsSessionTimeoutSeconds = 24 * 60 * 60;
+    public static boolean tlsSessionTickets = true;
+    public static int tlsMaxPooledBuffers = 1024;
+    public static String logLevel = "info";
+    public static String logFile;
+    public static long logMaxFileBytes = 64L * 1024 * 1024;
+    public static int logMaxFiles = 5;
+    public static int logBufferSize = 16 * 1024;
+    public static int eventLoops = Runtime.getRuntime().availableProcessors();
 }
@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Logging that never blocks request threads. Callers claim a slot in a fixed ring with one CAS and
+// store the template and argument references there; a single writer thread formats the entries and
+// writes them in batches to stdout or a size-rolled file. When the ring is full the entry is dropped
+// and counted instead of waiting for the writer.
+public class AsyncLogger implements AutoCloseable {
+
+    private static final int KIND_MESSAGE = 0;
+    private static final int KIND_ACCESS = 1;
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private final LogLevel level;
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    private volatile long written;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+
+    private final Path file;
+    // Taken when the logger is created, so stdout stays redirectable through System.setOut
+    private final PrintStream console = System.out;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private WritableByteChannel output;
+    private long fileBytes;
+    private final StringBuilder batch = new StringBuilder(64 * 1024);
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // file may be null for stdout; maxFileBytes <= 0 disables rolling
+    public AsyncLogger(LogLevel level, int capacity, Path file, long maxFileBytes, int maxFiles) {
+        this.level = level;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        try {
+            this.output = openOutput();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open log file " + file, e);
+        }
+        this.writer = new Thread(this::writeLoop, "hts-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean isEnabled(LogLevel messageLevel) {
+        return messageLevel.compareTo(level) >= 0 && level != LogLevel.OFF;
+    }
+
+    // {} placeholders in template are replaced by a, b and c in order, on the writer thread
+    public void log(LogLevel messageLevel, String template, Object a, Object b, Object c) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        Slot slot = claim();
+        if (slot == null) {
+            return;
+        }
+        slot.kind = KIND_MESSAGE;
+        slot.level = messageLevel;
+        slot.template = template;
+        slot.a = a;
+        slot.b = b;
+        slot.c = c;
+        publish(slot);
+    }
+
+    public void access(Object method, Object path, HttpStatus status, long bytes, long nanos) {
+        if (!isEnabled(LogLevel.INFO)) {
+            return;
+        }
+        Slot slot = claim();
+        if (slot == null) {
+            return;
+        }
+        slot.kind = KIND_ACCESS;
+        slot.level = LogLevel.INFO;
+        slot.a = method;
+        slot.b = path;
+        slot.c = status;
+        slot.x = bytes;
+        slot.y = nanos;
+        publish(slot);
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return lines.sum();
+    }
+
+    // Waits until everything logged before this call has been written out
+    public void flush() {
+        long target = claimed.get();
+        while (written < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (file != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // Nothing left to log it to
+            }
+        }
+    }
+
+    private Slot claim() {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= slots.length) {
+                dropped.increment();
+                return null;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        Slot slot = slots[(int) (sequence & mask)];
+        slot.sequence = sequence;
+        slot.time = System.currentTimeMillis();
+        return slot;
+    }
+
+    private void publish(Slot slot) {
+        slot.published = slot.sequence;
+    }
+
+    private void writeLoop() {
+        while (running || consumed < claimed.get()) {
+            int drained = drain();
+            if (drained == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                writeBatch();
+            } catch (IOException e) {
+                dropped.add(drained);
+            }
+            lines.add(drained);
+            written = consumed;
+        }
+    }
+
+    private int drain() {
+        batch.setLength(0);
+        long next = consumed;
+        int count = 0;
+        while (count < MAX_BATCH) {
+            Slot slot = slots[(int) (next & mask)];
+            if (slot.published != next) {
+                break;
+            }
+            format(slot);
+            slot.template = null;
+            slot.a = null;
+            slot.b = null;
+            slot.c = null;
+            next++;
+            count++;
+            consumed = next;
+        }
+        return count;
+    }
+
+    private void format(Slot slot) {
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(slot.time), batch);
+        batch.append(' ').append(slot.level.name()).append(' ');
+        if (slot.kind == KIND_ACCESS) {
+            batch.append("access ").append(slot.a == null ? "-" : slot.a).append(' ').append(slot.b == null ? "-" : slot.b).append(' ')
+                    .append(((HttpStatus) slot.c).getCode()).append(' ').append(slot.x).append("B ")
+                    .append(slot.y / 1000).append("us");
+        } else {
+            appendTemplate(slot.template, slot.a, slot.b, slot.c);
+        }
+        batch.append('\n');
+    }
+
+    private void appendTemplate(String template, Object a, Object b, Object c) {
+        int argument = 0;
+        int from = 0;
+        int placeholder;
+        while ((placeholder = template.indexOf("{}", from)) >= 0 && argument < 3) {
+            batch.append(template, from, placeholder).append(argument == 0 ? a : argument == 1 ? b : c);
+            argument++;
+            from = placeholder + 2;
+        }
+        batch.append(template, from, template.length());
+    }
+
+    private void writeBatch() throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(batch));
+        if (file != null && maxFileBytes > 0 && fileBytes > 0 && fileBytes + bytes.remaining() > maxFileBytes) {
+            roll();
+        }
+        fileBytes += bytes.remaining();
+        while (bytes.hasRemaining()) {
+            output.write(bytes);
+        }
+        if (file == null) {
+            console.flush();
+        }
+    }
+
+    // log -> log.1 -> log.2 ... and the oldest beyond maxFiles is deleted
+    private void roll() throws IOException {
+        output.close();
+        if (maxFiles > 0) {
+            Files.deleteIfExists(rolled(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                if (Files.exists(rolled(i))) {
+                    Files.move(rolled(i), rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(file);
+        }
+        output = openOutput();
+    }
+
+    private Path rolled(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private WritableByteChannel openOutput() throws IOException {
+        if (file == null) {
+            return Channels.newChannel(console);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+        return channel;
+    }
+
+    private static final class Slot {
+        volatile long published = -1;
+        long sequence;
+        int kind;
+        LogLevel level;
+        long time;
+        String template;
+        Object a;
+        Object b;
+        Object c;
+        long x;
+        long y;
+    }
+}
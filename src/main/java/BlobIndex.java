@@ -0,0 +1,123 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Append-only log mapping names to blob digests for ContentAddressedFileRepository. A name is
+// written once, when it is first uploaded, so the log never needs compacting; it is replayed into
+// memory on open, and a record torn by a crash is cut off the end.
+// Record: u16 name length, UTF-8 name, 32-byte SHA-256 digest, u64 size.
+public class BlobIndex {
+
+    static final int DIGEST_LENGTH = 32;
+    private static final byte[] MAGIC = "HTSBLOB1".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path file;
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    public record Entry(byte[] digest, long size) {
+
+        public String hex() {
+            return HexFormat.of().formatHex(digest);
+        }
+    }
+
+    private BlobIndex(Path file) {
+        this.file = file;
+    }
+
+    public static BlobIndex open(Path file) throws IOException {
+        var index = new BlobIndex(file);
+        if (Files.notExists(file)) {
+            Files.createDirectories(file.getParent());
+            Files.write(file, MAGIC, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            GroupCommit.forceFile(file);
+            GroupCommit.forceDirectory(file.getParent());
+        } else {
+            index.load();
+        }
+        return index;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    // Names in order, starting at from
+    public Iterator<FileEntry> from(String from) {
+        return entries.tailMap(from, true).entrySet().stream()
+                .map(entry -> FileEntry.of(entry.getKey(), entry.getValue().size(), -1))
+                .iterator();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Returns false when the name is already taken
+    public synchronized boolean add(String name, byte[] digest, long size) throws IOException {
+        if (entries.containsKey(name)) {
+            return false;
+        }
+        byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+        if (encodedName.length > 0xFFFF) {
+            throw new IOException("File name is too long");
+        }
+        ByteBuffer record = ByteBuffer.allocate(2 + encodedName.length + DIGEST_LENGTH + 8)
+                .putShort((short) encodedName.length)
+                .put(encodedName)
+                .put(digest)
+                .putLong(size)
+                .flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+        entries.put(name, new Entry(digest, size));
+        return true;
+    }
+
+    private void load() throws IOException {
+        long valid = MAGIC.length;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            if (!Arrays.equals(in.readNBytes(MAGIC.length), MAGIC)) {
+                throw new IOException(file + " is not a blob index");
+            }
+            while (true) {
+                int high = in.read();
+                if (high == -1) {
+                    return;
+                }
+                int nameLength = high << 8 | in.readUnsignedByte();
+                byte[] name = in.readNBytes(nameLength);
+                byte[] digest = in.readNBytes(DIGEST_LENGTH);
+                long size = in.readLong();
+                if (name.length < nameLength || digest.length < DIGEST_LENGTH) {
+                    throw new EOFException();
+                }
+                entries.put(new String(name, StandardCharsets.UTF_8), new Entry(digest, size));
+                valid += 2 + nameLength + DIGEST_LENGTH + 8;
+            }
+        } catch (EOFException e) {
+            Log.warn("Truncating a torn record at offset {} of {}", valid, file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+    }
+}
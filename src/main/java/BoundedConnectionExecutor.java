@@ -0,0 +1,55 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BoundedConnectionExecutor implements ConnectionExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+
+    public BoundedConnectionExecutor(int threads, int queueDepth) {
+        BlockingQueue<Runnable> queue = queueDepth > 0 ? new ArrayBlockingQueue<>(queueDepth) : new SynchronousQueue<>();
+        var threadNumber = new AtomicInteger(1);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "hts-worker-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public boolean execute(Runnable connectionHandler) {
+        try {
+            executor.execute(connectionHandler);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    @Override
+    public int activeCount() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public int queuedCount() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
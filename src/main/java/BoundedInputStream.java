@@ -0,0 +1,45 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class BoundedInputStream extends InputStream {
+
+    private final InputStream in;
+    private long remaining;
+
+    public BoundedInputStream(InputStream in, long length) {
+        this.in = in;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining == 0) {
+            return -1;
+        }
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Request body ended " + remaining + " bytes early");
+        }
+        remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (remaining == 0) {
+            return -1;
+        }
+        int count = in.read(buffer, offset, (int) Math.min(length, remaining));
+        if (count == -1) {
+            throw new EOFException("Request body ended " + remaining + " bytes early");
+        }
+        remaining -= count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class ChunkedInputStream extends InputStream {
+
+    // Fifteen hex digits always fit a long; a sixteenth could overflow it to a negative size
+    static final int MAX_CHUNK_SIZE_DIGITS = 15;
+
+    private final InputStream in;
+    private final long maxBodySize;
+    private long chunkRemaining = 0;
+    private long total = 0;
+    private boolean finished = false;
+
+    public ChunkedInputStream(InputStream in, long maxBodySize) {
+        this.in = in;
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Chunked body ended early");
+        }
+        chunkRemaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        int count = in.read(buffer, offset, (int) Math.min(length, chunkRemaining));
+        if (count == -1) {
+            throw new EOFException("Chunked body ended early");
+        }
+        chunkRemaining -= count;
+        return count;
+    }
+
+    // Positions the stream on chunk data, returns false after the last chunk and trailers
+    private boolean nextChunk() throws IOException {
+        if (finished) {
+            return false;
+        }
+        if (chunkRemaining > 0) {
+            return true;
+        }
+        if (total > 0) {
+            expectLineBreak();
+        }
+        chunkRemaining = readChunkSize();
+        if (chunkRemaining == 0) {
+            skipTrailers();
+            finished = true;
+            return false;
+        }
+        total += chunkRemaining;
+        if (total > maxBodySize) {
+            throw new PayloadTooLargeException(maxBodySize);
+        }
+        return true;
+    }
+
+    private long readChunkSize() throws IOException {
+        long size = 0;
+        int digits = 0;
+        boolean extension = false;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Chunked body ended early");
+            }
+            if (b == ';') {
+                extension = true;
+            }
+            if (extension || b == '\r' || b == ' ' || b == '\t') {
+                continue;
+            }
+            int digit = Character.digit(b, 16);
+            if (digit < 0 || ++digits > MAX_CHUNK_SIZE_DIGITS) {
+                throw new HttpParseException(HttpStatus.BAD_REQUEST, "Malformed chunk size");
+            }
+            size = size * 16 + digit;
+        }
+        if (digits == 0) {
+            throw new HttpParseException(HttpStatus.BAD_REQUEST, "Malformed chunk size");
+        }
+        return size;
+    }
+
+    private void expectLineBreak() throws IOException {
+        if (in.read() != '\r' || in.read() != '\n') {
+            throw new HttpParseException(HttpStatus.BAD_REQUEST, "Malformed chunk terminator");
+        }
+    }
+
+    private void skipTrailers() throws IOException {
+        int lineLength = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                if (lineLength == 0) {
+                    return;
+                }
+                lineLength = 0;
+            } else if (b != '\r') {
+                lineLength++;
+            }
+        }
+        throw new EOFException("Chunked body ended early");
+    }
+}
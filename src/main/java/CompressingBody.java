@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+// Compresses a response body while it is written, one chunk of the chunked transfer coding at a
+// time, so large files never have to be compressed into memory first. Like HttpResponse.write,
+// writeTo may be called again after a partial write on a non-blocking channel.
+public class CompressingBody {
+
+    private static final int INPUT_SIZE = 32 * 1024;
+    private static final int OUTPUT_SIZE = 32 * 1024;
+    // Room for the chunk size in hex, a CRLF before and after the data and the last-chunk marker
+    private static final int CHUNK_HEADER_SIZE = Integer.toHexString(OUTPUT_SIZE).length() + 2;
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Compressor compressor;
+    private final FileChannel file;
+    private long filePosition;
+    private final long fileEnd;
+    private final byte[] input;
+    private final byte[] chunk = new byte[CHUNK_HEADER_SIZE + OUTPUT_SIZE + 2 + LAST_CHUNK.length];
+    private final ByteBuffer pending = ByteBuffer.wrap(chunk).limit(0);
+    private boolean headerWritten;
+    private boolean finished;
+    private long bytesWritten;
+
+    public CompressingBody(ContentEncoding encoding, FileChannel file, long position, long count) {
+        this.compressor = Compressor.acquire(encoding);
+        this.file = file;
+        this.filePosition = position;
+        this.fileEnd = position + count;
+        this.input = new byte[INPUT_SIZE];
+    }
+
+    public CompressingBody(ContentEncoding encoding, ByteBuffer source) {
+        this.compressor = Compressor.acquire(encoding);
+        this.file = null;
+        this.fileEnd = 0;
+        this.input = null;
+        compressor.setInput(source);
+        compressor.finish();
+    }
+
+    public ContentEncoding getEncoding() {
+        return compressor.getEncoding();
+    }
+
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        while (true) {
+            if (pending.hasRemaining()) {
+                bytesWritten += channel.write(pending);
+                if (pending.hasRemaining()) {
+                    return false;
+                }
+            }
+            if (finished) {
+                return true;
+            }
+            nextChunk();
+        }
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public void release() {
+        compressor.release();
+    }
+
+    private void nextChunk() throws IOException {
+        int dataStart = CHUNK_HEADER_SIZE;
+        int dataEnd = OUTPUT_SIZE + dataStart - Compressor.GZIP_TRAILER_SIZE;
+        int length = 0;
+        if (!headerWritten) {
+            length += compressor.writeHeader(chunk, dataStart);
+            headerWritten = true;
+        }
+        while (dataStart + length < dataEnd && !compressor.isFinished()) {
+            if (compressor.needsInput() && file != null) {
+                fillInput();
+            }
+            length += compressor.deflate(chunk, dataStart + length, dataEnd - dataStart - length);
+        }
+        if (compressor.isFinished()) {
+            length += compressor.writeTrailer(chunk, dataStart + length);
+            finished = true;
+        }
+
+        int end = dataStart + length;
+        int start = dataStart;
+        if (length > 0) {
+            chunk[end++] = '\r';
+            chunk[end++] = '\n';
+            chunk[--start] = '\n';
+            chunk[--start] = '\r';
+            for (int remaining = length; remaining > 0; remaining >>>= 4) {
+                chunk[--start] = (byte) Character.forDigit(remaining & 0xf, 16);
+            }
+        }
+        if (finished) {
+            System.arraycopy(LAST_CHUNK, 0, chunk, end, LAST_CHUNK.length);
+            end += LAST_CHUNK.length;
+        }
+        pending.limit(end).position(start);
+    }
+
+    private void fillInput() throws IOException {
+        int count = (int) Math.min(INPUT_SIZE, fileEnd - filePosition);
+        ByteBuffer target = ByteBuffer.wrap(input, 0, count);
+        while (target.hasRemaining()) {
+            if (file.read(target, filePosition + target.position()) < 0) {
+                throw new IOException("File truncated while being sent");
+            }
+        }
+        filePosition += count;
+        compressor.setInput(input, 0, count);
+        if (filePosition >= fileEnd) {
+            compressor.finish();
+        }
+    }
+}
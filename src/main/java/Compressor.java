@@ -0,0 +1,136 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// A pooled Deflater for one content coding. Deflaters hold native memory and are costly to
+// create, so they are reset and handed back to the pool instead of being allocated per response.
+public class Compressor {
+
+    public static final int GZIP_HEADER_SIZE = 10;
+    public static final int GZIP_TRAILER_SIZE = 8;
+
+    private static final int MAX_POOLED = 64;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final Queue<Compressor> GZIP_POOL = new ConcurrentLinkedQueue<>();
+    private static final Queue<Compressor> DEFLATE_POOL = new ConcurrentLinkedQueue<>();
+
+    private final ContentEncoding encoding;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+
+    private Compressor(ContentEncoding encoding) {
+        this.encoding = encoding;
+        // gzip wraps raw deflate data in its own header and trailer, HTTP deflate is the zlib format
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, encoding == ContentEncoding.GZIP);
+    }
+
+    public static Compressor acquire(ContentEncoding encoding) {
+        Compressor compressor = pool(encoding).poll();
+        return compressor != null ? compressor : new Compressor(encoding);
+    }
+
+    public static byte[] compress(ContentEncoding encoding, byte[] content) {
+        return compress(encoding, ByteBuffer.wrap(content));
+    }
+
+    public static byte[] compress(ContentEncoding encoding, ByteBuffer content) {
+        Compressor compressor = acquire(encoding);
+        try {
+            int length = content.remaining();
+            byte[] output = new byte[length / 2 + 64];
+            int size = compressor.writeHeader(output, 0);
+            compressor.setInput(content.duplicate());
+            compressor.finish();
+            while (!compressor.isFinished()) {
+                if (size + GZIP_TRAILER_SIZE >= output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                size += compressor.deflate(output, size, output.length - size - GZIP_TRAILER_SIZE);
+            }
+            size += compressor.writeTrailer(output, size);
+            return Arrays.copyOf(output, size);
+        } finally {
+            compressor.release();
+        }
+    }
+
+    public ContentEncoding getEncoding() {
+        return encoding;
+    }
+
+    public int writeHeader(byte[] output, int offset) {
+        if (encoding != ContentEncoding.GZIP) {
+            return 0;
+        }
+        System.arraycopy(GZIP_HEADER, 0, output, offset, GZIP_HEADER.length);
+        return GZIP_HEADER.length;
+    }
+
+    public void setInput(byte[] input, int offset, int length) {
+        if (encoding == ContentEncoding.GZIP) {
+            crc.update(input, offset, length);
+        }
+        deflater.setInput(input, offset, length);
+    }
+
+    public void setInput(ByteBuffer input) {
+        if (encoding == ContentEncoding.GZIP) {
+            crc.update(input.duplicate());
+        }
+        deflater.setInput(input);
+    }
+
+    public boolean needsInput() {
+        return deflater.needsInput();
+    }
+
+    public void finish() {
+        deflater.finish();
+    }
+
+    public boolean isFinished() {
+        return deflater.finished();
+    }
+
+    public int deflate(byte[] output, int offset, int length) {
+        return deflater.deflate(output, offset, length);
+    }
+
+    public int writeTrailer(byte[] output, int offset) {
+        if (encoding != ContentEncoding.GZIP) {
+            return 0;
+        }
+        writeIntLittleEndian(output, offset, (int) crc.getValue());
+        writeIntLittleEndian(output, offset + 4, (int) deflater.getBytesRead());
+        return GZIP_TRAILER_SIZE;
+    }
+
+    public void release() {
+        deflater.reset();
+        crc.reset();
+        Queue<Compressor> pool = pool(encoding);
+        if (pool.size() < MAX_POOLED) {
+            pool.offer(this);
+        } else {
+            deflater.end();
+        }
+    }
+
+    private static Queue<Compressor> pool(ContentEncoding encoding) {
+        return switch (encoding) {
+            case GZIP -> GZIP_POOL;
+            case DEFLATE -> DEFLATE_POOL;
+            case IDENTITY -> throw new IllegalArgumentException("identity is not compressed");
+        };
+    }
+
+    private static void writeIntLittleEndian(byte[] output, int offset, int value) {
+        output[offset] = (byte) value;
+        output[offset + 1] = (byte) (value >>> 8);
+        output[offset + 2] = (byte) (value >>> 16);
+        output[offset + 3] = (byte) (value >>> 24);
+    }
+}
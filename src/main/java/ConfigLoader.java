@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+// Fills AppConfig from, in rising precedence, a properties file, HTS_* environment variables and
+// command-line options. All three use the same names: --keep-alive-timeout on the command line is
+// keep-alive-timeout in the file and HTS_KEEP_ALIVE_TIMEOUT in the environment.
+public class ConfigLoader {
+
+    private static final String ENV_PREFIX = "HTS_";
+    private static final String CONFIG_OPTION = "config";
+
+    private ConfigLoader() {
+    }
+
+    // Returns the settings nobody recognized, for the caller to warn about once logging is up
+    public static List<String> load(String[] args, Map<String, String> env) {
+        List<String> unknown = new ArrayList<>();
+        checkArguments(args);
+        String file = env.get(ENV_PREFIX + "CONFIG");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--" + CONFIG_OPTION)) {
+                file = args[i + 1];
+            }
+        }
+        if (file != null) {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(Path.of(file))) {
+                properties.load(reader);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot read config file " + file + ": " + e.getMessage(), e);
+            }
+            for (String name : properties.stringPropertyNames()) {
+                set(name, properties.getProperty(name).trim(), name + " in " + file, unknown);
+            }
+        }
+        for (Map.Entry<String, String> variable : env.entrySet()) {
+            String key = variable.getKey();
+            if (key.startsWith(ENV_PREFIX) && !key.equals(ENV_PREFIX + "CONFIG")) {
+                String name = key.substring(ENV_PREFIX.length()).toLowerCase(Locale.ROOT).replace('_', '-');
+                set(name, variable.getValue(), key, unknown);
+            }
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                unknown.add(args[i]);
+            } else if (!args[i].equals("--" + CONFIG_OPTION)) {
+                set(args[i].substring(2), args[i + 1], args[i], unknown);
+            }
+        }
+        return unknown;
+    }
+
+    // Every option takes a value, so a missing one would shift the rest of the pairs
+    private static void checkArguments(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (args[i].startsWith("--") && (i + 1 == args.length || args[i + 1].startsWith("--"))) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+        }
+    }
+
+    private static void set(String name, String value, String source, List<String> unknown) {
+        try {
+            if (!apply(name, value)) {
+                unknown.add(source);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value " + value + " for " + source, e);
+        }
+    }
+
+    private static boolean apply(String name, String value) {
+        switch (name) {
+            case "directory" -> AppConfig.directory = value;
+            case "port" -> AppConfig.port = Integer.parseInt(value);
+            case "bind-address" -> AppConfig.bindAddress = value;
+            case "acceptors" -> AppConfig.acceptors = Integer.parseInt(value);
+            case "reuse-port" -> AppConfig.reusePort = Boolean.parseBoolean(value);
+            case "tcp-no-delay" -> AppConfig.tcpNoDelay = Boolean.parseBoolean(value);
+            case "socket-send-buffer" -> AppConfig.socketSendBuffer = Integer.parseInt(value);
+            case "socket-receive-buffer" -> AppConfig.socketReceiveBuffer = Integer.parseInt(value);
+            case "keep-alive-timeout" -> AppConfig.keepAliveTimeoutMillis = Integer.parseInt(value);
+            case "header-timeout" -> AppConfig.headerTimeoutMillis = Long.parseLong(value);
+            case "body-timeout" -> AppConfig.bodyTimeoutMillis = Long.parseLong(value);
+            case "max-requests-per-connection" -> AppConfig.maxRequestsPerConnection = Integer.parseInt(value);
+            case "shutdown-timeout" -> AppConfig.shutdownTimeoutMillis = Long.parseLong(value);
+            case "rate-limit" -> AppConfig.rateLimit = Double.parseDouble(value);
+            case "rate-limit-burst" -> AppConfig.rateLimitBurst = Integer.parseInt(value);
+            case "upload-rate-limit" -> AppConfig.uploadRateLimit = Double.parseDouble(value);
+            case "upload-rate-limit-burst" -> AppConfig.uploadRateLimitBurst = Integer.parseInt(value);
+            case "max-connections-per-address" -> AppConfig.maxConnectionsPerAddress = Integer.parseInt(value);
+            case "max-in-flight-requests" -> AppConfig.maxInFlightRequests = Integer.parseInt(value);
+            case "executor" -> AppConfig.executorMode = value;
+            case "worker-threads" -> AppConfig.workerThreads = Integer.parseInt(value);
+            case "queue-depth" -> AppConfig.queueDepth = Integer.parseInt(value);
+            case "accept-backlog" -> AppConfig.acceptBacklog = Integer.parseInt(value);
+            case "engine" -> AppConfig.engine = value;
+            case "event-loops" -> AppConfig.eventLoops = Integer.parseInt(value);
+            case "memory-mapped-files" -> AppConfig.memoryMappedFiles = Boolean.parseBoolean(value);
+            case "max-body-size" -> AppConfig.maxBodySize = Long.parseLong(value);
+            case "nio-max-body-size" -> AppConfig.nioMaxBodySize = Long.parseLong(value);
+            case "max-request-line-length" -> AppConfig.maxRequestLineLength = Integer.parseInt(value);
+            case "max-header-size" -> AppConfig.maxHeaderSize = Integer.parseInt(value);
+            case "file-cache-max-bytes" -> AppConfig.fileCacheMaxBytes = Long.parseLong(value);
+            case "file-cache-max-entry-bytes" -> AppConfig.fileCacheMaxEntryBytes = Long.parseLong(value);
+            case "file-cache-revalidate-millis" -> AppConfig.fileCacheRevalidateMillis = Long.parseLong(value);
+            case "file-cache-gzip" -> AppConfig.fileCacheGzip = Boolean.parseBoolean(value);
+            case "compression-min-size" -> AppConfig.compressionMinSize = Long.parseLong(value);
+            case "precompressed-files" -> AppConfig.precompressedFiles = Boolean.parseBoolean(value);
+            case "file-store" -> AppConfig.fileStore = value;
+            case "directory-index" -> AppConfig.directoryIndex = Boolean.parseBoolean(value);
+            case "upload-fsync" -> AppConfig.uploadFsync = value;
+            case "upload-fsync-batch-millis" -> AppConfig.uploadFsyncBatchMillis = Long.parseLong(value);
+            case "upload-lock-stripes" -> AppConfig.uploadLockStripes = Integer.parseInt(value);
+            case "http2" -> AppConfig.http2 = Boolean.parseBoolean(value);
+            case "http2-max-concurrent-streams" -> AppConfig.http2MaxConcurrentStreams = Integer.parseInt(value);
+            case "http2-initial-window-size" -> AppConfig.http2InitialWindowSize = Integer.parseInt(value);
+            case "tls-port" -> AppConfig.tlsPort = Integer.parseInt(value);
+            case "tls-keystore" -> AppConfig.tlsKeystore = value;
+            case "tls-keystore-password" -> AppConfig.tlsKeystorePassword = value;
+            case "tls-keystore-type" -> AppConfig.tlsKeystoreType = value;
+            case "tls-protocols" -> AppConfig.tlsProtocols = value;
+            case "tls-session-cache-size" -> AppConfig.tlsSessionCacheSize = Integer.parseInt(value);
+            case "tls-session-timeout" -> AppConfig.tlsSessionTimeoutSeconds = Integer.parseInt(value);
+            case "tls-session-tickets" -> AppConfig.tlsSessionTickets = Boolean.parseBoolean(value);
+            case "tls-max-pooled-buffers" -> AppConfig.tlsMaxPooledBuffers = Integer.parseInt(value);
+            case "log-level" -> AppConfig.logLevel = value;
+            case "log-file" -> AppConfig.logFile = value;
+            case "log-max-file-bytes" -> AppConfig.logMaxFileBytes = Long.parseLong(value);
+            case "log-max-files" -> AppConfig.logMaxFiles = Integer.parseInt(value);
+            case "log-buffer-size" -> AppConfig.logBufferSize = Integer.parseInt(value);
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+}
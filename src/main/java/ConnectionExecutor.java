@@ -0,0 +1,21 @@
+public interface ConnectionExecutor {
+
+    // Returns false when the executor is saturated and the connection should be shed
+    boolean execute(Runnable connectionHandler);
+
+    int activeCount();
+
+    int queuedCount();
+
+    long rejectedCount();
+
+    void shutdown();
+
+    static ConnectionExecutor forMode(String mode) {
+        return switch (mode) {
+            case "virtual" -> new VirtualThreadConnectionExecutor();
+            case "bounded" -> new BoundedConnectionExecutor(AppConfig.workerThreads, AppConfig.queueDepth);
+            default -> throw new IllegalArgumentException("Unknown executor mode " + mode);
+        };
+    }
+}
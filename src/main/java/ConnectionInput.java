@@ -0,0 +1,150 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Buffered socket input that parses request heads in place. Body reads refill only the part of
+// the buffer after the current head, so the parsed HttpRequest stays valid until the next head.
+public class ConnectionInput extends InputStream {
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private int bodyFloor = 0;
+    private long bytesRead = 0;
+    private Runnable headStarted = () -> { };
+
+    public ConnectionInput(InputStream in) {
+        this(in, AppConfig.maxRequestLineLength + AppConfig.maxHeaderSize + 16 * 1024);
+    }
+
+    public ConnectionInput(InputStream in, int capacity) {
+        this.in = in;
+        this.buffer = new byte[capacity];
+    }
+
+    // Runs when the first bytes of a request head arrive, or at once if they were read with the last request
+    public void onHeadStarted(Runnable listener) {
+        this.headStarted = listener;
+    }
+
+    // Returns null when the client closed the connection between requests
+    public HttpRequest readRequest(HttpRequestParser parser) throws IOException {
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+
+        boolean started = limit > 0;
+        if (started) {
+            headStarted.run();
+        }
+        while (true) {
+            int headEnd = parser.parse(buffer, 0, limit);
+            if (headEnd != HttpRequestParser.NEED_MORE) {
+                position = headEnd;
+                bodyFloor = headEnd;
+                return parser.getRequest();
+            }
+            if (limit == buffer.length) {
+                throw new HttpParseException(HttpStatus.HEADERS_TOO_LARGE, "Request head exceeds " + buffer.length + " bytes");
+            }
+            int count = in.read(buffer, limit, buffer.length - limit);
+            if (count == -1) {
+                if (onlyLineBreaks()) {
+                    return null;
+                }
+                throw new EOFException("Connection closed in the middle of a request head");
+            }
+            limit += count;
+            bytesRead += count;
+            if (!started) {
+                started = true;
+                headStarted.run();
+            }
+        }
+    }
+
+    // Reads only as far as needed to tell whether the input starts with prefix, e.g. the HTTP/2
+    // connection preface; nothing is consumed, so an HTTP/1.1 request head can still be read after it
+    public boolean startsWith(byte[] prefix) throws IOException {
+        while (true) {
+            int compared = Math.min(limit - position, prefix.length);
+            for (int i = 0; i < compared; i++) {
+                if (buffer[position + i] != prefix[i]) {
+                    return false;
+                }
+            }
+            if (compared == prefix.length) {
+                return true;
+            }
+            if (limit == buffer.length) {
+                return false;
+            }
+            int count = in.read(buffer, limit, buffer.length - limit);
+            if (count == -1) {
+                return false;
+            }
+            limit += count;
+            bytesRead += count;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (position == limit) {
+            if (length >= buffer.length - bodyFloor) {
+                int count = in.read(target, offset, length);
+                bytesRead += Math.max(count, 0);
+                return count;
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int count = Math.min(length, limit - position);
+        System.arraycopy(buffer, position, target, offset, count);
+        position += count;
+        return count;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (limit - position) + in.available();
+    }
+
+    private boolean fill() throws IOException {
+        position = bodyFloor;
+        limit = bodyFloor;
+        int count = in.read(buffer, bodyFloor, buffer.length - bodyFloor);
+        if (count == -1) {
+            return false;
+        }
+        limit += count;
+        bytesRead += count;
+        return true;
+    }
+
+    private boolean onlyLineBreaks() {
+        for (int i = 0; i < limit; i++) {
+            if (buffer[i] != '\r' && buffer[i] != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
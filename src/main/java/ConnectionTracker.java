@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Open connections as a graceful shutdown sees them. Between requests a connection is idle and
+// closing it loses nothing; while a request is served it is busy. Draining closes the idle ones at
+// once and lets busy ones finish their response with Connection: close. Whatever is still open at
+// the deadline is aborted and its requests counted.
+public class ConnectionTracker {
+
+    private static final int IDLE = 0;
+    private static final int BUSY = 1;
+    private static final int CLOSING = 2;
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition closed = lock.newCondition();
+    private final LongAdder aborted = new LongAdder();
+    private volatile boolean draining;
+
+    public Connection open(Socket socket) {
+        var connection = new Connection(socket);
+        connections.add(connection);
+        if (draining) {
+            // Accepted just before the listener closed; the client will retry elsewhere
+            connection.closeIfIdle();
+        }
+        return connection;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public void drain() {
+        draining = true;
+        for (Connection connection : connections) {
+            connection.drain();
+        }
+    }
+
+    // True once every connection has closed, false if the timeout passed first
+    public boolean awaitDrained(long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (!connections.isEmpty()) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = closed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Closes whatever is still open and returns the number of requests cut off
+    public int abortAll() {
+        int requests = 0;
+        for (Connection connection : connections) {
+            requests += connection.inFlight();
+            connection.closeSocket();
+        }
+        aborted.add(requests);
+        return requests;
+    }
+
+    public int getOpenConnections() {
+        return connections.size();
+    }
+
+    public long getAbortedRequests() {
+        return aborted.sum();
+    }
+
+    public final class Connection {
+
+        private final Socket socket;
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+        private volatile Http2Connection http2;
+
+        private Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        // A request head has been read
+        public void requestStarted() {
+            state.compareAndSet(IDLE, BUSY);
+        }
+
+        // Its response has been written. Draining may have begun after the response was framed.
+        public void requestFinished() {
+            state.compareAndSet(BUSY, IDLE);
+            if (draining) {
+                closeIfIdle();
+            }
+        }
+
+        // From here on the HTTP/2 connection tracks its own streams
+        public void upgraded(Http2Connection connection) {
+            state.set(BUSY);
+            http2 = connection;
+            if (draining) {
+                connection.shutdown(this::shutdownInput);
+            }
+        }
+
+        public void close() {
+            connections.remove(this);
+            lock.lock();
+            try {
+                closed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void drain() {
+            Http2Connection connection = http2;
+            if (connection != null) {
+                connection.shutdown(this::shutdownInput);
+            } else {
+                closeIfIdle();
+            }
+        }
+
+        private void closeIfIdle() {
+            if (state.compareAndSet(IDLE, CLOSING)) {
+                shutdownInput();
+            }
+        }
+
+        private int inFlight() {
+            Http2Connection connection = http2;
+            if (connection != null) {
+                return connection.getOpenStreams();
+            }
+            return state.get() == BUSY ? 1 : 0;
+        }
+
+        // The connection's own thread sees end of stream where it waits for the next request
+        private void shutdownInput() {
+            try {
+                socket.shutdownInput();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+
+        private void closeSocket() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.warn("Error closing client socket: {}", e.getMessage());
+            }
+        }
+    }
+}
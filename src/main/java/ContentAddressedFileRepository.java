@@ -0,0 +1,217 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// Stores each distinct content once, as .blobs/<first two hex digits>/<SHA-256> under
+// AppConfig.directory, with a BlobIndex mapping names to digests. Identical uploads under different
+// names share one file on disk and one entry in the page and file caches, and the digest is the ETag.
+public class ContentAddressedFileRepository implements FileRepository {
+
+    private static final int UPLOAD_BUFFER_SIZE = 64 * 1024;
+    private static final String BLOB_DIRECTORY = ".blobs";
+    private static final String INDEX_FILE = "index";
+    private static final String UPLOAD_DIRECTORY = "uploads";
+
+    private final FileResponder responder;
+    private final FsyncMode fsyncMode = FsyncMode.of(AppConfig.uploadFsync);
+    private final GroupCommit groupCommit = new GroupCommit(AppConfig.uploadFsyncBatchMillis);
+    private final Path blobs;
+    // Opened once for the configured directory. When that fails, requests get the reason instead of
+    // retrying the open each time.
+    private final BlobIndex index;
+    private final String indexError;
+
+    public ContentAddressedFileRepository() {
+        this(FileRepository.defaultFileCache());
+    }
+
+    public ContentAddressedFileRepository(FileCache fileCache) {
+        this.responder = new FileResponder(fileCache, false);
+        BlobIndex opened = null;
+        String error = null;
+        if (AppConfig.directory == null) {
+            this.blobs = null;
+            error = "No directory configured";
+        } else {
+            this.blobs = Path.of(AppConfig.directory, BLOB_DIRECTORY).toAbsolutePath().normalize();
+            try {
+                opened = BlobIndex.open(blobs.resolve(INDEX_FILE));
+            } catch (IOException e) {
+                error = "Cannot open blob index: " + e.getMessage();
+                Log.warn(error);
+            }
+        }
+        this.index = opened;
+        this.indexError = error;
+    }
+
+    @Override
+    public HttpResponse getFileByName(RequestContext context) {
+        var fileName = FileRepository.fileName(context.getPath());
+        Log.debug("Retrieving file {}", fileName);
+
+        if (index == null) {
+            return unavailable();
+        }
+        try {
+            BlobIndex.Entry entry = index.get(fileName);
+            if (entry == null) {
+                return HttpResponse.status(HttpStatus.NOT_FOUND);
+            }
+            File blob = blobPath(blobs, entry.hex()).toFile();
+            return responder.respond(blob, fileName, etag(entry.hex()), context);
+        } catch (IOException e) {
+            return HttpResponse.status(HttpStatus.INTERNAL_SERVER_ERROR).text(e.getMessage());
+        }
+    }
+
+    @Override
+    public HttpResponse listFiles(RequestContext context) {
+        FileListing listing = FileListing.of(context);
+        if (listing == null) {
+            return FileListing.badRequest();
+        }
+        if (index == null) {
+            return unavailable();
+        }
+        return listing.render(index.from(listing.getStart()));
+    }
+
+    @Override
+    public FileCache getFileCache() {
+        return responder.getFileCache();
+    }
+
+    @Override
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    // The body is hashed while it is written to a temporary file, which then becomes the blob unless
+    // one with that digest exists already. The blob is made durable before the name points to it.
+    @Override
+    public HttpResponse postFile(String path, InputStream content) {
+        var fileName = FileRepository.fileName(path);
+        Log.debug("Posting file {}", fileName);
+
+        if (index == null) {
+            return unavailable();
+        }
+        Path temporary = null;
+        try {
+            if (index.get(fileName) != null) {
+                return HttpResponse.status(HttpStatus.CONFLICT);
+            }
+
+            Path uploads = Files.createDirectories(blobs.resolve(UPLOAD_DIRECTORY));
+            temporary = Files.createTempFile(uploads, "upload-", ".part");
+            MessageDigest sha256 = sha256();
+            long size = 0;
+            try (var output = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[UPLOAD_BUFFER_SIZE];
+                int count;
+                while ((count = content.read(buffer)) != -1) {
+                    sha256.update(buffer, 0, count);
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, count);
+                    while (chunk.hasRemaining()) {
+                        output.write(chunk);
+                    }
+                    size += count;
+                }
+            }
+
+            byte[] digest = sha256.digest();
+            String hex = HexFormat.of().formatHex(digest);
+            Path blob = blobPath(blobs, hex);
+            boolean stored = false;
+            // A blob of the wrong size was cut short by a crash and is replaced rather than shared
+            if (Files.notExists(blob) || Files.size(blob) != size) {
+                if (Files.notExists(blob.getParent())) {
+                    Files.createDirectories(blob.getParent());
+                    if (fsyncMode != FsyncMode.NONE) {
+                        GroupCommit.forceDirectory(blobs);
+                    }
+                }
+                // The data is durable before the digest names it, so later uploads never dedup against a torn blob
+                syncData(temporary);
+                // A concurrent upload of the same content may win the rename; the bytes are the same
+                try {
+                    Files.move(temporary, blob, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, blob, StandardCopyOption.REPLACE_EXISTING);
+                }
+                temporary = null;
+                stored = true;
+            }
+            // Also when deduplicated, as the upload that stored the blob may not have synced its rename yet
+            syncDirectory(blob.getParent());
+
+            if (!index.add(fileName, digest, size)) {
+                return HttpResponse.status(HttpStatus.CONFLICT);
+            }
+            syncData(index.getFile());
+            Log.debug(stored ? "Stored {} as blob {}" : "Stored {} as existing blob {}", fileName, hex);
+            return HttpResponse.status(HttpStatus.CREATED).etag(etag(hex));
+        } catch (PayloadTooLargeException e) {
+            return HttpResponse.status(HttpStatus.PAYLOAD_TOO_LARGE).text(e.getMessage());
+        } catch (HttpParseException e) {
+            return HttpResponse.status(e.getStatus()).text(e.getMessage());
+        } catch (IOException e) {
+            return HttpResponse.status(HttpStatus.INTERNAL_SERVER_ERROR).text(e.getMessage());
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException e) {
+                    Log.warn("Cannot delete {}: {}", temporary, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void syncData(Path file) throws IOException {
+        if (fsyncMode == FsyncMode.BATCH) {
+            groupCommit.syncData(file);
+        } else if (fsyncMode == FsyncMode.ALWAYS) {
+            GroupCommit.forceFile(file);
+        }
+    }
+
+    private void syncDirectory(Path directory) throws IOException {
+        if (fsyncMode == FsyncMode.BATCH) {
+            groupCommit.syncDirectory(directory);
+        } else if (fsyncMode == FsyncMode.ALWAYS) {
+            GroupCommit.forceDirectory(directory);
+        }
+    }
+
+    private HttpResponse unavailable() {
+        return HttpResponse.status(HttpStatus.INTERNAL_SERVER_ERROR).text(indexError);
+    }
+
+    private static Path blobPath(Path blobs, String hex) {
+        return blobs.resolve(hex.substring(0, 2)).resolve(hex);
+    }
+
+    private static String etag(String hex) {
+        return "\"" + hex + "\"";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required of every JVM", e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+public enum ContentEncoding {
+    IDENTITY("identity"),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private final String token;
+
+    ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    // Picks the coding with the highest q-value from an Accept-Encoding header. Ties go to gzip, then
+    // deflate; identity only wins when listed with a higher q, and is the fallback when nothing else is acceptable.
+    public static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+        float gzip = -1;
+        float deflate = -1;
+        float identity = -1;
+        float any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            int parameters = coding.indexOf(';');
+            String name = (parameters < 0 ? coding : coding.substring(0, parameters)).trim();
+            float quality = parameters < 0 ? 1 : parseQuality(coding.substring(parameters + 1));
+            if (name.equalsIgnoreCase(GZIP.token) || name.equalsIgnoreCase("x-gzip")) {
+                gzip = Math.max(gzip, quality);
+            } else if (name.equalsIgnoreCase(DEFLATE.token)) {
+                deflate = Math.max(deflate, quality);
+            } else if (name.equalsIgnoreCase(IDENTITY.token)) {
+                identity = Math.max(identity, quality);
+            } else if (name.equals("*")) {
+                any = Math.max(any, quality);
+            }
+        }
+        gzip = gzip >= 0 ? gzip : Math.max(any, 0);
+        deflate = deflate >= 0 ? deflate : Math.max(any, 0);
+        identity = identity >= 0 ? identity : Math.max(any, 0);
+
+        if (gzip > 0 && gzip >= deflate && gzip >= identity) {
+            return GZIP;
+        }
+        if (deflate > 0 && deflate >= identity) {
+            return DEFLATE;
+        }
+        return IDENTITY;
+    }
+
+    private static float parseQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=") || trimmed.startsWith("Q=")) {
+                try {
+                    return Math.max(0, Math.min(1, Float.parseFloat(trimmed.substring(2))));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
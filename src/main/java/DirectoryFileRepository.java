@@ -0,0 +1,206 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Stores every file under its own name in AppConfig.directory
+public class DirectoryFileRepository implements FileRepository {
+
+    private static final int UPLOAD_BUFFER_SIZE = 64 * 1024;
+    private static final String UPLOAD_PREFIX = ".upload-";
+    private static final String UPLOAD_SUFFIX = ".part";
+
+    private final FileResponder responder;
+    private final FsyncMode fsyncMode = FsyncMode.of(AppConfig.uploadFsync);
+    private final GroupCommit groupCommit = new GroupCommit(AppConfig.uploadFsyncBatchMillis);
+    private final StripedLocks uploadLocks = new StripedLocks(AppConfig.uploadLockStripes);
+    // Opened once for the directory configured at construction. Null when indexing is off or the
+    // directory can't be indexed, and files are then looked up on disk.
+    private final String indexedDirectory = AppConfig.directory;
+    private final DirectoryIndex index;
+
+    public DirectoryFileRepository() {
+        this(FileRepository.defaultFileCache());
+    }
+
+    public DirectoryFileRepository(FileCache fileCache) {
+        this.responder = new FileResponder(fileCache, true);
+        this.index = openIndex(indexedDirectory);
+    }
+
+    @Override
+    public HttpResponse getFileByName(RequestContext context) {
+        var fileName = FileRepository.fileName(context.getPath());
+        Log.debug("Retrieving file {}", fileName);
+
+        File file = new File(AppConfig.directory, fileName);
+        try {
+            DirectoryIndex current = index();
+            if (current == null) {
+                return responder.respond(file, fileName, null, context);
+            }
+            FileEntry entry = current.get(fileName);
+            if (entry == null) {
+                return HttpResponse.status(HttpStatus.NOT_FOUND);
+            }
+            return responder.respond(file, fileName, null, entry.size(), entry.lastModified(), context);
+        } catch (NoSuchFileException e) {
+            // Deleted since it was indexed
+            return HttpResponse.status(HttpStatus.NOT_FOUND);
+        } catch (IOException e) {
+            return HttpResponse.status(HttpStatus.INTERNAL_SERVER_ERROR).text(e.getMessage());
+        }
+    }
+
+    @Override
+    public HttpResponse listFiles(RequestContext context) {
+        FileListing listing = FileListing.of(context);
+        if (listing == null) {
+            return FileListing.badRequest();
+        }
+        DirectoryIndex current = index();
+        if (current == null) {
+            return HttpResponse.status(HttpStatus.NOT_FOUND).text("No directory index");
+        }
+        return listing.render(current.from(listing.getStart()));
+    }
+
+    public DirectoryIndex getIndex() {
+        return index();
+    }
+
+    @Override
+    public FileCache getFileCache() {
+        return responder.getFileCache();
+    }
+
+    @Override
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    // The body is written to a temporary file next to the target and renamed into place, so readers
+    // never see a partial upload. Of two uploads to the same name only the first to finish wins.
+    @Override
+    public HttpResponse postFile(String path, InputStream content) {
+        var fileName = FileRepository.fileName(path);
+        Log.debug("Posting file {}", fileName);
+
+        var file = new File(AppConfig.directory, fileName);
+        if (file.exists()) {
+            return HttpResponse.status(HttpStatus.CONFLICT);
+        }
+        Path target = file.toPath().toAbsolutePath().normalize();
+        Path temporary = null;
+        try {
+            Files.createDirectories(target.getParent());
+            temporary = Files.createTempFile(target.getParent(), UPLOAD_PREFIX, UPLOAD_SUFFIX);
+            try (var output = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[UPLOAD_BUFFER_SIZE];
+                int count;
+                while ((count = content.read(buffer)) != -1) {
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, count);
+                    while (chunk.hasRemaining()) {
+                        output.write(chunk);
+                    }
+                }
+                if (fsyncMode == FsyncMode.ALWAYS) {
+                    output.force(true);
+                }
+            }
+            // The data is durable before the name, so a crash can't leave a truncated file published
+            if (fsyncMode == FsyncMode.BATCH) {
+                groupCommit.syncData(temporary);
+            }
+
+            if (!publish(temporary, target)) {
+                return HttpResponse.status(HttpStatus.CONFLICT);
+            }
+            temporary = null;
+            if (fsyncMode == FsyncMode.ALWAYS) {
+                GroupCommit.forceDirectory(target.getParent());
+            } else if (fsyncMode == FsyncMode.BATCH) {
+                groupCommit.syncDirectory(target.getParent());
+            }
+            DirectoryIndex current = index();
+            if (current != null && target.startsWith(current.getRoot())) {
+                current.refresh(target);
+            }
+            if (getFileCache() != null) {
+                getFileCache().invalidate(file);
+            }
+            return HttpResponse.status(HttpStatus.CREATED);
+        } catch (PayloadTooLargeException e) {
+            return HttpResponse.status(HttpStatus.PAYLOAD_TOO_LARGE).text(e.getMessage());
+        } catch (HttpParseException e) {
+            return HttpResponse.status(e.getStatus()).text(e.getMessage());
+        } catch (IOException e) {
+            return HttpResponse.status(HttpStatus.INTERNAL_SERVER_ERROR).text(e.getMessage());
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException e) {
+                    Log.warn("Cannot delete {}: {}", temporary, e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (index != null) {
+            index.close();
+        }
+    }
+
+    private static DirectoryIndex openIndex(String directory) {
+        if (!AppConfig.directoryIndex || directory == null) {
+            return null;
+        }
+        Path root = Path.of(directory).toAbsolutePath().normalize();
+        try {
+            return DirectoryIndex.open(root);
+        } catch (IOException e) {
+            Log.debug("Not indexing {}: {}", root, e.getMessage());
+            return null;
+        }
+    }
+
+    // A directory swapped in after construction isn't indexed, so it is served from disk
+    private DirectoryIndex index() {
+        return index != null && indexedDirectory.equals(AppConfig.directory) ? index : null;
+    }
+
+    public static boolean isUploadInProgress(String fileName) {
+        return fileName.startsWith(UPLOAD_PREFIX) && fileName.endsWith(UPLOAD_SUFFIX);
+    }
+
+    // The existence check and the rename happen under the target's lock, so concurrent uploads to
+    // one name can't both succeed; a plain rename would silently replace the first one
+    private boolean publish(Path temporary, Path target) throws IOException {
+        ReentrantLock lock = uploadLocks.forKey(target);
+        lock.lock();
+        try {
+            if (Files.exists(target)) {
+                return false;
+            }
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+}
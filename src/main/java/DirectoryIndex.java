@@ -0,0 +1,215 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+// In-memory index of the files under one directory: name, size, mtime and content type, sorted by
+// name for listing. Directories are scanned in parallel on open, and a WatchService keeps the index
+// current afterwards, so looking a file up on the request path needs no file system call. Changes
+// made behind the server's back show up once the watch event arrives, usually within milliseconds.
+public class DirectoryIndex implements AutoCloseable {
+
+    private final Path root;
+    private volatile ConcurrentSkipListMap<String, FileEntry> entries = new ConcurrentSkipListMap<>();
+    private final WatchService watchService;
+    private final ConcurrentHashMap<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final Thread watcher;
+    private final LongAdder events = new LongAdder();
+    private final LongAdder rescans = new LongAdder();
+
+    private DirectoryIndex(Path root) throws IOException {
+        this.root = root;
+        this.watchService = root.getFileSystem().newWatchService();
+        this.watcher = new Thread(this::watch, "hts-directory-watch");
+        this.watcher.setDaemon(true);
+    }
+
+    public static DirectoryIndex open(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new NoSuchFileException(root.toString(), null, "not a directory");
+        }
+        var index = new DirectoryIndex(root.toAbsolutePath().normalize());
+        long start = System.nanoTime();
+        index.scan(index.root, index.entries);
+        index.watcher.start();
+        Log.info("Indexed {} files under {} in {}ms", index.entries.size(), index.root, (System.nanoTime() - start) / 1_000_000);
+        return index;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    // fileName as taken from the request path; null when there is no such file
+    public FileEntry get(String fileName) {
+        String name = key(fileName);
+        return name == null ? null : entries.get(name);
+    }
+
+    // Entries in name order, starting at from
+    public Iterator<FileEntry> from(String from) {
+        return entries.tailMap(from, true).values().iterator();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getEvents() {
+        return events.sum();
+    }
+
+    public long getRescans() {
+        return rescans.sum();
+    }
+
+    // Called after the server itself changed a file, so its own uploads are visible right away
+    public void refresh(Path file) {
+        Path relative = root.relativize(file.toAbsolutePath().normalize());
+        refresh(entries, file, name(relative));
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            Log.warn("Error closing the watch service for {}: {}", root, e.getMessage());
+        }
+        watcher.interrupt();
+    }
+
+    private void scan(Path directory, ConcurrentSkipListMap<String, FileEntry> target) {
+        ForkJoinPool.commonPool().invoke(new ScanTask(directory, target));
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = watchedDirectories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                events.increment();
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                    rescan();
+                    continue;
+                }
+                Path file = directory.resolve((Path) event.context());
+                String name = name(root.relativize(file));
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    entries.remove(name);
+                    entries.subMap(name + "/", name + "0").clear();
+                } else if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                    scan(file, entries);
+                } else {
+                    refresh(entries, file, name);
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+        }
+    }
+
+    // Events were lost, so the whole tree is read again and swapped in at once
+    private void rescan() {
+        rescans.increment();
+        for (WatchKey key : watchedDirectories.keySet()) {
+            key.cancel();
+        }
+        watchedDirectories.clear();
+        var fresh = new ConcurrentSkipListMap<String, FileEntry>();
+        scan(root, fresh);
+        entries = fresh;
+    }
+
+    private void refresh(ConcurrentSkipListMap<String, FileEntry> target, Path file, String name) {
+        if (DirectoryFileRepository.isUploadInProgress(file.getFileName().toString())) {
+            return;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.isRegularFile()) {
+                target.put(name, FileEntry.of(name, attributes.size(), attributes.lastModifiedTime().toMillis()));
+            } else {
+                target.remove(name);
+            }
+        } catch (NoSuchFileException e) {
+            target.remove(name);
+        } catch (IOException e) {
+            Log.warn("Cannot index {}: {}", file, e.getMessage());
+        }
+    }
+
+    // Null when the name points outside the root
+    private String key(String fileName) {
+        Path resolved = root.resolve(fileName).normalize();
+        return resolved.startsWith(root) ? name(root.relativize(resolved)) : null;
+    }
+
+    private static String name(Path relative) {
+        String name = relative.toString();
+        return File.separatorChar == '/' ? name : name.replace(File.separatorChar, '/');
+    }
+
+    private final class ScanTask extends RecursiveAction {
+
+        private final Path directory;
+        private final ConcurrentSkipListMap<String, FileEntry> target;
+
+        ScanTask(Path directory, ConcurrentSkipListMap<String, FileEntry> target) {
+            this.directory = directory;
+            this.target = target;
+        }
+
+        @Override
+        protected void compute() {
+            List<ScanTask> subdirectories = new ArrayList<>();
+            try {
+                // Registered before listing, so nothing created during the scan is missed
+                WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirectories.put(key, directory);
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                    for (Path child : children) {
+                        BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        String name = name(root.relativize(child));
+                        if (attributes.isDirectory()) {
+                            subdirectories.add(new ScanTask(child, target));
+                        } else if (attributes.isSymbolicLink()) {
+                            refresh(target, child, name);
+                        } else if (attributes.isRegularFile() && !DirectoryFileRepository.isUploadInProgress(child.getFileName().toString())) {
+                            target.put(name, FileEntry.of(name, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                        }
+                    }
+                }
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } catch (IOException e) {
+                Log.warn("Cannot index {}: {}", directory, e.getMessage());
+            }
+            invokeAll(subdirectories);
+        }
+    }
+}
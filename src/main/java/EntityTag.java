@@ -0,0 +1,36 @@
+// ETags for files, derived from size and mtime so they cost no read of the content. Responses whose
+// body went through a content coding send the weak form, since those bytes aren't what the tag describes.
+public class EntityTag {
+
+    private static final String WEAK_PREFIX = "W/";
+
+    public static String of(long size, long lastModified) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    public static String weak(String tag) {
+        return tag.startsWith(WEAK_PREFIX) ? tag : WEAK_PREFIX + tag;
+    }
+
+    // Weak comparison against an If-None-Match list, where "*" matches any current representation
+    public static boolean matchesAny(String header, String tag) {
+        String opaque = opaque(tag);
+        for (String candidate : header.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || opaque(trimmed).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Strong comparison as required by If-Range: weak tags never match
+    public static boolean matchesStrongly(String candidate, String tag) {
+        String trimmed = candidate.trim();
+        return !trimmed.startsWith(WEAK_PREFIX) && trimmed.equals(tag);
+    }
+
+    private static String opaque(String tag) {
+        return tag.startsWith(WEAK_PREFIX) ? tag.substring(WEAK_PREFIX.length()) : tag;
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Byte-bounded LRU cache of small file bodies, keyed by absolute path. Entries are revalidated
+// against size and mtime at most once per revalidate interval, and dropped when a POST touches them.
+public class FileCache {
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final long revalidateMillis;
+    private final LinkedHashMap<String, CachedFile> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes = 0;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public FileCache(long maxBytes, long maxEntryBytes, long revalidateMillis) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.revalidateMillis = revalidateMillis;
+    }
+
+    public boolean isCacheable(long size) {
+        return size <= maxEntryBytes && size <= maxBytes;
+    }
+
+    public CachedFile get(File file) {
+        String key = file.getAbsolutePath();
+        CachedFile cached;
+        synchronized (this) {
+            cached = entries.get(key);
+        }
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - cached.validatedAt >= revalidateMillis) {
+            if (file.lastModified() != cached.lastModified || file.length() != cached.content.length) {
+                remove(key, cached);
+                misses.increment();
+                return null;
+            }
+            cached.validatedAt = now;
+        }
+        hits.increment();
+        return cached;
+    }
+
+    public CachedFile put(File file, long lastModified, byte[] content) {
+        var cached = new CachedFile(this, file.getAbsolutePath(), lastModified, content);
+        synchronized (this) {
+            CachedFile previous = entries.put(cached.key, cached);
+            if (previous != null) {
+                cachedBytes -= previous.weight();
+            }
+            cachedBytes += cached.weight();
+            evictOverflow();
+        }
+        return cached;
+    }
+
+    public void invalidate(File file) {
+        synchronized (this) {
+            CachedFile removed = entries.remove(file.getAbsolutePath());
+            if (removed != null) {
+                cachedBytes -= removed.weight();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    private synchronized void remove(String key, CachedFile cached) {
+        if (entries.remove(key, cached)) {
+            cachedBytes -= cached.weight();
+        }
+    }
+
+    private synchronized void addGzipped(CachedFile cached, int size) {
+        if (entries.get(cached.key) == cached) {
+            cachedBytes += size;
+            evictOverflow();
+        }
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, CachedFile>> eldest = entries.entrySet().iterator();
+        while (cachedBytes > maxBytes && eldest.hasNext()) {
+            cachedBytes -= eldest.next().getValue().weight();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    public static class CachedFile {
+
+        private final FileCache cache;
+        private final String key;
+        private final long lastModified;
+        private final byte[] content;
+        private volatile byte[] gzipped;
+        private volatile long validatedAt = System.currentTimeMillis();
+
+        private CachedFile(FileCache cache, String key, long lastModified, byte[] content) {
+            this.cache = cache;
+            this.key = key;
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        // Compressed on first use and kept alongside the plain body
+        public byte[] getGzipped() {
+            byte[] result = gzipped;
+            if (result == null) {
+                result = Compressor.compress(ContentEncoding.GZIP, content);
+                synchronized (cache) {
+                    if (gzipped == null) {
+                        gzipped = result;
+                        cache.addGzipped(this, result.length);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private long weight() {
+            byte[] compressed = gzipped;
+            return content.length + (compressed == null ? 0 : compressed.length);
+        }
+    }
+}
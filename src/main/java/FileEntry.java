@@ -0,0 +1,13 @@
+import java.net.FileNameMap;
+import java.net.URLConnection;
+
+// What a listing shows about one stored file. lastModified is -1 when the store doesn't track it.
+public record FileEntry(String name, long size, long lastModified, String contentType) {
+
+    private static final FileNameMap CONTENT_TYPES = URLConnection.getFileNameMap();
+
+    public static FileEntry of(String name, long size, long lastModified) {
+        String contentType = CONTENT_TYPES.getContentTypeFor(name);
+        return new FileEntry(name, size, lastModified, contentType != null ? contentType : HTSConstants.OCTET_STREAM);
+    }
+}
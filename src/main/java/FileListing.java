@@ -0,0 +1,112 @@
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Iterator;
+
+// One page of the GET /files/ listing, as JSON. Pages are addressed by name rather than offset:
+// "after" is the last name of the previous page, which stays valid while files come and go.
+// Query: limit (default 100, at most 1000), after, and prefix to list one subdirectory.
+public class FileListing {
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
+    private final int limit;
+    private final String after;
+    private final String prefix;
+
+    private FileListing(int limit, String after, String prefix) {
+        this.limit = limit;
+        this.after = after;
+        this.prefix = prefix;
+    }
+
+    // Null when the query is not valid
+    public static FileListing of(RequestContext context) {
+        try {
+            String limit = context.queryParam("limit");
+            int parsedLimit = limit == null ? DEFAULT_LIMIT : Integer.parseInt(limit);
+            if (parsedLimit < 1 || parsedLimit > MAX_LIMIT) {
+                return null;
+            }
+            String prefix = context.queryParam("prefix");
+            return new FileListing(parsedLimit, context.queryParam("after"), prefix == null ? "" : prefix);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static HttpResponse badRequest() {
+        return HttpResponse.status(HttpStatus.BAD_REQUEST).text("limit must be between 1 and " + MAX_LIMIT);
+    }
+
+    // The name to start from; entries equal to it are skipped when it is the "after" cursor
+    public String getStart() {
+        return after != null && after.compareTo(prefix) >= 0 ? after : prefix;
+    }
+
+    // entries must be sorted by name and begin at getStart()
+    public HttpResponse render(Iterator<FileEntry> entries) {
+        var json = new StringBuilder(128 + limit * 96).append("{\"files\":[");
+        int count = 0;
+        String last = null;
+        boolean more = false;
+        while (entries.hasNext()) {
+            FileEntry entry = entries.next();
+            if (!entry.name().startsWith(prefix)) {
+                break;
+            }
+            if (entry.name().equals(after)) {
+                continue;
+            }
+            if (count == limit) {
+                more = true;
+                break;
+            }
+            if (count++ > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":");
+            quote(json, entry.name());
+            json.append(",\"size\":").append(entry.size());
+            if (entry.lastModified() >= 0) {
+                json.append(",\"modified\":\"").append(Instant.ofEpochMilli(entry.lastModified())).append('"');
+            }
+            json.append(",\"contentType\":");
+            quote(json, entry.contentType());
+            json.append('}');
+            last = entry.name();
+        }
+        json.append("],\"next\":");
+        if (more) {
+            quote(json, last);
+        } else {
+            json.append("null");
+        }
+        json.append('}');
+        return HttpResponse.status(HttpStatus.OK)
+                .header("Content-Type", HTSConstants.APPLICATION_JSON)
+                .body(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+}
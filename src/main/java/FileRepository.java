@@ -1,63 +1,40 @@
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.InputStream;
 
-public class FileRepository {
+// Storage behind /files/: "directory" keeps each upload as a plain file under its name, "blob"
+// stores content once per SHA-256 digest and maps names onto it
+public interface FileRepository extends AutoCloseable {
 
-    public String getFileByName(String path) {
-        var fileName = getFileName(path);
-        System.out.println("Retrieving file " + fileName);
+    HttpResponse getFileByName(RequestContext context);
 
-        File file = new File(AppConfig.directory, fileName);
-        if (!file.exists()) {
-            return HTSConstants.HTTP_NOT_FOUND + HTSConstants.RN_RN;
-        } else {
-            return readFileContent(file);
-        }
-    }
+    HttpResponse postFile(String path, InputStream content);
 
-    public String postFile(String path, String content) {
-        var fileName = getFileName(path);
-        System.out.println("Posting file " + fileName);
+    // GET /files/, a page of FileListing JSON
+    HttpResponse listFiles(RequestContext context);
 
-        var file = new File(AppConfig.directory, fileName);
-        if (file.exists()) {
-            return HTSConstants.HTTP_CONFLICT + HTSConstants.RN_RN;
-        } else {
-            try {
-                File parentDirectory = file.getParentFile();
-                if (parentDirectory != null) {
-                    parentDirectory.mkdirs();
-                }
-                FileWriter writer = new FileWriter(file);
-                writer.write(content);
-                writer.close();
+    FileCache getFileCache();
 
-                return HTSConstants.HTTP_CREATED + HTSConstants.RN_RN;
-            } catch (IOException e) {
-                return HTSConstants.HTTP_INT_SERVER_ERROR + HTSConstants.RN_RN + e.getMessage();
-            }
-        }
-    }
+    GroupCommit getGroupCommit();
 
-    private String readFileContent(File file) {
-        try {
-            byte[] fileBytes = Files.readAllBytes(file.toPath());
+    // Called once the server has stopped serving requests
+    @Override
+    default void close() {
+    }
 
-            return HTSConstants.HTTP_OK_RN +
-                    HTSConstants.CONTENT_TYPE + "application/octet-stream" + HTSConstants.RN +
-                    HTSConstants.CONTENT_LENGTH + fileBytes.length +
-                    HTSConstants.RN_RN +
-                    new String(fileBytes, StandardCharsets.UTF_8);
+    static FileRepository forName(String store) {
+        return switch (store) {
+            case "directory" -> new DirectoryFileRepository();
+            case "blob" -> new ContentAddressedFileRepository();
+            default -> throw new IllegalArgumentException("Unknown file store " + store);
+        };
+    }
 
-        } catch (IOException e) {
-            return HTSConstants.HTTP_INT_SERVER_ERROR + HTSConstants.RN_RN + e.getMessage();
-        }
+    static FileCache defaultFileCache() {
+        return AppConfig.fileCacheMaxBytes > 0
+                ? new FileCache(AppConfig.fileCacheMaxBytes, AppConfig.fileCacheMaxEntryBytes, AppConfig.fileCacheRevalidateMillis)
+                : null;
     }
 
-    private String getFileName(String path) {
+    static String fileName(String path) {
         var fileName = path.substring("/files/".length());
         fileName = fileName.replaceAll("\\.\\.", "");
         return fileName;
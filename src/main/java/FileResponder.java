@@ -0,0 +1,258 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Builds the GET response for a file on disk: the file cache, conditional requests, byte ranges, gzip
+// sidecars and memory mapping. Repositories only decide which file a name maps to and its ETag.
+public class FileResponder {
+
+    private static final String GZIP_SIDECAR_SUFFIX = ".gz";
+    private static final long MAX_MULTIPART_BYTES = 1024 * 1024;
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "gz", "tgz", "zip", "bz2", "xz", "zst", "7z", "jar", "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "woff2");
+
+    private final FileCache fileCache;
+    private final boolean gzipSidecars;
+
+    private interface RangeReader {
+        ByteBuffer read(ByteRange range) throws IOException;
+    }
+
+    public FileResponder(FileCache fileCache, boolean gzipSidecars) {
+        this.fileCache = fileCache;
+        this.gzipSidecars = gzipSidecars;
+    }
+
+    public FileCache getFileCache() {
+        return fileCache;
+    }
+
+    // name is what the client asked for and decides compressibility; a null etag is derived from size and mtime
+    public HttpResponse respond(File file, String name, String etag, RequestContext context) throws IOException {
+        if (fileCache != null) {
+            var cached = fileCache.get(file);
+            if (cached != null) {
+                return cachedFileContent(name, etag, cached, context);
+            }
+        }
+        if (!file.exists()) {
+            return HttpResponse.status(HttpStatus.NOT_FOUND);
+        }
+        return openFileContent(file, name, etag, file.length(), file.lastModified(), context);
+    }
+
+    // For callers that already know the file exists and its size and mtime, e.g. from a DirectoryIndex
+    public HttpResponse respond(File file, String name, String etag, long size, long lastModified, RequestContext context) throws IOException {
+        if (fileCache != null) {
+            var cached = fileCache.get(file);
+            if (cached != null) {
+                return cachedFileContent(name, etag, cached, context);
+            }
+        }
+        return openFileContent(file, name, etag, size, lastModified, context);
+    }
+
+    private HttpResponse openFileContent(File file, String name, String etag, long size, long lastModified, RequestContext context) throws IOException {
+        if (fileCache != null && fileCache.isCacheable(size)) {
+            var cached = fileCache.put(file, lastModified, Files.readAllBytes(file.toPath()));
+            return cachedFileContent(name, etag, cached, context);
+        }
+
+        var request = context.getRequest();
+        if (etag == null) {
+            etag = EntityTag.of(size, lastModified);
+        }
+        File sidecar = new File(file.getPath() + GZIP_SIDECAR_SUFFIX);
+        boolean sendsSidecar = context.getContentEncoding() == ContentEncoding.GZIP && gzipSidecars && AppConfig.precompressedFiles
+                && sidecar.isFile() && sidecar.lastModified() >= lastModified;
+        if (isNotModified(request, etag, lastModified)) {
+            boolean streamed = !AppConfig.memoryMappedFiles || size > HttpResponse.MAX_BUFFERED_COMPRESSION;
+            boolean coded = sendsSidecar || isCompressedFor(context, isCompressible(name), size, streamed);
+            return notModified(etag, lastModified, coded);
+        }
+        var ranges = requestedRanges(request, etag, lastModified, size);
+        if (ranges != null) {
+            var partial = partialFileContent(file, ranges, size, etag, lastModified);
+            if (partial != null) {
+                return partial;
+            }
+        }
+
+        var response = validators(HttpResponse.status(HttpStatus.OK), etag, lastModified)
+                .header(HttpResponse.OCTET_STREAM)
+                .compressible(isCompressible(name));
+        if (sendsSidecar) {
+            // Serve the gzip file next to the original as is, so nothing is compressed per request
+            file = sidecar;
+            response.encoding(ContentEncoding.GZIP);
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+
+        if (AppConfig.memoryMappedFiles && size <= Integer.MAX_VALUE) {
+            try (channel) {
+                return response.body(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        }
+        return response.body(channel, 0, size);
+    }
+
+    private HttpResponse cachedFileContent(String name, String etag, FileCache.CachedFile cached, RequestContext context) throws IOException {
+        byte[] content = cached.getContent();
+        var request = context.getRequest();
+        if (etag == null) {
+            etag = EntityTag.of(content.length, cached.getLastModified());
+        }
+        if (isNotModified(request, etag, cached.getLastModified())) {
+            boolean coded = isCompressedFor(context, isCompressible(name), content.length,
+                    content.length > HttpResponse.MAX_BUFFERED_COMPRESSION);
+            return notModified(etag, cached.getLastModified(), coded);
+        }
+        var ranges = requestedRanges(request, etag, cached.getLastModified(), content.length);
+        if (ranges != null) {
+            var partial = partialContent(ranges, content.length, etag, cached.getLastModified(),
+                    range -> ByteBuffer.wrap(content, (int) range.start(), (int) range.length()));
+            if (partial != null) {
+                return partial;
+            }
+        }
+
+        boolean compressible = isCompressible(name);
+        var response = validators(HttpResponse.status(HttpStatus.OK), etag, cached.getLastModified())
+                .header(HttpResponse.OCTET_STREAM)
+                .compressible(compressible);
+        if (context.getContentEncoding() == ContentEncoding.GZIP && AppConfig.fileCacheGzip && compressible
+                && content.length >= AppConfig.compressionMinSize) {
+            return response.encoding(ContentEncoding.GZIP).body(cached.getGzipped());
+        }
+        return response.body(content);
+    }
+
+    private HttpResponse validators(HttpResponse response, String etag, long lastModified) {
+        return response.etag(etag)
+                .header(HTSConstants.LAST_MODIFIED, HttpDate.format(lastModified))
+                .header(HttpResponse.ACCEPT_RANGES);
+    }
+
+    // A 304 carries the ETag in the form its 200 would have, weak when that body is content-coded,
+    // so the client's cached validator stays the same across revalidations
+    private HttpResponse notModified(String etag, long lastModified, boolean coded) {
+        var response = validators(HttpResponse.status(HttpStatus.NOT_MODIFIED), coded ? EntityTag.weak(etag) : etag, lastModified);
+        return coded ? response.header(HttpResponse.VARY_ACCEPT_ENCODING) : response;
+    }
+
+    // The rules HttpResponse.compress applies to the 200; a streamed body is compressed only with chunked framing
+    private static boolean isCompressedFor(RequestContext context, boolean compressible, long length, boolean streamed) {
+        return context.getContentEncoding() != ContentEncoding.IDENTITY && compressible && length > 0
+                && length >= AppConfig.compressionMinSize
+                && (!streamed || context.getRequest().isHttp11() && !context.isHttp2());
+    }
+
+    private boolean isNotModified(HttpRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.header("If-None-Match");
+        if (ifNoneMatch != null) {
+            return EntityTag.matchesAny(ifNoneMatch, etag);
+        }
+        long ifModifiedSince = HttpDate.parse(request.header("If-Modified-Since"));
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    // Null means the whole file is sent: no Range header, one we ignore, or an If-Range that no longer matches
+    private List<ByteRange> requestedRanges(HttpRequest request, String etag, long lastModified, long size) {
+        String range = request.header("Range");
+        if (range == null) {
+            return null;
+        }
+        String ifRange = request.header("If-Range");
+        if (ifRange != null) {
+            boolean matches = ifRange.startsWith("\"") || ifRange.startsWith("W/")
+                    ? EntityTag.matchesStrongly(ifRange, etag)
+                    : HttpDate.parse(ifRange) / 1000 == lastModified / 1000;
+            if (!matches) {
+                return null;
+            }
+        }
+        return ByteRange.parse(range, size);
+    }
+
+    private HttpResponse partialFileContent(File file, List<ByteRange> ranges, long size, String etag, long lastModified) throws IOException {
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            return validators(HttpResponse.status(HttpStatus.PARTIAL_CONTENT), etag, lastModified)
+                    .header(HttpResponse.OCTET_STREAM)
+                    .header(HTSConstants.CONTENT_RANGE, range.contentRange(size))
+                    .body(channel, range.start(), range.length());
+        }
+        if (ranges.isEmpty() || totalLength(ranges) > MAX_MULTIPART_BYTES) {
+            return partialContent(ranges, size, etag, lastModified, null);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return partialContent(ranges, size, etag, lastModified, range -> readRange(channel, range));
+        }
+    }
+
+    // 416 for unsatisfiable ranges, 206 for one range or a multipart/byteranges body for several.
+    // Returns null when the parts would be too large to assemble, and the whole file is sent instead.
+    private HttpResponse partialContent(List<ByteRange> ranges, long size, String etag, long lastModified, RangeReader reader) throws IOException {
+        if (ranges.isEmpty()) {
+            return HttpResponse.status(HttpStatus.RANGE_NOT_SATISFIABLE)
+                    .header(HTSConstants.CONTENT_RANGE, "bytes */" + size);
+        }
+        var response = validators(HttpResponse.status(HttpStatus.PARTIAL_CONTENT), etag, lastModified);
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            return response.header(HttpResponse.OCTET_STREAM)
+                    .header(HTSConstants.CONTENT_RANGE, range.contentRange(size))
+                    .body(reader.read(range));
+        }
+        if (totalLength(ranges) > MAX_MULTIPART_BYTES) {
+            return null;
+        }
+
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        var body = new ByteArrayOutputStream((int) totalLength(ranges) + ranges.size() * 128);
+        for (ByteRange range : ranges) {
+            body.writeBytes(("\r\n--" + boundary + "\r\n"
+                    + HTSConstants.CONTENT_TYPE + HTSConstants.OCTET_STREAM + "\r\n"
+                    + HTSConstants.CONTENT_RANGE + ": " + range.contentRange(size) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            ByteBuffer part = reader.read(range);
+            body.write(part.array(), part.arrayOffset() + part.position(), part.remaining());
+        }
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return response.header("Content-Type", HTSConstants.MULTIPART_BYTERANGES + boundary).body(body.toByteArray());
+    }
+
+    private ByteBuffer readRange(FileChannel channel, ByteRange range) throws IOException {
+        // Positioned reads leave the channel's own position alone
+        ByteBuffer buffer = ByteBuffer.allocate((int) range.length());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, range.start() + buffer.position()) < 0) {
+                throw new IOException("File truncated while being read");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private long totalLength(List<ByteRange> ranges) {
+        long total = 0;
+        for (ByteRange range : ranges) {
+            total += range.length();
+        }
+        return total;
+    }
+
+    private boolean isCompressible(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 || !COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase());
+    }
+}
@@ -0,0 +1,9 @@
+// How far an upload is flushed before it is acknowledged: NONE leaves it to the page cache,
+// ALWAYS fsyncs every file and its directory, BATCH shares those fsyncs between concurrent uploads.
+public enum FsyncMode {
+    NONE, ALWAYS, BATCH;
+
+    public static FsyncMode of(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
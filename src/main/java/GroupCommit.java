@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Group commit for uploads: the first caller in a batch leads it, waits up to the batch window for
+// others to join, then fsyncs every file and each distinct directory once on their behalf.
+// Callers that arrive while a batch is being synced form the next one, so there is no extra thread.
+public class GroupCommit {
+
+    private final long windowNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private Batch open = new Batch();
+    private boolean syncing;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder files = new LongAdder();
+
+    public GroupCommit(long windowMillis) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    // Returns once file's content and its directory entry are on disk
+    public void sync(Path file) throws IOException {
+        join(file, file.toAbsolutePath().getParent());
+    }
+
+    // Returns once file's content is on disk, e.g. before it is renamed into place
+    public void syncData(Path file) throws IOException {
+        join(file, null);
+    }
+
+    // Returns once the entries of directory, e.g. a file just renamed into it, are on disk
+    public void syncDirectory(Path directory) throws IOException {
+        join(null, directory.toAbsolutePath());
+    }
+
+    private void join(Path file, Path directory) throws IOException {
+        Batch batch;
+        lock.lock();
+        try {
+            batch = open;
+            if (file != null) {
+                batch.files.add(file);
+            }
+            if (directory != null) {
+                batch.directories.add(directory);
+            }
+            if (batch.leader) {
+                while (!batch.done) {
+                    changed.awaitUninterruptibly();
+                }
+                batch.rethrow();
+                return;
+            }
+            batch.leader = true;
+            // While the previous batch syncs, this one fills up anyway, so the window is skipped
+            long remaining = windowNanos;
+            while (syncing) {
+                changed.awaitUninterruptibly();
+                remaining = 0;
+            }
+            while (remaining > 0) {
+                try {
+                    remaining = changed.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            open = new Batch();
+            syncing = true;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            // Contents before directories, so no entry can become durable ahead of its data
+            for (Path member : batch.files) {
+                forceFile(member);
+            }
+            for (Path member : batch.directories) {
+                forceDirectory(member);
+            }
+        } catch (IOException e) {
+            batch.failure = e;
+        }
+        batches.increment();
+        files.add(batch.files.size());
+
+        lock.lock();
+        try {
+            syncing = false;
+            batch.done = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        batch.rethrow();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getFiles() {
+        return files.sum();
+    }
+
+    static void forceFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    // Makes a rename durable. Some platforms can't open a directory for syncing, and there the
+    // file system gives no way to do it, so the failure is only logged.
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            Log.debug("Cannot fsync directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static final class Batch {
+
+        private final Set<Path> files = new LinkedHashSet<>();
+        private final Set<Path> directories = new LinkedHashSet<>();
+        private boolean leader;
+        private boolean done;
+        private IOException failure;
+
+        private void rethrow() throws IOException {
+            if (failure != null) {
+                throw new IOException("fsync failed: " + failure.getMessage(), failure);
+            }
+        }
+    }
+}
@@ -2,19 +2,46 @@ public class HTSConstants {
 
     public static final String HTTP_OK_RN = "HTTP/1.1 200 OK\r\n";
     public static final String HTTP_CREATED = "HTTP/1.1 201 Created";
+    public static final String HTTP_PARTIAL_CONTENT = "HTTP/1.1 206 Partial Content";
+    public static final String HTTP_NOT_MODIFIED = "HTTP/1.1 304 Not Modified";
     public static final String HTTP_BAD_REQUEST = "HTTP/1.1 400 Bad Request";
     public static final String HTTP_NOT_FOUND = "HTTP/1.1 404 Not Found";
     public static final String HTTP_CONFLICT = "HTTP/1.1 409 Conflict Status";
     public static final String HTTP_INT_SERVER_ERROR = "HTTP/1.1 500 Internal Server Error";
     public static final String HTTP_REQUEST_NOT_ALLOWED = "HTTP/1.1 405 Request Method Not allowed";
+    public static final String HTTP_PAYLOAD_TOO_LARGE = "HTTP/1.1 413 Payload Too Large";
+    public static final String HTTP_RANGE_NOT_SATISFIABLE = "HTTP/1.1 416 Range Not Satisfiable";
+    public static final String HTTP_URI_TOO_LONG = "HTTP/1.1 414 URI Too Long";
+    public static final String HTTP_HEADERS_TOO_LARGE = "HTTP/1.1 431 Request Header Fields Too Large";
+    public static final String HTTP_TOO_MANY_REQUESTS = "HTTP/1.1 429 Too Many Requests";
+    public static final String HTTP_SERVICE_UNAVAILABLE = "HTTP/1.1 503 Service Unavailable";
     public static final String GET = "GET";
     public static final String POST = "POST";
 
     public static final String CONTENT_TYPE = "Content-Type: ";
     public static final String CONTENT_LENGTH = "Content-Length: ";
     public static final String CONTENT_ENCODING = "Content-Encoding: ";
+    public static final String TRANSFER_ENCODING = "Transfer-Encoding: ";
+    public static final String VARY = "Vary: ";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String ETAG = "ETag: ";
+    public static final String LAST_MODIFIED = "Last-Modified";
+    public static final String ACCEPT_RANGES_BYTES = "Accept-Ranges: bytes";
+    public static final String CONTENT_RANGE = "Content-Range";
+    public static final String MULTIPART_BYTERANGES = "multipart/byteranges; boundary=";
+    public static final String CONNECTION = "Connection";
+    public static final String CONNECTION_CLOSE = "Connection: close";
+    public static final String CLOSE = "close";
+    public static final String UPGRADE = "Upgrade";
+    public static final String H2C = "h2c";
+    public static final String HTTP2_SETTINGS = "HTTP2-Settings";
+    public static final String KEEP_ALIVE = "keep-alive";
+    public static final String HTTP_1_1 = "HTTP/1.1";
+    public static final String CHUNKED = "chunked";
     public static final String GZIP = "gzip";
     public static final String TEXT_PLAIN = "text/plain";
+    public static final String OCTET_STREAM = "application/octet-stream";
+    public static final String APPLICATION_JSON = "application/json";
 
     public static final String RN_RN = "\r\n\r\n";
     public static final String RN = "\r\n";
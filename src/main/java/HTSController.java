@@ -1,69 +1,214 @@
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-public class HTSController {
+public class HTSController implements HttpServerEngine {
 
     private final HTSService service;
-    private ServerSocket serverSocket;
+    private final ConnectionExecutor connectionExecutor;
+    private final TlsContext tls;
+    private final List<ServerSocketChannel> listeners = new CopyOnWriteArrayList<>();
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
     private volatile boolean running = false;
+    private volatile boolean listening = false;
 
     public HTSController() {
+        this(ConnectionExecutor.forMode(AppConfig.executorMode), AppConfig.tlsPort > 0 ? TlsContext.fromConfig() : null);
+    }
+
+    public HTSController(ConnectionExecutor connectionExecutor) {
+        this(connectionExecutor, null);
+    }
+
+    // With a TlsContext, HTTPS is served on AppConfig.tlsPort next to plain HTTP
+    public HTSController(ConnectionExecutor connectionExecutor, TlsContext tls) {
         this.service = new HTSService();
+        this.connectionExecutor = connectionExecutor;
+        this.tls = tls;
+        service.getMetrics().registerExecutor(connectionExecutor);
+        if (tls != null) {
+            service.getMetrics().registerTls(tls);
+        }
     }
 
+    @Override
     public void run() {
         running = true;
 
+        List<Thread> acceptors = new ArrayList<>();
         try {
-            serverSocket = new ServerSocket(4221);
-            serverSocket.setReuseAddress(true);
-            System.out.println("Server started. Awaiting connection");
+            // Channel-backed sockets let file bodies go out with FileChannel.transferTo
+            List<ServerSocketChannel> plain = ServerSockets.bind(AppConfig.port, AppConfig.acceptors);
+            listeners.addAll(plain);
+            if (tls != null) {
+                List<ServerSocketChannel> secure = ServerSockets.bind(AppConfig.tlsPort, AppConfig.acceptors);
+                listeners.addAll(secure);
+                for (int i = 0; i < secure.size(); i++) {
+                    ServerSocketChannel listener = secure.get(i);
+                    acceptors.add(Thread.ofPlatform().name("hts-tls-acceptor-" + i).start(() -> acceptConnections(listener, tls)));
+                }
+                Log.info("Serving HTTPS on port {}", AppConfig.tlsPort);
+            }
+            // The calling thread is the first acceptor
+            for (int i = 1; i < plain.size(); i++) {
+                ServerSocketChannel listener = plain.get(i);
+                acceptors.add(Thread.ofPlatform().name("hts-acceptor-" + i).start(() -> acceptConnections(listener, null)));
+            }
+            Log.info("Server started on port {} with {} acceptors. Awaiting connection", AppConfig.port, plain.size());
+            listening = true;
+            ready.countDown();
+            acceptConnections(plain.get(0), null);
+        } catch (IOException e) {
+            Log.error("Error starting server: {}", e.getMessage());
+        } finally {
+            ready.countDown();
+            closeServerSockets();
+            for (Thread acceptor : acceptors) {
+                try {
+                    acceptor.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            drainConnections();
+            connectionExecutor.shutdown();
+            service.close();
+            stopped.countDown();
+        }
+    }
 
-            while (running) {
+    // Idle connections close now, busy ones after their current response, and whatever is left at
+    // the deadline is cut off
+    private void drainConnections() {
+        ConnectionTracker connections = service.getConnections();
+        connections.drain();
+        boolean drained;
+        try {
+            drained = connections.awaitDrained(AppConfig.shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        if (!drained) {
+            int aborted = connections.abortAll();
+            Log.warn("Shutdown deadline of {} ms passed, aborted {} in-flight requests", AppConfig.shutdownTimeoutMillis, aborted);
+        } else {
+            Log.info("All connections drained.");
+        }
+    }
+
+    private void acceptConnections(ServerSocketChannel listener, TlsContext connectionTls) {
+        while (running) {
+            try {
+                SocketChannel channel = listener.accept();
+                Socket clientSocket = channel.socket();
                 try {
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.println("New client connected: " + clientSocket.getRemoteSocketAddress());
-
-                    Thread clientHandler = new Thread(() -> {
-                        try {
-                            service.handleRequest(clientSocket);
-                        } finally {
-                            try {
-                                clientSocket.close();
-                            } catch (IOException e) {
-                                System.out.println("Error closing client socket: " + e.getMessage());
-                            }
-                        }
-                    });
-                    clientHandler.start();
+                    ServerSockets.configure(channel);
                 } catch (IOException e) {
-                    if (!running) {
-                        System.out.println("Server has been stopped.");
-                    } else {
-                        System.out.println("Connection processing error: " + e.getMessage());
+                    closeClientSocket(clientSocket);
+                    throw e;
+                }
+                Log.debug("New client connected: {}", clientSocket);
+                InetAddress address = clientSocket.getInetAddress();
+                AdmissionControl admission = service.getAdmission();
+                if (!admission.admitConnection(address)) {
+                    Log.debug("Refusing connection {}, too many from {}", clientSocket, address);
+                    rejectConnection(clientSocket, connectionTls, HttpStatus.TOO_MANY_REQUESTS);
+                    continue;
+                }
+
+                boolean accepted = connectionExecutor.execute(() -> {
+                    try {
+                        service.handleConnection(clientSocket, connectionTls);
+                    } finally {
+                        closeClientSocket(clientSocket);
+                        admission.connectionClosed(address);
                     }
+                });
+                if (!accepted) {
+                    admission.connectionClosed(address);
+                    Log.warn("Shedding connection {}, server is saturated", clientSocket);
+                    rejectConnection(clientSocket, connectionTls, HttpStatus.SERVICE_UNAVAILABLE);
+                }
+            } catch (IOException e) {
+                if (!running) {
+                    Log.info("Server has been stopped.");
+                } else {
+                    Log.warn("Connection processing error: {}", e.getMessage());
                 }
             }
-        } catch (IOException e) {
-            System.out.println("Error starting server: " + e.getMessage());
-        } finally {
-            closeServerSocket();
         }
     }
 
+    public HTSService getService() {
+        return service;
+    }
+
+    // Stops accepting, drains open connections and returns once run() has finished
+    @Override
     public void stopServer() {
         running = false;
-        closeServerSocket();
+        closeServerSockets();
+        if (listening) {
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
-    private void closeServerSocket() {
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            try {
-                serverSocket.close();
-                System.out.println("Server socket closed.");
-            } catch (IOException e) {
-                System.out.println("Error closing server socket: " + e.getMessage());
+    @Override
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.await(timeout, unit) && listening;
+    }
+
+    public ConnectionExecutor getConnectionExecutor() {
+        return connectionExecutor;
+    }
+
+    private void rejectConnection(Socket clientSocket, TlsContext connectionTls, HttpStatus status) {
+        // Over TLS there is no handshake yet to carry a response
+        if (connectionTls != null) {
+            closeClientSocket(clientSocket);
+            return;
+        }
+        try {
+            var response = HttpResponse.status(status);
+            response.frame(false);
+            response.writeFully(clientSocket.getChannel());
+        } catch (IOException e) {
+            Log.warn("Error rejecting connection: {}", e.getMessage());
+        } finally {
+            closeClientSocket(clientSocket);
+        }
+    }
+
+    private void closeClientSocket(Socket clientSocket) {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            Log.warn("Error closing client socket: {}", e.getMessage());
+        }
+    }
+
+    private void closeServerSockets() {
+        for (ServerSocketChannel listener : listeners) {
+            if (listener.isOpen()) {
+                try {
+                    listener.close();
+                    Log.info("Server socket closed.");
+                } catch (IOException e) {
+                    Log.warn("Error closing server socket: {}", e.getMessage());
+                }
             }
         }
     }
@@ -1,169 +1,330 @@
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.zip.GZIPOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import javax.net.ssl.SSLException;
 
 public class HTSService {
 
-    private final FileRepository fileRepository = new FileRepository();
-    private int index = 1;
-    private String encoding = "none";
-    private final List<byte[]> gzipEncodedBody = new ArrayList<>();
+    // One ticker thread serves the read deadlines of every connection
+    private static final TimerWheel TIMERS = new TimerWheel("hts-timer-wheel", 100, 1024);
 
-    public void handleRequest(Socket clientSocket) {
-        System.out.println("Processing request number " + index);
-        index++;
+    private final FileRepository fileRepository = FileRepository.forName(AppConfig.fileStore);
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final Router router = new Router(metrics);
+    private final ServerMetrics.RouteMetrics unmatchedRoute = metrics.route("unmatched");
+    private final ServerMetrics.RouteMetrics invalidRoute = metrics.route("invalid");
+    private final ConnectionTracker connections = new ConnectionTracker();
+    private final AdmissionControl admission = AdmissionControl.fromConfig();
+    private final ReadDeadlines deadlines = new ReadDeadlines(TIMERS);
+
+    public HTSService() {
+        if (fileRepository.getFileCache() != null) {
+            metrics.registerFileCache(fileRepository.getFileCache());
+        }
+        metrics.registerGroupCommit(fileRepository.getGroupCommit());
+        metrics.registerConnections(connections);
+        metrics.registerAdmission(admission);
+        metrics.registerDeadlines(deadlines);
+        router.get("/", this::getRoot);
+        router.get("/echo/*message", this::getEcho);
+        router.get("/user-agent", context -> getUserAgent(context.getRequest()));
+        router.get("/files/", fileRepository::listFiles);
+        router.get("/files/*name", fileRepository::getFileByName);
+        router.get("/metrics", context -> HttpResponse.status(HttpStatus.OK).text(metrics.scrape()));
+        router.post("/files/*name", this::postFile).rateLimit(AppConfig.uploadRateLimit, AppConfig.uploadRateLimitBurst);
+    }
+
+    // The file routes wait on the disk, so an event loop hands them to a worker
+    public boolean touchesFilesystem(HttpRequest request) {
+        return request.getPath().startsWith("/files/");
+    }
+
+    public void handleConnection(Socket clientSocket) {
+        handleConnection(clientSocket, null);
+    }
+
+    // With a TlsContext the connection is HTTPS: the handshake runs first, on the connection's own thread
+    public void handleConnection(Socket clientSocket, TlsContext tls) {
+        metrics.connectionOpened();
+        ConnectionTracker.Connection connection = connections.open(clientSocket);
+        ReadDeadlines.Deadline deadline = deadlines.forConnection(clientSocket);
+        TlsChannel tlsChannel = null;
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            String requestLine = reader.readLine();
-
-            if (requestLine != null) {
-                String[] parts = requestLine.split(" ");
-                String httpRequestMethod = parts[0];
-                String path = parts[1];
-                var headers = readHeaders(reader);
-
-                String response;
-                if (httpRequestMethod.equals(HTSConstants.GET)) {
-                    response = processGetRequest(path, headers);
-                } else if (httpRequestMethod.equals(HTSConstants.POST)) {
-                    response = processPostRequest(path, headers, reader);
-                } else {
-                    response = HTSConstants.HTTP_REQUEST_NOT_ALLOWED + HTSConstants.RN_RN;
-                }
+            // The TLS handshake and the first request head share one deadline
+            deadline.start(ReadDeadlines.Phase.HEADER);
+            InputStream socketInput = clientSocket.getInputStream();
+            WritableByteChannel outputChannel = clientSocket.getChannel() != null
+                    ? clientSocket.getChannel()
+                    : Channels.newChannel(clientSocket.getOutputStream());
+            if (tls != null) {
+                // A response right after the session ticket would otherwise wait for the client's delayed ACK
+                clientSocket.setTcpNoDelay(true);
+                tlsChannel = tls.open(socketInput, clientSocket.getOutputStream());
+                tlsChannel.handshake();
+                socketInput = tlsChannel.getInputStream();
+                outputChannel = tlsChannel;
+            }
+            var input = new ConnectionInput(socketInput);
+            var parser = new HttpRequestParser();
+            input.onHeadStarted(() -> deadline.start(ReadDeadlines.Phase.HEADER));
+
+            if (AppConfig.http2 && input.startsWith(Http2Connection.PREFACE)) {
+                serveHttp2(input, tlsChannel != null ? tlsChannel.getOutputStream() : Channels.newOutputStream(outputChannel), null, clientSocket, connection, deadline);
+                return;
+            }
 
-                var outputStream = clientSocket.getOutputStream();
-                outputStream.write(response.getBytes(StandardCharsets.UTF_8));
-                if (!gzipEncodedBody.isEmpty()) {
-                    outputStream.write(gzipEncodedBody.getFirst());
-                    gzipEncodedBody.clear();
+            int requestsServed = 0;
+            long bytesReported = 0;
+            boolean keepAlive = true;
+            while (keepAlive) {
+                requestsServed++;
+                HttpResponse response;
+                try {
+                    HttpRequest request = input.readRequest(parser);
+                    if (request == null) {
+                        break;
+                    }
+                    connection.requestStarted();
+                    // h2c is cleartext only; over TLS, HTTP/2 is negotiated with ALPN instead
+                    if (AppConfig.http2 && tlsChannel == null && !connections.isDraining() && Http2Connection.isUpgrade(request)) {
+                        deadline.cancel();
+                        outputChannel.write(ByteBuffer.wrap(Http2Connection.SWITCHING_PROTOCOLS));
+                        serveHttp2(input, Channels.newOutputStream(outputChannel), request, clientSocket, connection, deadline);
+                        return;
+                    }
+                    if (hasBody(request)) {
+                        deadline.start(ReadDeadlines.Phase.BODY);
+                    } else {
+                        deadline.cancel();
+                    }
+                    response = handleRequest(request, input, requestsServed >= AppConfig.maxRequestsPerConnection, clientSocket.getInetAddress());
+                } catch (HttpParseException e) {
+                    response = rejectRequest(e);
+                }
+                // Writing the response is not under a read deadline
+                deadline.cancel();
+                try {
+                    response.writeFully(outputChannel);
+                    metrics.responseWritten(response);
+                } finally {
+                    response.close();
+                }
+                metrics.bytesReceived(input.getBytesRead() - bytesReported);
+                bytesReported = input.getBytesRead();
+                keepAlive = response.isKeepAlive();
+                connection.requestFinished();
+                if (keepAlive) {
+                    deadline.start(ReadDeadlines.Phase.IDLE);
                 }
             }
         } catch (IOException e) {
-            System.out.println("Error processing request: " + e.getMessage());
+            if (deadline.getExpiredPhase() != null) {
+                Log.debug("Closed {} when its {} deadline passed", clientSocket, deadline.getExpiredPhase());
+            } else if (e instanceof SSLException) {
+                Log.debug("TLS error on {}: {}", clientSocket, e.getMessage());
+            } else {
+                Log.warn("Error processing request: {}", e.getMessage());
+            }
+        } finally {
+            deadline.cancel();
+            if (tlsChannel != null) {
+                tlsChannel.close();
+            }
+            connection.close();
+            metrics.connectionClosed();
         }
     }
 
-    protected Map<String, String> readHeaders(BufferedReader reader) throws IOException {
-        System.out.println("Reading headers");
-        String headerLine;
-        Map<String, String> headers = new HashMap<>();
+    private void serveHttp2(ConnectionInput input, OutputStream outputStream, HttpRequest upgradeRequest,
+                            Socket clientSocket, ConnectionTracker.Connection connection,
+                            ReadDeadlines.Deadline deadline) throws IOException {
+        long bytesBefore = input.getBytesRead();
+        var output = new BufferedOutputStream(outputStream, 32 * 1024);
+        try {
+            var http2 = new Http2Connection(this, input, output, clientSocket.getInetAddress(), deadline);
+            connection.upgraded(http2);
+            http2.serve(upgradeRequest);
+        } finally {
+            metrics.bytesReceived(input.getBytesRead() - bytesBefore);
+        }
+    }
 
-        while ((headerLine = reader.readLine()) != null && !headerLine.isEmpty()) {
-            int index = headerLine.indexOf(':');
-            if (index > 0) {
-                var headerName = headerLine.substring(0, index).trim();
-                var headerValue = headerLine.substring(index + 1).trim();
-                headers.put(headerName, headerValue);
-            }
+    protected HttpResponse handleRequest(HttpRequest request, InputStream body, boolean lastRequest) throws IOException {
+        return handleRequest(request, body, lastRequest, null);
+    }
+
+    protected HttpResponse handleRequest(HttpRequest request, InputStream body, boolean lastRequest, InetAddress remoteAddress) throws IOException {
+        HttpResponse response = respond(new RequestContext(request, body, false, remoteAddress));
+        // Asked after the handler, so a request that was running when draining began gets Connection: close
+        response.frame(!lastRequest && !connections.isDraining() && isKeepAlive(request) && !closesConnection(response.getStatus()));
+        return response;
+    }
+
+    // Routes, runs the handler and applies content coding, leaving the framing to the protocol
+    protected HttpResponse respond(RequestContext context) throws IOException {
+        long start = System.nanoTime();
+        var request = context.getRequest();
+        Route route = router.match(request.getMethod(), context.getPath());
+        context.setRoute(route);
+
+        HttpStatus rejection = admission.admitRequest(context.getRemoteAddress(), route);
+        if (rejection != null) {
+            // Turned away before its body is read, so closesConnection ends an HTTP/1.1 connection
+            return HttpResponse.status(rejection).header("Retry-After", "1")
+                    .track(route != null ? route.getMetrics() : unmatchedRoute, start, request.getMethod(), context.getPath());
         }
-        if (headers.containsKey("Accept-Encoding")) {
-            encoding = headers.get("Accept-Encoding");
+        HttpResponse response;
+        try {
+            response = dispatch(context);
+        } finally {
+            admission.requestFinished();
         }
-        return headers;
+        compress(context, response);
+        response.track(route != null ? route.getMetrics() : unmatchedRoute, start, request.getMethod(), context.getPath());
+        return response;
     }
 
-    private String processGetRequest(String path, Map<String, String> headers) {
-        var host = headers.get("Host");
-        if ("/".equals(path) && "localhost:4221".equals(host)) {
-            return HTSConstants.HTTP_OK_RN + HTSConstants.RN;
-        } else if (path.startsWith("/echo/")) {
-            return getEcho(path);
-        } else if (path.equals("/user-agent")) {
-            return getUserAgent(headers);
-        } else if (path.startsWith("/files/")) {
-            return getFile(path);
-        } else {
-            return HTSConstants.HTTP_NOT_FOUND + HTSConstants.RN_RN;
-        }
+    // Requests whose response has been written, as counted by hts_requests_total
+    public long getRequestCount() {
+        return metrics.getRequestCount();
     }
 
-    private String processPostRequest(String path, Map<String, String> headers, BufferedReader reader) throws IOException {
-        if (!headers.containsKey("Content-Type") || !headers.get("Content-Type").equals("application/octet-stream")) {
-            return HTSConstants.HTTP_BAD_REQUEST + HTSConstants.RN_RN + "Content-Type must be application/octet-stream";
-        }
-        if (!headers.containsKey("Content-Length")) {
-            return HTSConstants.HTTP_BAD_REQUEST + HTSConstants.RN_RN + "Content-Length is required";
+    // Releases what the service holds once no more requests will be served
+    public void close() {
+        fileRepository.close();
+    }
+
+    public FileRepository getFileRepository() {
+        return fileRepository;
+    }
+
+    // Extra endpoints can be registered here before the server starts
+    public Router getRouter() {
+        return router;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ConnectionTracker getConnections() {
+        return connections;
+    }
+
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    protected HttpResponse rejectRequest(HttpParseException e) {
+        Log.debug("Rejecting request: {}", e.getMessage());
+        var response = HttpResponse.status(e.getStatus()).track(invalidRoute, System.nanoTime());
+        response.frame(false);
+        return response;
+    }
+
+    private void compress(RequestContext context, HttpResponse response) {
+        boolean alreadyEncoded = response.getEncoding() != ContentEncoding.IDENTITY;
+        long length = response.getBodyLength();
+        response.compress(context.getContentEncoding(), AppConfig.compressionMinSize, context.getRequest().isHttp11() && !context.isHttp2());
+        if (response.getEncoding() != ContentEncoding.IDENTITY) {
+            metrics.compressed(response.getEncoding(), length, alreadyEncoded ? -1 : response.getBodyLength());
         }
-        if (path.startsWith("/files/")) {
-            var fileContent = getFileContent(reader);
-            return postFile(path, fileContent);
-        } else {
-            return HTSConstants.HTTP_NOT_FOUND + HTSConstants.RN_RN;
+    }
+
+    private boolean hasBody(HttpRequest request) {
+        return (request.hasHeader("Content-Length") && !request.headerEquals("Content-Length", "0"))
+                || request.headerContainsToken("Transfer-Encoding", HTSConstants.CHUNKED);
+    }
+
+    private boolean isKeepAlive(HttpRequest request) {
+        if (request.isHttp11()) {
+            return !request.headerContainsToken(HTSConstants.CONNECTION, HTSConstants.CLOSE);
         }
+        return request.headerContainsToken(HTSConstants.CONNECTION, HTSConstants.KEEP_ALIVE);
     }
 
-    private String getEcho(String path) {
-        String contentEncoding = "";
-        String param = path.substring("/echo/".length());
+    private boolean closesConnection(HttpStatus status) {
+        // The request body may not have been consumed, so the stream can't be reused
+        return switch (status) {
+            case BAD_REQUEST, METHOD_NOT_ALLOWED, PAYLOAD_TOO_LARGE, TOO_MANY_REQUESTS, INTERNAL_SERVER_ERROR, SERVICE_UNAVAILABLE -> true;
+            default -> false;
+        };
+    }
 
-        if (encoding.contains(HTSConstants.GZIP)) {
-            contentEncoding = HTSConstants.CONTENT_ENCODING + HTSConstants.GZIP + HTSConstants.RN;
-            byte[] body = gzipEncode(param);
-            gzipEncodedBody.add(body);
-            return HTSConstants.HTTP_OK_RN +
-                    contentEncoding +
-                    HTSConstants.CONTENT_TYPE + HTSConstants.TEXT_PLAIN + HTSConstants.RN +
-                    HTSConstants.CONTENT_LENGTH + body.length +
-                    HTSConstants.RN_RN;
+    private HttpResponse dispatch(RequestContext context) throws IOException {
+        var request = context.getRequest();
+        InputStream input = context.getBody();
+        if (request.getMethod() == HttpMethod.POST && !context.isHttp2()) {
+            // Framed before routing so that an unmatched request's body can still be skipped
+            try {
+                context.setBody(requestBody(request, input));
+            } catch (HttpParseException e) {
+                return HttpResponse.status(e.getStatus()).text(e.getMessage());
+            }
         }
 
-        return HTSConstants.HTTP_OK_RN +
-                contentEncoding +
-                HTSConstants.CONTENT_TYPE + HTSConstants.TEXT_PLAIN + HTSConstants.RN +
-                HTSConstants.CONTENT_LENGTH + param.length() +
-                HTSConstants.RN_RN +
-                param;
+        HttpResponse response;
+        if (context.getRoute() != null) {
+            response = context.getRoute().getHandler().handle(context);
+        } else {
+            response = HttpResponse.status(router.hasRoutes(request.getMethod()) ? HttpStatus.NOT_FOUND : HttpStatus.METHOD_NOT_ALLOWED);
+        }
+        if (context.getBody() != input && !closesConnection(response.getStatus())) {
+            // Skip whatever the handler left unread so the next request starts at its request line
+            context.getBody().transferTo(OutputStream.nullOutputStream());
+        }
+        return response;
     }
 
-    private byte[] gzipEncode(String param) {
-        System.out.println("GZIP encoding body");
-        var baos = new ByteArrayOutputStream();
+    private InputStream requestBody(HttpRequest request, InputStream input) throws HttpParseException {
+        if (request.headerContainsToken("Transfer-Encoding", HTSConstants.CHUNKED)) {
+            return new ChunkedInputStream(input, AppConfig.maxBodySize);
+        }
+        if (!request.hasHeader("Content-Length")) {
+            throw new HttpParseException(HttpStatus.BAD_REQUEST, "Content-Length is required");
+        }
+        long contentLength;
         try {
-            var gzipOut = new GZIPOutputStream(baos);
-            gzipOut.write(param.getBytes(StandardCharsets.UTF_8));
-            gzipOut.close();
-        } catch (IOException e) {
-            System.out.println("Error. GZIP encoding failed: " + e.getMessage());
+            contentLength = request.headerAsLong("Content-Length", 0);
+        } catch (NumberFormatException e) {
+            throw new HttpParseException(HttpStatus.BAD_REQUEST, "Content-Length must be a number");
+        }
+        if (contentLength > AppConfig.maxBodySize) {
+            throw new HttpParseException(HttpStatus.PAYLOAD_TOO_LARGE, "Request body exceeds " + AppConfig.maxBodySize + " bytes");
         }
-        return baos.toByteArray();
+        return new BoundedInputStream(input, contentLength);
     }
 
-    private String getUserAgent(Map<String, String> headers) {
-        String userAgent = headers.get("User-Agent");
-        if (userAgent != null) {
-            return HTSConstants.HTTP_OK_RN +
-                    HTSConstants.CONTENT_TYPE + HTSConstants.TEXT_PLAIN + HTSConstants.RN +
-                    HTSConstants.CONTENT_LENGTH + userAgent.length() +
-                    HTSConstants.RN_RN +
-                    userAgent;
-        } else {
-            return HTSConstants.HTTP_BAD_REQUEST +
-                    HTSConstants.RN_RN +
-                    "User-Agent header not found";
+    private HttpResponse getRoot(RequestContext context) {
+        if (!context.getRequest().headerEquals("Host", "localhost:" + AppConfig.port)) {
+            return HttpResponse.status(HttpStatus.NOT_FOUND);
         }
+        return HttpResponse.status(HttpStatus.OK);
     }
 
-    private String getFile(String path) {
-        return fileRepository.getFileByName(path);
+    private HttpResponse getEcho(RequestContext context) {
+        return HttpResponse.status(HttpStatus.OK).text(context.pathParam("message"));
     }
 
-    private String postFile(String path, String fileContent) {
-        return fileRepository.postFile(path, fileContent);
+    private HttpResponse getUserAgent(HttpRequest request) {
+        String userAgent = request.header("User-Agent");
+        if (userAgent != null) {
+            return HttpResponse.status(HttpStatus.OK).text(userAgent);
+        } else {
+            return HttpResponse.status(HttpStatus.BAD_REQUEST).text("User-Agent header not found");
+        }
     }
 
-    private String getFileContent(BufferedReader reader) throws IOException {
-        StringBuffer bodyBuffer = new StringBuffer();
-        while (reader.ready()) {
-            bodyBuffer.append((char) reader.read());
+    private HttpResponse postFile(RequestContext context) {
+        if (!context.getRequest().headerEquals("Content-Type", HTSConstants.OCTET_STREAM)) {
+            return HttpResponse.status(HttpStatus.BAD_REQUEST).text("Content-Type must be application/octet-stream");
         }
-        return bodyBuffer.toString();
+        return fileRepository.postFile(context.getPath(), context.getBody());
     }
 }
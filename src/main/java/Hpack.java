@@ -0,0 +1,427 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+// HPACK (RFC 7541) header compression for HTTP/2. The decoder keeps the dynamic table the peer
+// indexes into; the encoder never adds to one, so encoding is stateless and header blocks from
+// different streams can be built concurrently and sent in any order.
+public final class Hpack {
+
+    public static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    // RFC 7541 Appendix B, indexed by symbol; 256 is EOS
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff
+    };
+
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+
+    // Decoding tree: node n has children TREE[2n] (bit 0) and TREE[2n + 1] (bit 1); leaves are -(symbol + 1)
+    private static final int[] TREE = buildTree();
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+        }
+    }
+
+    private Hpack() {
+    }
+
+    // Must not throw: every field has to be decoded to keep the dynamic table in step with the peer
+    public interface HeaderSink {
+        void header(String name, String value);
+    }
+
+    public static class Decoder {
+
+        private final ArrayDeque<String[]> dynamicTable = new ArrayDeque<>();
+        private final int maxTableSize;
+        private int tableLimit;
+        private int tableSize;
+
+        public Decoder(int maxTableSize) {
+            this.maxTableSize = maxTableSize;
+            this.tableLimit = maxTableSize;
+        }
+
+        // Decodes one complete header block; any error here is a connection error
+        public void decode(byte[] block, int offset, int length, HeaderSink sink) throws Http2Exception {
+            var input = new Input(block, offset, offset + length);
+            boolean fieldSeen = false;
+            while (input.position < input.end) {
+                int first = block[input.position] & 0xFF;
+                if ((first & 0x80) != 0) {
+                    String[] field = field(input.integer(7));
+                    sink.header(field[0], field[1]);
+                    fieldSeen = true;
+                } else if ((first & 0xC0) == 0x40) {
+                    String[] field = literal(input, 6);
+                    insert(field);
+                    sink.header(field[0], field[1]);
+                    fieldSeen = true;
+                } else if ((first & 0xE0) == 0x20) {
+                    if (fieldSeen) {
+                        throw compressionError("Dynamic table size update after a header field");
+                    }
+                    int size = input.integer(5);
+                    if (size > maxTableSize) {
+                        throw compressionError("Dynamic table size " + size + " exceeds " + maxTableSize);
+                    }
+                    tableLimit = size;
+                    evict(0);
+                } else {
+                    String[] field = literal(input, 4);
+                    sink.header(field[0], field[1]);
+                    fieldSeen = true;
+                }
+            }
+        }
+
+        int getTableSize() {
+            return tableSize;
+        }
+
+        private String[] literal(Input input, int prefixBits) throws Http2Exception {
+            int index = input.integer(prefixBits);
+            String name = index == 0 ? input.string() : field(index)[0];
+            return new String[]{name, input.string()};
+        }
+
+        private String[] field(int index) throws Http2Exception {
+            if (index >= 1 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            int dynamicIndex = index - STATIC_TABLE.length - 1;
+            if (index < 1 || dynamicIndex >= dynamicTable.size()) {
+                throw compressionError("Header index " + index + " out of range");
+            }
+            var iterator = dynamicTable.iterator();
+            for (int i = 0; i < dynamicIndex; i++) {
+                iterator.next();
+            }
+            return iterator.next();
+        }
+
+        private void insert(String[] field) {
+            int size = entrySize(field);
+            evict(size);
+            if (size <= tableLimit) {
+                dynamicTable.addFirst(field);
+                tableSize += size;
+            }
+        }
+
+        private void evict(int incoming) {
+            while (!dynamicTable.isEmpty() && tableSize + incoming > tableLimit) {
+                tableSize -= entrySize(dynamicTable.removeLast());
+            }
+        }
+
+        private static int entrySize(String[] field) {
+            return field[0].length() + field[1].length() + 32;
+        }
+    }
+
+    public static class Encoder {
+
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+
+        // Fields that fully match the static table are indexed, everything else is a literal
+        // that is not added to the peer's dynamic table
+        public Encoder header(String name, String value) {
+            Integer index = STATIC_FIELDS.get(name + '\0' + value);
+            if (index != null) {
+                writeInteger(0x80, 7, index);
+                return this;
+            }
+            Integer nameIndex = STATIC_NAMES.get(name);
+            if (nameIndex != null) {
+                writeInteger(0x00, 4, nameIndex);
+            } else {
+                block.write(0x00);
+                writeString(name);
+            }
+            writeString(value);
+            return this;
+        }
+
+        public byte[] toByteArray() {
+            return block.toByteArray();
+        }
+
+        private void writeString(String text) {
+            byte[] raw = text.getBytes(StandardCharsets.ISO_8859_1);
+            int encodedLength = huffmanLength(raw);
+            if (encodedLength < raw.length) {
+                writeInteger(0x80, 7, encodedLength);
+                huffmanEncode(raw, block);
+            } else {
+                writeInteger(0x00, 7, raw.length);
+                block.write(raw, 0, raw.length);
+            }
+        }
+
+        private void writeInteger(int flags, int prefixBits, int value) {
+            int max = (1 << prefixBits) - 1;
+            if (value < max) {
+                block.write(flags | value);
+                return;
+            }
+            block.write(flags | max);
+            value -= max;
+            while (value >= 0x80) {
+                block.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            block.write(value);
+        }
+    }
+
+    static int huffmanLength(byte[] raw) {
+        long bits = 0;
+        for (byte b : raw) {
+            bits += HUFFMAN_LENGTHS[b & 0xFF];
+        }
+        return (int) ((bits + 7) / 8);
+    }
+
+    static void huffmanEncode(byte[] raw, ByteArrayOutputStream out) {
+        long buffer = 0;
+        int bits = 0;
+        for (byte b : raw) {
+            int symbol = b & 0xFF;
+            buffer = (buffer << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+            bits += HUFFMAN_LENGTHS[symbol];
+            while (bits >= 8) {
+                bits -= 8;
+                out.write((int) (buffer >>> bits));
+            }
+        }
+        if (bits > 0) {
+            // Padded with the most significant bits of EOS, which are all ones
+            out.write((int) ((buffer << (8 - bits)) | (0xFF >>> bits)));
+        }
+    }
+
+    static String huffmanDecode(byte[] data, int offset, int length) throws Http2Exception {
+        var text = new StringBuilder(length * 8 / 5);
+        int node = 0;
+        int depth = 0;
+        boolean allOnes = true;
+        for (int i = offset; i < offset + length; i++) {
+            for (int bit = 7; bit >= 0; bit--) {
+                int one = (data[i] >>> bit) & 1;
+                node = TREE[2 * node + one];
+                depth++;
+                allOnes &= one == 1;
+                if (node < 0) {
+                    int symbol = -node - 1;
+                    if (symbol == 256) {
+                        throw compressionError("EOS in Huffman-encoded string");
+                    }
+                    text.append((char) symbol);
+                    node = 0;
+                    depth = 0;
+                    allOnes = true;
+                } else if (node == 0) {
+                    throw compressionError("Invalid Huffman code");
+                }
+            }
+        }
+        if (depth > 7 || !allOnes) {
+            throw compressionError("Invalid Huffman padding");
+        }
+        return text.toString();
+    }
+
+    private static int[] buildTree() {
+        int[] tree = new int[2 * 2 * HUFFMAN_CODES.length];
+        int nodes = 1;
+        for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+                int slot = 2 * node + ((HUFFMAN_CODES[symbol] >>> bit) & 1);
+                if (bit == 0) {
+                    tree[slot] = -(symbol + 1);
+                } else {
+                    if (tree[slot] == 0) {
+                        tree[slot] = nodes++;
+                    }
+                    node = tree[slot];
+                }
+            }
+        }
+        return tree;
+    }
+
+    private static Http2Exception compressionError(String message) {
+        return new Http2Exception(Http2Exception.COMPRESSION_ERROR, message);
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        private final int end;
+        private int position;
+
+        Input(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        int integer(int prefixBits) throws Http2Exception {
+            int max = (1 << prefixBits) - 1;
+            int value = data[position++] & max;
+            if (value < max) {
+                return value;
+            }
+            int shift = 0;
+            int b;
+            do {
+                if (position >= end || shift > 21) {
+                    throw compressionError("Malformed integer");
+                }
+                b = data[position++] & 0xFF;
+                value += (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        String string() throws Http2Exception {
+            if (position >= end) {
+                throw compressionError("Truncated string");
+            }
+            boolean huffman = (data[position] & 0x80) != 0;
+            int length = integer(7);
+            if (length > end - position) {
+                throw compressionError("Truncated string");
+            }
+            String value = huffman
+                    ? huffmanDecode(data, position, length)
+                    : new String(data, position, length, StandardCharsets.ISO_8859_1);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,936 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Cleartext HTTP/2 (RFC 9113) on one connection, entered with prior knowledge or through an HTTP/1.1
+// "Upgrade: h2c". The connection thread only reads and dispatches frames; every stream runs its
+// request through HTSService on its own virtual thread, so one connection carries many requests at
+// once. Streams share the socket through writeLock, and DATA waits for send window under flowLock,
+// which the reader never blocks on.
+// Each stream's request head is rebuilt as HTTP/1.1 text and parsed by HttpRequestParser, so
+// handlers see the same HttpRequest whichever protocol it arrived on.
+public class Http2Connection {
+
+    public static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] SWITCHING_PROTOCOLS =
+            "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int FRAME_HEADER_SIZE = 9;
+    static final int DEFAULT_FRAME_SIZE = 16384;
+    static final int DEFAULT_WINDOW = 65535;
+    private static final int MAX_FRAME_SIZE_LIMIT = (1 << 24) - 1;
+    // Larger frames save little once past a few TCP segments, so a bigger MAX_FRAME_SIZE from the peer is capped
+    private static final int MAX_SEND_FRAME_SIZE = 64 * 1024;
+    // Opened once at the start so the connection window never throttles; stream windows bound memory
+    private static final int CONNECTION_RECEIVE_WINDOW = 16 * 1024 * 1024;
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+    private final HTSService service;
+    private final InputStream in;
+    private final OutputStream out;
+    private final InetAddress remoteAddress;
+    private final ReadDeadlines.Deadline deadline;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock flowLock = new ReentrantLock();
+    private final Condition windowOpened = flowLock.newCondition();
+    private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<>();
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    private final ExecutorService streamThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private final byte[] frameHeader = new byte[FRAME_HEADER_SIZE];
+    private final byte[] writeHeader = new byte[FRAME_HEADER_SIZE];
+    private final byte[] writeScratch = new byte[MAX_SEND_FRAME_SIZE];
+
+    // Guarded by flowLock
+    private long connectionSendWindow = DEFAULT_WINDOW;
+    private long initialSendWindow = DEFAULT_WINDOW;
+    private volatile int maxSendFrameSize = DEFAULT_FRAME_SIZE;
+    private volatile boolean closed;
+    // Written by the reader thread only, read when shutdown picks the last stream it will answer
+    private volatile int lastStreamId;
+    private final AtomicBoolean shuttingDown = new AtomicBoolean();
+    private volatile int shutdownStreamId = Integer.MAX_VALUE;
+    private final AtomicReference<Runnable> whenIdle = new AtomicReference<>();
+
+    // Reader thread only
+    private long connectionReceiveWindow = DEFAULT_WINDOW;
+    private boolean settingsReceived;
+    private boolean goAwayReceived;
+    private ByteArrayOutputStream headerBlock;
+    private int headerBlockStream;
+    private int headerBlockFlags;
+
+    public Http2Connection(HTSService service, InputStream in, OutputStream out, InetAddress remoteAddress,
+                           ReadDeadlines.Deadline deadline) {
+        this.service = service;
+        this.in = in;
+        this.out = out;
+        this.remoteAddress = remoteAddress;
+        this.deadline = deadline;
+    }
+
+    // True for an HTTP/1.1 request asking to switch to h2c; requests with a body are served as HTTP/1.1
+    public static boolean isUpgrade(HttpRequest request) {
+        if (!request.headerContainsToken(HTSConstants.UPGRADE, HTSConstants.H2C)
+                || !request.headerContainsToken(HTSConstants.CONNECTION, HTSConstants.HTTP2_SETTINGS)
+                || !request.hasHeader(HTSConstants.HTTP2_SETTINGS)
+                || request.headerContainsToken("Transfer-Encoding", HTSConstants.CHUNKED)) {
+            return false;
+        }
+        try {
+            return request.headerAsLong("Content-Length", 0) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Runs until the client goes away, the connection idles out or a connection error occurs.
+    // upgradeRequest, when set, is answered on stream 1 with settings from its HTTP2-Settings header.
+    public void serve(HttpRequest upgradeRequest) throws IOException {
+        Http2Exception error = null;
+        try {
+            writeSettings();
+            if (upgradeRequest != null) {
+                applySettings(decodeUpgradeSettings(upgradeRequest.header(HTSConstants.HTTP2_SETTINGS)));
+                lastStreamId = 1;
+                Http2Stream stream = openStream(1);
+                stream.endOfBody();
+                streamThreads.execute(() -> respond(stream, upgradeRequest, null));
+            }
+            readPreface();
+            readFrames();
+        } catch (Http2Exception e) {
+            error = e;
+            Log.debug("HTTP/2 connection error: {}", e.getMessage());
+            writeGoAway(e.getErrorCode(), e.getMessage());
+        } catch (EOFException e) {
+            // Client closed the connection
+        } finally {
+            close(error != null);
+        }
+    }
+
+    private void close(boolean abort) {
+        // Streams still finishing their responses must not lose the socket to a read deadline
+        deadline.cancel();
+        // Nothing more will be read, so bodies still waiting for DATA can't complete
+        for (Http2Stream stream : streams.values()) {
+            if (!stream.isBodyComplete()) {
+                stream.failBody(new EOFException("Connection closed before the request body ended"));
+            }
+        }
+        streamThreads.shutdown();
+        try {
+            if (abort || !streamThreads.awaitTermination(AppConfig.keepAliveTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                abortStreams();
+                streamThreads.awaitTermination(AppConfig.keepAliveTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortStreams();
+        }
+    }
+
+    private void abortStreams() {
+        flowLock.lock();
+        try {
+            closed = true;
+            for (Http2Stream stream : streams.values()) {
+                stream.abort(new IOException("HTTP/2 connection closed"));
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+        streamThreads.shutdownNow();
+    }
+
+    private void readPreface() throws IOException {
+        byte[] preface = new byte[PREFACE.length];
+        deadline.start(ReadDeadlines.Phase.HEADER);
+        readFully(preface, 0, preface.length);
+        for (int i = 0; i < preface.length; i++) {
+            if (preface[i] != PREFACE[i]) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid connection preface");
+            }
+        }
+    }
+
+    private void readFrames() throws IOException {
+        while (!goAwayReceived || !streams.isEmpty()) {
+            if (!readFrameHeader()) {
+                return;
+            }
+            int length = ((frameHeader[0] & 0xFF) << 16) | ((frameHeader[1] & 0xFF) << 8) | (frameHeader[2] & 0xFF);
+            int type = frameHeader[3] & 0xFF;
+            int flags = frameHeader[4] & 0xFF;
+            int streamId = readInt(frameHeader, 5) & 0x7FFFFFFF;
+            if (length > DEFAULT_FRAME_SIZE) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds " + DEFAULT_FRAME_SIZE);
+            }
+            byte[] payload = new byte[length];
+            readFully(payload, 0, length);
+
+            if (!settingsReceived && type != SETTINGS) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "First frame must be SETTINGS");
+            }
+            if (headerBlock != null && (type != CONTINUATION || streamId != headerBlockStream)) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Header block interrupted");
+            }
+            try {
+                handleFrame(type, flags, streamId, payload);
+            } catch (Http2Exception e) {
+                if (e.getStreamId() == 0) {
+                    throw e;
+                }
+                resetStream(e.getStreamId(), e.getErrorCode());
+            }
+        }
+    }
+
+    private void handleFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        switch (type) {
+            case DATA -> onData(flags, streamId, payload);
+            case HEADERS -> onHeaders(flags, streamId, payload);
+            case PRIORITY -> {
+                if (payload.length != 5) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, streamId, "PRIORITY must be 5 bytes");
+                }
+            }
+            case RST_STREAM -> onReset(streamId, payload);
+            case SETTINGS -> onSettings(flags, streamId, payload);
+            case PUSH_PROMISE -> throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Clients must not push");
+            case PING -> onPing(flags, streamId, payload);
+            case GOAWAY -> {
+                requireConnectionFrame(streamId, "GOAWAY");
+                goAwayReceived = true;
+            }
+            case WINDOW_UPDATE -> onWindowUpdate(streamId, payload);
+            case CONTINUATION -> onContinuation(flags, streamId, payload);
+            default -> {
+                // Unknown frame types are ignored
+            }
+        }
+    }
+
+    private void onData(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        int offset = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            end = unpad(payload);
+            offset = 1;
+        }
+        connectionReceiveWindow -= payload.length;
+        if (connectionReceiveWindow < 0) {
+            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "DATA exceeds the connection window");
+        }
+        if (connectionReceiveWindow < CONNECTION_RECEIVE_WINDOW / 2) {
+            writeWindowUpdate(0, (int) (CONNECTION_RECEIVE_WINDOW - connectionReceiveWindow));
+            connectionReceiveWindow = CONNECTION_RECEIVE_WINDOW;
+        }
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            // The response is already out and the stream reset; late DATA only counts against the connection
+            return;
+        }
+        stream.receive(payload, offset, end - offset, payload.length);
+        if ((flags & FLAG_END_STREAM) != 0) {
+            stream.endOfBody();
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "HEADERS on stream 0");
+        }
+        int offset = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            end = unpad(payload);
+            offset = 1;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            offset += 5;
+            if (offset > end) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "HEADERS too short for its priority");
+            }
+        }
+        headerBlock = new ByteArrayOutputStream(Math.max(64, end - offset));
+        headerBlock.write(payload, offset, end - offset);
+        headerBlockStream = streamId;
+        headerBlockFlags = flags;
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            endHeaders();
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, byte[] payload) throws IOException {
+        if (headerBlock == null) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "CONTINUATION without HEADERS");
+        }
+        headerBlock.write(payload, 0, payload.length);
+        if (headerBlock.size() > AppConfig.maxHeaderSize + AppConfig.maxRequestLineLength) {
+            throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            endHeaders();
+        }
+    }
+
+    private void endHeaders() throws IOException {
+        byte[] block = headerBlock.toByteArray();
+        int streamId = headerBlockStream;
+        boolean endStream = (headerBlockFlags & FLAG_END_STREAM) != 0;
+        headerBlock = null;
+
+        var head = new RequestHead();
+        decoder.decode(block, 0, block.length, head);
+        head.validate();
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            // Trailers; their fields are not passed on
+            if (!endStream) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Trailers must end the stream");
+            }
+            stream.endOfBody();
+            return;
+        }
+        if (streamId % 2 == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "HEADERS on server stream " + streamId);
+        }
+        if (streamId <= lastStreamId) {
+            // Trailers racing the reset sent after an early response
+            return;
+        }
+        lastStreamId = streamId;
+        if (goAwayReceived || streamId > shutdownStreamId || streams.size() >= AppConfig.http2MaxConcurrentStreams) {
+            resetStream(streamId, Http2Exception.REFUSED_STREAM);
+            return;
+        }
+        if (head.error != null) {
+            Log.debug("Malformed HTTP/2 request: {}", head.error);
+            resetStream(streamId, Http2Exception.PROTOCOL_ERROR);
+            return;
+        }
+        Http2Stream opened = openStream(streamId);
+        if (endStream) {
+            opened.endOfBody();
+        }
+        byte[] requestHead = head.toHttp1();
+        streamThreads.execute(() -> respond(opened, null, requestHead));
+    }
+
+    private Http2Stream openStream(int streamId) {
+        flowLock.lock();
+        try {
+            var stream = new Http2Stream(this, streamId, initialSendWindow, AppConfig.http2InitialWindowSize);
+            streams.put(streamId, stream);
+            return stream;
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void onReset(int streamId, byte[] payload) throws Http2Exception {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "RST_STREAM on stream 0");
+        }
+        if (payload.length != 4) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "RST_STREAM must be 4 bytes");
+        }
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            flowLock.lock();
+            try {
+                stream.abort(new IOException("Stream " + streamId + " reset by client"));
+                windowOpened.signalAll();
+            } finally {
+                flowLock.unlock();
+            }
+        }
+    }
+
+    private void onSettings(int flags, int streamId, byte[] payload) throws IOException {
+        requireConnectionFrame(streamId, "SETTINGS");
+        if ((flags & FLAG_ACK) != 0) {
+            if (payload.length != 0) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS ACK with a payload");
+            }
+            return;
+        }
+        applySettings(payload);
+        settingsReceived = true;
+        writeFrame(SETTINGS, FLAG_ACK, 0, new byte[0], 0, 0);
+    }
+
+    private void applySettings(byte[] payload) throws Http2Exception {
+        if (payload.length % 6 != 0) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS length must be a multiple of 6");
+        }
+        for (int i = 0; i < payload.length; i += 6) {
+            int id = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+            long value = readInt(payload, i + 2) & 0xFFFFFFFFL;
+            switch (id) {
+                case SETTINGS_ENABLE_PUSH -> {
+                    if (value > 1) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "ENABLE_PUSH must be 0 or 1");
+                    }
+                }
+                case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                    if (value > Integer.MAX_VALUE) {
+                        throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "INITIAL_WINDOW_SIZE too large");
+                    }
+                    changeInitialWindow(value);
+                }
+                case SETTINGS_MAX_FRAME_SIZE -> {
+                    if (value < DEFAULT_FRAME_SIZE || value > MAX_FRAME_SIZE_LIMIT) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "MAX_FRAME_SIZE out of range");
+                    }
+                    maxSendFrameSize = (int) Math.min(value, writeScratch.length);
+                }
+                default -> {
+                    // HEADER_TABLE_SIZE doesn't matter as the encoder never indexes; the rest are advisory
+                }
+            }
+        }
+    }
+
+    // A new initial window applies to every open stream by the difference (RFC 9113 section 6.9.2)
+    private void changeInitialWindow(long value) throws Http2Exception {
+        flowLock.lock();
+        try {
+            long delta = value - initialSendWindow;
+            initialSendWindow = value;
+            for (Http2Stream stream : streams.values()) {
+                stream.sendWindow += delta;
+                if (stream.sendWindow > Integer.MAX_VALUE) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Stream window overflow");
+                }
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void onPing(int flags, int streamId, byte[] payload) throws IOException {
+        requireConnectionFrame(streamId, "PING");
+        if (payload.length != 8) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "PING must be 8 bytes");
+        }
+        if ((flags & FLAG_ACK) == 0) {
+            writeFrame(PING, FLAG_ACK, 0, payload, 0, payload.length);
+        }
+    }
+
+    private void onWindowUpdate(int streamId, byte[] payload) throws Http2Exception {
+        if (payload.length != 4) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "WINDOW_UPDATE must be 4 bytes");
+        }
+        int increment = readInt(payload, 0) & 0x7FFFFFFF;
+        if (increment == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "WINDOW_UPDATE of 0");
+        }
+        flowLock.lock();
+        try {
+            if (streamId == 0) {
+                connectionSendWindow += increment;
+                if (connectionSendWindow > Integer.MAX_VALUE) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+            } else {
+                Http2Stream stream = streams.get(streamId);
+                if (stream == null) {
+                    return;
+                }
+                stream.sendWindow += increment;
+                if (stream.sendWindow > Integer.MAX_VALUE) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+                }
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    // Runs on the stream's thread: handles the request and sends the response
+    private void respond(Http2Stream stream, HttpRequest upgradeRequest, byte[] requestHead) {
+        HttpResponse response = null;
+        try {
+            HttpRequest request = upgradeRequest;
+            if (request == null) {
+                var parser = new HttpRequestParser();
+                try {
+                    parser.parse(requestHead, 0, requestHead.length);
+                    request = parser.getRequest();
+                } catch (HttpParseException e) {
+                    response = HttpResponse.status(e.getStatus()).text(e.getMessage());
+                }
+            }
+            if (response == null && request.headerAsLong("Content-Length", 0) > AppConfig.maxBodySize) {
+                response = HttpResponse.status(HttpStatus.PAYLOAD_TOO_LARGE).text("Request body exceeds " + AppConfig.maxBodySize + " bytes");
+            }
+            if (response == null) {
+                response = service.respond(new RequestContext(request, stream.getBody(), true, remoteAddress));
+            }
+            writeResponse(stream, response);
+            service.getMetrics().responseWritten(response);
+            if (!stream.isBodyComplete()) {
+                // The client may still be sending a body nobody will read
+                resetStream(stream.getId(), Http2Exception.NO_ERROR);
+            }
+        } catch (NumberFormatException e) {
+            resetQuietly(stream, Http2Exception.PROTOCOL_ERROR);
+        } catch (IOException e) {
+            if (!stream.reset && !closed) {
+                Log.debug("HTTP/2 stream {} failed: {}", stream.getId(), e.getMessage());
+                resetQuietly(stream, Http2Exception.INTERNAL_ERROR);
+            }
+        } finally {
+            streams.remove(stream.getId());
+            if (response != null) {
+                response.close();
+            }
+            runIfIdle();
+        }
+    }
+
+    private void writeResponse(Http2Stream stream, HttpResponse response) throws IOException {
+        response.frameBody();
+        var encoder = new Hpack.Encoder();
+        encoder.header(":status", Integer.toString(response.getStatus().getCode()));
+        response.forEachHeader((name, value) -> {
+            String lowerCase = name.toLowerCase(Locale.ROOT);
+            if (!CONNECTION_HEADERS.contains(lowerCase)) {
+                encoder.header(lowerCase, value);
+            }
+        });
+        long length = response.getBodyLength();
+        if (length < 0) {
+            throw new IllegalStateException("HTTP/2 responses need a known body length");
+        }
+        writeHeaders(stream.getId(), encoder.toByteArray(), length == 0);
+        if (length > 0) {
+            response.writeFully(new DataChannel(stream, length));
+        }
+    }
+
+    private void resetQuietly(Http2Stream stream, int errorCode) {
+        try {
+            resetStream(stream.getId(), errorCode);
+        } catch (IOException e) {
+            // The connection is gone as well
+        }
+    }
+
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null && errorCode != Http2Exception.NO_ERROR) {
+            stream.abort(new IOException("Stream " + streamId + " reset"));
+        }
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, errorCode);
+        writeFrame(RST_STREAM, 0, streamId, payload, 0, payload.length);
+    }
+
+    // Blocks until the stream and the connection both have send window, then takes up to wanted bytes of it
+    private int reserve(Http2Stream stream, int wanted) throws IOException {
+        flowLock.lock();
+        try {
+            while (true) {
+                if (stream.reset || closed) {
+                    throw new IOException("Stream " + stream.getId() + " closed while sending");
+                }
+                long available = Math.min(connectionSendWindow, stream.sendWindow);
+                if (available > 0) {
+                    int granted = (int) Math.min(available, wanted);
+                    connectionSendWindow -= granted;
+                    stream.sendWindow -= granted;
+                    return granted;
+                }
+                windowOpened.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for send window", e);
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void writeSettings() throws IOException {
+        byte[] settings = new byte[18];
+        putSetting(settings, 0, SETTINGS_MAX_CONCURRENT_STREAMS, AppConfig.http2MaxConcurrentStreams);
+        putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, AppConfig.http2InitialWindowSize);
+        putSetting(settings, 12, SETTINGS_MAX_HEADER_LIST_SIZE, AppConfig.maxHeaderSize);
+        writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+        writeWindowUpdate(0, CONNECTION_RECEIVE_WINDOW - DEFAULT_WINDOW);
+        connectionReceiveWindow = CONNECTION_RECEIVE_WINDOW;
+    }
+
+    void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+    }
+
+    // Graceful shutdown: GOAWAY tells the client the last stream that will still be answered, later
+    // ones are refused so it can retry them elsewhere, and whenIdle runs once the answered ones are done
+    public void shutdown(Runnable whenIdle) {
+        if (!shuttingDown.compareAndSet(false, true)) {
+            return;
+        }
+        this.whenIdle.set(whenIdle);
+        int last = lastStreamId;
+        shutdownStreamId = last;
+        writeGoAway(last, Http2Exception.NO_ERROR, "Shutting down");
+        runIfIdle();
+    }
+
+    public int getOpenStreams() {
+        return streams.size();
+    }
+
+    private void runIfIdle() {
+        if (streams.isEmpty() && whenIdle.get() != null) {
+            Runnable idle = whenIdle.getAndSet(null);
+            if (idle != null) {
+                idle.run();
+            }
+        }
+    }
+
+    private void writeGoAway(int errorCode, String message) {
+        writeGoAway(lastStreamId, errorCode, message);
+    }
+
+    private void writeGoAway(int lastStream, int errorCode, String message) {
+        byte[] debug = message == null ? new byte[0] : message.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[8 + debug.length];
+        writeInt(payload, 0, lastStream);
+        writeInt(payload, 4, errorCode);
+        System.arraycopy(debug, 0, payload, 8, debug.length);
+        try {
+            writeFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+        } catch (IOException e) {
+            // The client is already gone
+        }
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+        writeLock.lock();
+        try {
+            putFrameHeader(length, type, flags, streamId);
+            out.write(payload, offset, length);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // The block goes out as HEADERS plus CONTINUATION frames with nothing in between, as HPACK requires
+    private void writeHeaders(int streamId, byte[] block, boolean endStream) throws IOException {
+        int frameSize = maxSendFrameSize;
+        writeLock.lock();
+        try {
+            int offset = 0;
+            boolean first = true;
+            do {
+                int length = Math.min(frameSize, block.length - offset);
+                boolean last = offset + length == block.length;
+                int flags = (last ? FLAG_END_HEADERS : 0) | (first && endStream ? FLAG_END_STREAM : 0);
+                putFrameHeader(length, first ? HEADERS : CONTINUATION, flags, streamId);
+                out.write(block, offset, length);
+                offset += length;
+                first = false;
+            } while (offset < block.length);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeData(int streamId, ByteBuffer source, int length, boolean endStream) throws IOException {
+        writeLock.lock();
+        try {
+            putFrameHeader(length, DATA, endStream ? FLAG_END_STREAM : 0, streamId);
+            if (source.hasArray()) {
+                out.write(source.array(), source.arrayOffset() + source.position(), length);
+                source.position(source.position() + length);
+            } else {
+                source.get(writeScratch, 0, length);
+                out.write(writeScratch, 0, length);
+            }
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void putFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+        writeHeader[0] = (byte) (length >>> 16);
+        writeHeader[1] = (byte) (length >>> 8);
+        writeHeader[2] = (byte) length;
+        writeHeader[3] = (byte) type;
+        writeHeader[4] = (byte) flags;
+        writeInt(writeHeader, 5, streamId);
+        out.write(writeHeader, 0, FRAME_HEADER_SIZE);
+    }
+
+    // Returns false on a clean end of input before the frame starts. Waiting for a frame is the idle
+    // phase when no stream is open and the body phase while a request body is still arriving; a
+    // frame that has started must arrive whole within the header deadline.
+    private boolean readFrameHeader() throws IOException {
+        if (streams.isEmpty()) {
+            deadline.start(ReadDeadlines.Phase.IDLE);
+        } else if (awaitsBody()) {
+            deadline.start(ReadDeadlines.Phase.BODY);
+        } else {
+            // The client may be quiet while it waits for responses
+            deadline.cancel();
+        }
+        int first = in.read();
+        if (first == -1) {
+            return false;
+        }
+        deadline.start(ReadDeadlines.Phase.HEADER);
+        frameHeader[0] = (byte) first;
+        readFully(frameHeader, 1, FRAME_HEADER_SIZE - 1);
+        return true;
+    }
+
+    private boolean awaitsBody() {
+        for (Http2Stream stream : streams.values()) {
+            if (!stream.isBodyComplete()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void readFully(byte[] target, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(target, offset + read, length - read);
+            if (count == -1) {
+                throw new EOFException("Connection closed in the middle of a frame");
+            }
+            read += count;
+        }
+    }
+
+    private static byte[] decodeUpgradeSettings(String header) throws Http2Exception {
+        try {
+            return Base64.getUrlDecoder().decode(header.trim());
+        } catch (IllegalArgumentException e) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Malformed HTTP2-Settings");
+        }
+    }
+
+    private static int unpad(byte[] payload) throws Http2Exception {
+        if (payload.length == 0 || (payload[0] & 0xFF) >= payload.length) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Padding exceeds the frame");
+        }
+        return payload.length - (payload[0] & 0xFF);
+    }
+
+    private static void requireConnectionFrame(int streamId, String type) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, type + " must be on stream 0");
+        }
+    }
+
+    private static void putSetting(byte[] payload, int offset, int id, int value) {
+        payload[offset] = (byte) (id >>> 8);
+        payload[offset + 1] = (byte) id;
+        writeInt(payload, offset + 2, value);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    // Writes a response body as DATA frames, as much as the flow-control windows allow at a time
+    private final class DataChannel implements WritableByteChannel {
+
+        private final Http2Stream stream;
+        private long remaining;
+
+        DataChannel(Http2Stream stream, long length) {
+            this.stream = stream;
+            this.remaining = length;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int written = 0;
+            while (source.hasRemaining()) {
+                int length = reserve(stream, Math.min(source.remaining(), maxSendFrameSize));
+                remaining -= length;
+                writeData(stream.getId(), source, length, remaining == 0);
+                written += length;
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed && !stream.reset;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Rebuilds the request head as HTTP/1.1 text while the header block is decoded; problems are
+    // recorded rather than thrown so decoding always runs to the end of the block
+    private static final class RequestHead implements Hpack.HeaderSink {
+
+        private String method;
+        private String path;
+        private String scheme;
+        private String authority;
+        private boolean hasHost;
+        private final StringBuilder fields = new StringBuilder(256);
+        private StringBuilder cookie;
+        private boolean regularSeen;
+        String error;
+
+        @Override
+        public void header(String name, String value) {
+            if (error != null) {
+                return;
+            }
+            if (hasLineBreak(name) || hasLineBreak(value)) {
+                error = "Line break in header " + name;
+            } else if (name.startsWith(":")) {
+                pseudoHeader(name, value);
+            } else {
+                regularSeen = true;
+                if (!name.equals(name.toLowerCase(Locale.ROOT)) || name.isEmpty()) {
+                    error = "Header name must be lowercase: " + name;
+                } else if (CONNECTION_HEADERS.contains(name) || (name.equals("te") && !value.equals("trailers"))) {
+                    error = "Connection-specific header " + name;
+                } else if (name.equals("cookie")) {
+                    // Cookies may be split across fields and are joined back for HTTP/1.1 (RFC 9113 section 8.2.3)
+                    cookie = cookie == null ? new StringBuilder(value) : cookie.append("; ").append(value);
+                } else {
+                    hasHost |= name.equals("host");
+                    fields.append(name).append(": ").append(value).append("\r\n");
+                }
+            }
+        }
+
+        private void pseudoHeader(String name, String value) {
+            if (regularSeen) {
+                error = "Pseudo-header " + name + " after regular headers";
+                return;
+            }
+            switch (name) {
+                case ":method" -> method = method == null ? value : duplicate(name);
+                case ":path" -> path = path == null ? value : duplicate(name);
+                case ":scheme" -> scheme = scheme == null ? value : duplicate(name);
+                case ":authority" -> authority = authority == null ? value : duplicate(name);
+                default -> error = "Unknown pseudo-header " + name;
+            }
+        }
+
+        private String duplicate(String name) {
+            error = "Duplicate " + name;
+            return null;
+        }
+
+        byte[] toHttp1() {
+            var head = new StringBuilder(64 + fields.length());
+            head.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+            if (authority != null && !hasHost) {
+                head.append("host: ").append(authority).append("\r\n");
+            }
+            head.append(fields);
+            if (cookie != null) {
+                head.append("cookie: ").append(cookie).append("\r\n");
+            }
+            return head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path;
+        }
+
+        private static boolean hasLineBreak(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\r' || c == '\n' || c == '\0') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void validate() {
+            if (error == null && (method == null || scheme == null || path == null || path.isEmpty() || path.indexOf(' ') >= 0)) {
+                error = "Missing or invalid :method, :scheme or :path";
+            }
+        }
+    }
+}
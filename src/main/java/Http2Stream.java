@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One request/response exchange on an Http2Connection. The connection's reader thread feeds DATA
+// into body; the request handler reads it on the stream's own thread, and the stream receive window
+// is only reopened as the handler consumes data, so a slow handler holds back its client instead of
+// buffering without bound.
+public class Http2Stream {
+
+    private final int id;
+    private final Http2Connection connection;
+    private final Body body;
+    // Guarded by the connection's flow lock
+    long sendWindow;
+    volatile boolean reset;
+
+    Http2Stream(Http2Connection connection, int id, long sendWindow, int receiveWindow) {
+        this.connection = connection;
+        this.id = id;
+        this.sendWindow = sendWindow;
+        this.body = new Body(receiveWindow);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    // Queues the data of one DATA frame; flowLength is the whole frame payload, padding included
+    void receive(byte[] payload, int offset, int length, int flowLength) throws IOException {
+        int update = body.offer(payload, offset, length, flowLength);
+        if (update > 0) {
+            connection.writeWindowUpdate(id, update);
+        }
+    }
+
+    void endOfBody() {
+        body.finish(null);
+    }
+
+    boolean isBodyComplete() {
+        return body.isFinished();
+    }
+
+    // The response can still be sent, e.g. after the client's GOAWAY
+    void failBody(IOException cause) {
+        body.finish(cause);
+    }
+
+    void abort(IOException cause) {
+        reset = true;
+        body.finish(cause);
+    }
+
+    private final class Body extends InputStream {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition readable = lock.newCondition();
+        private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+        private final int initialWindow;
+        private int window;
+        private int credit;
+        private long received;
+        private boolean finished;
+        private IOException failure;
+
+        Body(int initialWindow) {
+            this.initialWindow = initialWindow;
+            this.window = initialWindow;
+        }
+
+        int offer(byte[] payload, int offset, int length, int flowLength) throws Http2Exception {
+            lock.lock();
+            try {
+                if (finished) {
+                    throw new Http2Exception(Http2Exception.STREAM_CLOSED, id, "DATA after END_STREAM");
+                }
+                if (flowLength > window) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, id, "DATA exceeds the stream window");
+                }
+                received += length;
+                if (received > AppConfig.maxBodySize) {
+                    throw new Http2Exception(Http2Exception.CANCEL, id, "Request body exceeds " + AppConfig.maxBodySize + " bytes");
+                }
+                window -= flowLength;
+                credit += flowLength - length;
+                if (length > 0) {
+                    chunks.add(ByteBuffer.wrap(payload, offset, length));
+                    readable.signal();
+                }
+                return takeCredit();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void finish(IOException cause) {
+            lock.lock();
+            try {
+                if (!finished) {
+                    finished = true;
+                    failure = cause;
+                }
+                readable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isFinished() {
+            lock.lock();
+            try {
+                return finished;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            int count;
+            int update;
+            lock.lock();
+            try {
+                while (chunks.isEmpty() && !finished) {
+                    readable.await();
+                }
+                if (chunks.isEmpty()) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return -1;
+                }
+                ByteBuffer chunk = chunks.peek();
+                count = Math.min(length, chunk.remaining());
+                chunk.get(target, offset, count);
+                if (!chunk.hasRemaining()) {
+                    chunks.poll();
+                }
+                credit += count;
+                update = takeCredit();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading the request body", e);
+            } finally {
+                lock.unlock();
+            }
+            if (update > 0 && !reset) {
+                connection.writeWindowUpdate(id, update);
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return chunks.isEmpty() ? 0 : chunks.peek().remaining();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Window updates go out in batches of half the window rather than one per read
+        private int takeCredit() {
+            if (finished || credit < initialWindow / 2) {
+                return 0;
+            }
+            int update = credit;
+            window += credit;
+            credit = 0;
+            return update;
+        }
+    }
+}
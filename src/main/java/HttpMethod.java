@@ -0,0 +1,30 @@
+import java.nio.charset.StandardCharsets;
+
+public enum HttpMethod {
+    GET, HEAD, POST, PUT, DELETE, OPTIONS, PATCH, TRACE, CONNECT, UNKNOWN;
+
+    private static final HttpMethod[] KNOWN = {GET, POST, HEAD, PUT, DELETE, OPTIONS, PATCH, TRACE, CONNECT};
+
+    private final byte[] token = name().getBytes(StandardCharsets.US_ASCII);
+
+    public static HttpMethod parse(byte[] buffer, int from, int to) {
+        for (HttpMethod method : KNOWN) {
+            if (method.matches(buffer, from, to)) {
+                return method;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private boolean matches(byte[] buffer, int from, int to) {
+        if (to - from != token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (buffer[from + i] != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,15 @@
+import java.io.IOException;
+
+public class HttpParseException extends IOException {
+
+    private final HttpStatus status;
+
+    public HttpParseException(HttpStatus status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+}
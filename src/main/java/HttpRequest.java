@@ -0,0 +1,188 @@
+import java.nio.charset.StandardCharsets;
+
+// A parsed request head. Everything is kept as offsets into the parser's buffer and
+// only turned into Strings when asked for, so a header that is never read costs nothing.
+public class HttpRequest {
+
+    public static final int MAX_HEADERS = 100;
+
+    private byte[] buffer;
+    private HttpMethod method;
+    private int pathStart;
+    private int pathEnd;
+    private boolean http11;
+    private final int[] nameStarts = new int[MAX_HEADERS];
+    private final int[] nameEnds = new int[MAX_HEADERS];
+    private final int[] valueStarts = new int[MAX_HEADERS];
+    private final int[] valueEnds = new int[MAX_HEADERS];
+    private int headerCount;
+    private String path;
+
+    void reset(byte[] buffer) {
+        this.buffer = buffer;
+        this.headerCount = 0;
+        this.path = null;
+    }
+
+    void setRequestLine(HttpMethod method, int pathStart, int pathEnd, boolean http11) {
+        this.method = method;
+        this.pathStart = pathStart;
+        this.pathEnd = pathEnd;
+        this.http11 = http11;
+    }
+
+    boolean addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (headerCount == MAX_HEADERS) {
+            return false;
+        }
+        nameStarts[headerCount] = nameStart;
+        nameEnds[headerCount] = nameEnd;
+        valueStarts[headerCount] = valueStart;
+        valueEnds[headerCount] = valueEnd;
+        headerCount++;
+        return true;
+    }
+
+    // The same request over another buffer holding its bytes at the same offsets, for one that is
+    // served after the parser's buffer has moved on
+    HttpRequest copyOnto(byte[] copy) {
+        var request = new HttpRequest();
+        request.reset(copy);
+        request.setRequestLine(method, pathStart, pathEnd, http11);
+        System.arraycopy(nameStarts, 0, request.nameStarts, 0, headerCount);
+        System.arraycopy(nameEnds, 0, request.nameEnds, 0, headerCount);
+        System.arraycopy(valueStarts, 0, request.valueStarts, 0, headerCount);
+        System.arraycopy(valueEnds, 0, request.valueEnds, 0, headerCount);
+        request.headerCount = headerCount;
+        return request;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    // The request target without its query
+    public String getPath() {
+        if (path == null) {
+            path = new String(buffer, pathStart, queryStart() - pathStart, StandardCharsets.UTF_8);
+        }
+        return path;
+    }
+
+    // What follows the '?', still percent-encoded, or null without one
+    public String getQuery() {
+        int start = queryStart();
+        return start == pathEnd ? null : new String(buffer, start + 1, pathEnd - start - 1, StandardCharsets.UTF_8);
+    }
+
+    private int queryStart() {
+        for (int i = pathStart; i < pathEnd; i++) {
+            if (buffer[i] == '?') {
+                return i;
+            }
+        }
+        return pathEnd;
+    }
+
+    public boolean isHttp11() {
+        return http11;
+    }
+
+    public boolean hasHeader(String name) {
+        return indexOfHeader(name) >= 0;
+    }
+
+    public String header(String name) {
+        int index = indexOfHeader(name);
+        if (index < 0) {
+            return null;
+        }
+        return new String(buffer, valueStarts[index], valueEnds[index] - valueStarts[index], StandardCharsets.UTF_8);
+    }
+
+    public boolean headerEquals(String name, String value) {
+        int index = indexOfHeader(name);
+        return index >= 0 && regionEquals(valueStarts[index], valueEnds[index], value, false);
+    }
+
+    // True when the comma separated header value lists the token, e.g. "Connection: keep-alive, Upgrade"
+    public boolean headerContainsToken(String name, String token) {
+        int index = indexOfHeader(name);
+        if (index < 0) {
+            return false;
+        }
+        int end = valueEnds[index];
+        for (int start = valueStarts[index]; start < end; ) {
+            int tokenEnd = start;
+            while (tokenEnd < end && buffer[tokenEnd] != ',') {
+                tokenEnd++;
+            }
+            int trimmedStart = start;
+            int trimmedEnd = tokenEnd;
+            while (trimmedStart < trimmedEnd && isWhitespace(buffer[trimmedStart])) {
+                trimmedStart++;
+            }
+            while (trimmedEnd > trimmedStart && isWhitespace(buffer[trimmedEnd - 1])) {
+                trimmedEnd--;
+            }
+            if (regionEquals(trimmedStart, trimmedEnd, token, true)) {
+                return true;
+            }
+            start = tokenEnd + 1;
+        }
+        return false;
+    }
+
+    // Returns missing when the header is absent, throws NumberFormatException when it is not a number
+    public long headerAsLong(String name, long missing) {
+        int index = indexOfHeader(name);
+        if (index < 0) {
+            return missing;
+        }
+        int start = valueStarts[index];
+        int end = valueEnds[index];
+        if (start == end || end - start > 18) {
+            throw new NumberFormatException("Invalid " + name);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte digit = buffer[i];
+            if (digit < '0' || digit > '9') {
+                throw new NumberFormatException("Invalid " + name);
+            }
+            value = value * 10 + (digit - '0');
+        }
+        return value;
+    }
+
+    private int indexOfHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (regionEquals(nameStarts[i], nameEnds[i], name, true)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionEquals(int start, int end, String value, boolean ignoreCase) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            int a = buffer[start + i] & 0xFF;
+            int b = value.charAt(i);
+            if (a != b && (!ignoreCase || toLowerCase(a) != toLowerCase(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
@@ -0,0 +1,147 @@
+public class HttpRequestParser {
+
+    public static final int NEED_MORE = -1;
+
+    private static final byte[] HTTP_VERSION_PREFIX = {'H', 'T', 'T', 'P', '/', '1', '.'};
+
+    private final HttpRequest request = new HttpRequest();
+    private final int maxRequestLineLength;
+    private final int maxHeaderSize;
+
+    public HttpRequestParser() {
+        this(AppConfig.maxRequestLineLength, AppConfig.maxHeaderSize);
+    }
+
+    public HttpRequestParser(int maxRequestLineLength, int maxHeaderSize) {
+        this.maxRequestLineLength = maxRequestLineLength;
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    // Parses the request head in buffer[from, to). Returns the offset just past the blank line
+    // that ends the head, or NEED_MORE when the head is not complete yet.
+    public int parse(byte[] buffer, int from, int to) throws HttpParseException {
+        int start = from;
+        while (start < to && (buffer[start] == '\r' || buffer[start] == '\n')) {
+            start++;
+        }
+
+        int requestLineEnd = indexOfLineFeed(buffer, start, to);
+        if (requestLineEnd < 0) {
+            if (to - start > maxRequestLineLength) {
+                throw new HttpParseException(HttpStatus.URI_TOO_LONG, "Request line exceeds " + maxRequestLineLength + " bytes");
+            }
+            return NEED_MORE;
+        }
+        if (requestLineEnd - start > maxRequestLineLength) {
+            throw new HttpParseException(HttpStatus.URI_TOO_LONG, "Request line exceeds " + maxRequestLineLength + " bytes");
+        }
+
+        request.reset(buffer);
+        parseRequestLine(buffer, start, trimCarriageReturn(buffer, start, requestLineEnd));
+
+        int headersStart = requestLineEnd + 1;
+        int position = headersStart;
+        while (true) {
+            int lineEnd = indexOfLineFeed(buffer, position, to);
+            if (lineEnd < 0) {
+                if (to - headersStart > maxHeaderSize) {
+                    throw headersTooLarge();
+                }
+                return NEED_MORE;
+            }
+            if (lineEnd - headersStart > maxHeaderSize) {
+                throw headersTooLarge();
+            }
+            int contentEnd = trimCarriageReturn(buffer, position, lineEnd);
+            if (contentEnd == position) {
+                return lineEnd + 1;
+            }
+            parseHeaderLine(buffer, position, contentEnd);
+            position = lineEnd + 1;
+        }
+    }
+
+    private void parseRequestLine(byte[] buffer, int start, int end) throws HttpParseException {
+        int methodEnd = indexOf(buffer, start, end, (byte) ' ');
+        int versionStart = lastIndexOf(buffer, start, end, (byte) ' ') + 1;
+        if (methodEnd < 0 || versionStart <= methodEnd + 1) {
+            throw new HttpParseException(HttpStatus.BAD_REQUEST, "Malformed request line");
+        }
+        if (!isHttp1Version(buffer, versionStart, end)) {
+            throw new HttpParseException(HttpStatus.BAD_REQUEST, "Unsupported HTTP version");
+        }
+        request.setRequestLine(HttpMethod.parse(buffer, start, methodEnd), methodEnd + 1, versionStart - 1, buffer[end - 1] == '1');
+    }
+
+    private void parseHeaderLine(byte[] buffer, int start, int end) throws HttpParseException {
+        int colon = indexOf(buffer, start, end, (byte) ':');
+        if (colon <= start) {
+            return;
+        }
+        int nameEnd = colon;
+        while (nameEnd > start && isWhitespace(buffer[nameEnd - 1])) {
+            nameEnd--;
+        }
+        int valueStart = colon + 1;
+        while (valueStart < end && isWhitespace(buffer[valueStart])) {
+            valueStart++;
+        }
+        int valueEnd = end;
+        while (valueEnd > valueStart && isWhitespace(buffer[valueEnd - 1])) {
+            valueEnd--;
+        }
+        if (!request.addHeader(start, nameEnd, valueStart, valueEnd)) {
+            throw new HttpParseException(HttpStatus.HEADERS_TOO_LARGE, "More than " + HttpRequest.MAX_HEADERS + " headers");
+        }
+    }
+
+    private HttpParseException headersTooLarge() {
+        return new HttpParseException(HttpStatus.HEADERS_TOO_LARGE, "Headers exceed " + maxHeaderSize + " bytes");
+    }
+
+    private static boolean isHttp1Version(byte[] buffer, int start, int end) {
+        if (end - start != HTTP_VERSION_PREFIX.length + 1) {
+            return false;
+        }
+        for (int i = 0; i < HTTP_VERSION_PREFIX.length; i++) {
+            if (buffer[start + i] != HTTP_VERSION_PREFIX[i]) {
+                return false;
+            }
+        }
+        return buffer[end - 1] == '0' || buffer[end - 1] == '1';
+    }
+
+    private static int indexOfLineFeed(byte[] buffer, int from, int to) {
+        return indexOf(buffer, from, to, (byte) '\n');
+    }
+
+    private static int indexOf(byte[] buffer, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] buffer, int from, int to, byte value) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int trimCarriageReturn(byte[] buffer, int start, int lineFeed) {
+        return lineFeed > start && buffer[lineFeed - 1] == '\r' ? lineFeed - 1 : lineFeed;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
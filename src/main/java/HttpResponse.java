@@ -0,0 +1,319 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+public class HttpResponse {
+
+    public static final byte[] TEXT_PLAIN = line(HTSConstants.CONTENT_TYPE + HTSConstants.TEXT_PLAIN);
+    public static final byte[] OCTET_STREAM = line(HTSConstants.CONTENT_TYPE + HTSConstants.OCTET_STREAM);
+    public static final byte[] GZIP_ENCODING = line(HTSConstants.CONTENT_ENCODING + HTSConstants.GZIP);
+    public static final byte[] DEFLATE_ENCODING = line(HTSConstants.CONTENT_ENCODING + ContentEncoding.DEFLATE.getToken());
+    public static final byte[] VARY_ACCEPT_ENCODING = line(HTSConstants.VARY + HTSConstants.ACCEPT_ENCODING);
+    public static final byte[] ACCEPT_RANGES = line(HTSConstants.ACCEPT_RANGES_BYTES);
+
+    private static final byte[] CONTENT_LENGTH = HTSConstants.CONTENT_LENGTH.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = line(HTSConstants.TRANSFER_ENCODING + HTSConstants.CHUNKED);
+    private static final byte[] CONNECTION_CLOSE = line(HTSConstants.CONNECTION_CLOSE);
+    private static final byte[] RN = HTSConstants.RN.getBytes(StandardCharsets.US_ASCII);
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int MAX_LENGTH_DIGITS = 19;
+    // Bodies up to this size are compressed up front so they keep a Content-Length, larger ones are streamed
+    static final int MAX_BUFFERED_COMPRESSION = 256 * 1024;
+
+    private final HttpStatus status;
+    private final List<byte[]> headers = new ArrayList<>(4);
+    private int headersLength = 0;
+    private ByteBuffer body = EMPTY;
+    private FileChannel file;
+    private long filePosition;
+    private long fileEnd;
+    private CompressingBody compressingBody;
+    private ContentEncoding encoding = ContentEncoding.IDENTITY;
+    private boolean compressible = true;
+    private String etag;
+    private long bytesWritten;
+    private ServerMetrics.RouteMetrics routeMetrics;
+    private long startNanos;
+    private HttpMethod method;
+    private String path;
+    private ByteBuffer head;
+    private ByteBuffer[] buffers;
+    private boolean keepAlive = true;
+
+    private HttpResponse(HttpStatus status) {
+        this.status = status;
+    }
+
+    public static HttpResponse status(HttpStatus status) {
+        return new HttpResponse(status);
+    }
+
+    // A pre-encoded header line such as TEXT_PLAIN, including its trailing CRLF
+    public HttpResponse header(byte[] line) {
+        headers.add(line);
+        headersLength += line.length;
+        return this;
+    }
+
+    public HttpResponse header(String name, String value) {
+        return header(line(name + ": " + value));
+    }
+
+    public HttpResponse body(byte[] bytes) {
+        return body(ByteBuffer.wrap(bytes));
+    }
+
+    public HttpResponse body(ByteBuffer buffer) {
+        this.body = buffer;
+        return this;
+    }
+
+    public HttpResponse text(String text) {
+        return header(TEXT_PLAIN).body(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public HttpResponse body(FileChannel file, long position, long count) {
+        this.file = file;
+        this.filePosition = position;
+        this.fileEnd = position + count;
+        return this;
+    }
+
+    // Sent as a weak tag when the body ends up content-coded
+    public HttpResponse etag(String etag) {
+        this.etag = etag;
+        return this;
+    }
+
+    // Marks the body as already encoded, e.g. a precompressed file, so it won't be compressed again
+    public HttpResponse encoding(ContentEncoding encoding) {
+        this.encoding = encoding;
+        if (encoding != ContentEncoding.IDENTITY) {
+            header(encoding == ContentEncoding.GZIP ? GZIP_ENCODING : DEFLATE_ENCODING).header(VARY_ACCEPT_ENCODING);
+        }
+        return this;
+    }
+
+    // For bodies that don't shrink when compressed, such as images or archives
+    public HttpResponse compressible(boolean compressible) {
+        this.compressible = compressible;
+        return this;
+    }
+
+    // Applies the negotiated content coding. Small bodies are compressed into memory, anything else is
+    // compressed while it is written using the chunked transfer coding, which HTTP/1.0 clients don't support.
+    public HttpResponse compress(ContentEncoding negotiated, long minimumSize, boolean chunkedAllowed) {
+        long length = getBodyLength();
+        if (status != HttpStatus.OK || !compressible || encoding != ContentEncoding.IDENTITY || length == 0) {
+            return this;
+        }
+        header(VARY_ACCEPT_ENCODING);
+        if (negotiated == ContentEncoding.IDENTITY || length < minimumSize) {
+            return this;
+        }
+        if (file == null && length <= MAX_BUFFERED_COMPRESSION) {
+            body = ByteBuffer.wrap(Compressor.compress(negotiated, body));
+        } else if (!chunkedAllowed) {
+            return this;
+        } else if (file != null) {
+            compressingBody = new CompressingBody(negotiated, file, filePosition, fileEnd - filePosition);
+            filePosition = fileEnd;
+        } else {
+            compressingBody = new CompressingBody(negotiated, body);
+            body = EMPTY;
+        }
+        this.encoding = negotiated;
+        return header(negotiated == ContentEncoding.GZIP ? GZIP_ENCODING : DEFLATE_ENCODING);
+    }
+
+    // Recorded against the route once the last byte has been written
+    public HttpResponse track(ServerMetrics.RouteMetrics routeMetrics, long startNanos) {
+        this.routeMetrics = routeMetrics;
+        this.startNanos = startNanos;
+        return this;
+    }
+
+    // Kept for the access log line written once the response is out
+    public HttpResponse track(ServerMetrics.RouteMetrics routeMetrics, long startNanos, HttpMethod method, String path) {
+        this.method = method;
+        this.path = path;
+        return track(routeMetrics, startNanos);
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public ServerMetrics.RouteMetrics getRouteMetrics() {
+        return routeMetrics;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten + (compressingBody == null ? 0 : compressingBody.getBytesWritten());
+    }
+
+    public ContentEncoding getEncoding() {
+        return encoding;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    // -1 when the body is streamed with the chunked transfer coding
+    public long getBodyLength() {
+        if (compressingBody != null) {
+            return -1;
+        }
+        return body.remaining() + (fileEnd - filePosition);
+    }
+
+    public void frame(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        addEtag();
+
+        byte[] statusLine = status.encoded();
+        int size = statusLine.length + headersLength + CONTENT_LENGTH.length + MAX_LENGTH_DIGITS + RN.length
+                + (keepAlive ? 0 : CONNECTION_CLOSE.length) + RN.length;
+        head = ByteBuffer.allocate(size);
+        head.put(statusLine);
+        for (byte[] header : headers) {
+            head.put(header);
+        }
+        if (compressingBody != null) {
+            head.put(TRANSFER_ENCODING_CHUNKED);
+        } else if (status != HttpStatus.NOT_MODIFIED) {
+            head.put(CONTENT_LENGTH);
+            putDigits(head, getBodyLength());
+            head.put(RN);
+        }
+        if (!keepAlive) {
+            head.put(CONNECTION_CLOSE);
+        }
+        head.put(RN);
+        head.flip();
+        buffers = new ByteBuffer[]{head, body};
+    }
+
+    // For HTTP/2, where the head goes out as a HEADERS frame: write() then sends only the body,
+    // and the header fields come from forEachHeader, called after this
+    public void frameBody() {
+        addEtag();
+        head = EMPTY;
+        buffers = new ByteBuffer[]{head, body};
+    }
+
+    // Header fields as name and value, including Content-Length once the body length is known.
+    // Connection-level fields have no meaning in HTTP/2 and are left out.
+    public void forEachHeader(BiConsumer<String, String> action) {
+        for (byte[] line : headers) {
+            int colon = 0;
+            while (line[colon] != ':') {
+                colon++;
+            }
+            int valueStart = colon + 1;
+            while (valueStart < line.length && line[valueStart] == ' ') {
+                valueStart++;
+            }
+            action.accept(new String(line, 0, colon, StandardCharsets.ISO_8859_1),
+                    new String(line, valueStart, line.length - RN.length - valueStart, StandardCharsets.ISO_8859_1));
+        }
+        if (compressingBody == null && status != HttpStatus.NOT_MODIFIED) {
+            action.accept(HTSConstants.CONTENT_LENGTH.substring(0, HTSConstants.CONTENT_LENGTH.indexOf(':')), Long.toString(getBodyLength()));
+        }
+    }
+
+    // Writes as much as the channel accepts; returns true once the whole response has been written
+    public boolean write(WritableByteChannel channel) throws IOException {
+        if (head.hasRemaining() || body.hasRemaining()) {
+            if (channel instanceof GatheringByteChannel gatheringChannel) {
+                bytesWritten += gatheringChannel.write(buffers);
+            } else {
+                bytesWritten += channel.write(head);
+                if (!head.hasRemaining()) {
+                    bytesWritten += channel.write(body);
+                }
+            }
+            if (head.hasRemaining() || body.hasRemaining()) {
+                return false;
+            }
+        }
+        while (filePosition < fileEnd) {
+            long transferred = file.transferTo(filePosition, fileEnd - filePosition, channel);
+            if (transferred == 0) {
+                if (file.size() <= filePosition) {
+                    throw new IOException("File truncated while being sent");
+                }
+                return false;
+            }
+            filePosition += transferred;
+            bytesWritten += transferred;
+        }
+        return compressingBody == null || compressingBody.writeTo(channel);
+    }
+
+    public void writeFully(WritableByteChannel channel) throws IOException {
+        while (!write(channel)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    public void close() {
+        if (compressingBody != null) {
+            compressingBody.release();
+            compressingBody = null;
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Log.warn("Error closing file: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void addEtag() {
+        if (etag != null) {
+            header(line(HTSConstants.ETAG + (encoding == ContentEncoding.IDENTITY ? etag : EntityTag.weak(etag))));
+        }
+    }
+
+    private static byte[] line(String header) {
+        return (header + HTSConstants.RN).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void putDigits(ByteBuffer buffer, long value) {
+        if (value == 0) {
+            buffer.put((byte) '0');
+            return;
+        }
+        int start = buffer.position();
+        while (value > 0) {
+            buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        }
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte digit = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, digit);
+        }
+    }
+}
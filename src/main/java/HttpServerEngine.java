@@ -0,0 +1,21 @@
+import java.util.concurrent.TimeUnit;
+
+public interface HttpServerEngine {
+
+    void run();
+
+    // Stops accepting, lets open connections finish their current request for up to
+    // AppConfig.shutdownTimeoutMillis, and returns once run() has finished
+    void stopServer();
+
+    // True once the server accepts connections, false if it failed to start or the timeout passed
+    boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException;
+
+    static HttpServerEngine forName(String engine) {
+        return switch (engine) {
+            case "blocking" -> new HTSController();
+            case "nio" -> new NioServer();
+            default -> throw new IllegalArgumentException("Unknown server engine " + engine);
+        };
+    }
+}
@@ -0,0 +1,41 @@
+import java.nio.charset.StandardCharsets;
+
+public enum HttpStatus {
+    OK(HTSConstants.HTTP_OK_RN.trim()),
+    CREATED(HTSConstants.HTTP_CREATED),
+    PARTIAL_CONTENT(HTSConstants.HTTP_PARTIAL_CONTENT),
+    NOT_MODIFIED(HTSConstants.HTTP_NOT_MODIFIED),
+    BAD_REQUEST(HTSConstants.HTTP_BAD_REQUEST),
+    NOT_FOUND(HTSConstants.HTTP_NOT_FOUND),
+    METHOD_NOT_ALLOWED(HTSConstants.HTTP_REQUEST_NOT_ALLOWED),
+    CONFLICT(HTSConstants.HTTP_CONFLICT),
+    PAYLOAD_TOO_LARGE(HTSConstants.HTTP_PAYLOAD_TOO_LARGE),
+    RANGE_NOT_SATISFIABLE(HTSConstants.HTTP_RANGE_NOT_SATISFIABLE),
+    URI_TOO_LONG(HTSConstants.HTTP_URI_TOO_LONG),
+    TOO_MANY_REQUESTS(HTSConstants.HTTP_TOO_MANY_REQUESTS),
+    HEADERS_TOO_LARGE(HTSConstants.HTTP_HEADERS_TOO_LARGE),
+    INTERNAL_SERVER_ERROR(HTSConstants.HTTP_INT_SERVER_ERROR),
+    SERVICE_UNAVAILABLE(HTSConstants.HTTP_SERVICE_UNAVAILABLE);
+
+    private final String statusLine;
+    private final int code;
+    private final byte[] encoded;
+
+    HttpStatus(String statusLine) {
+        this.statusLine = statusLine;
+        this.code = Integer.parseInt(statusLine.substring(HTSConstants.HTTP_1_1.length() + 1, HTSConstants.HTTP_1_1.length() + 4));
+        this.encoded = (statusLine + HTSConstants.RN).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public String getStatusLine() {
+        return statusLine;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    byte[] encoded() {
+        return encoded;
+    }
+}
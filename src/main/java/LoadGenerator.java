@@ -0,0 +1,353 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Open-loop load generator for a running server:
+//   java -cp target/classes LoadGenerator --connections 64 --rate 20000 --duration 30 --mix echo:6,files-get:3,files-post:1
+// Every connection sends on a fixed schedule and latency is measured from when a request was due, not
+// from when it was actually sent, so a stalled server shows up in the percentiles instead of slowing the
+// load down (coordinated omission). With --pipeline N up to N requests are in flight per connection.
+public class LoadGenerator {
+
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+    private static final long NONE = Long.MIN_VALUE;
+    private static final Set<String> ROUTES = Set.of("echo", "user-agent", "files-get", "files-post");
+
+    private String host = "localhost";
+    private int port = 4221;
+    private int connections = 16;
+    private int rate = 1000;
+    private int durationSeconds = 10;
+    private int warmupSeconds = 2;
+    private int pipeline = 1;
+    private boolean keepAlive = true;
+    private int fileSize = 4096;
+    private String mix = "echo:1";
+
+    private final List<String> routes = new ArrayList<>();
+    private final List<Integer> weights = new ArrayList<>();
+    private int totalWeight;
+    private byte[] fileBody;
+    private final String runId = Long.toHexString(System.currentTimeMillis());
+    private final AtomicLong postSequence = new AtomicLong();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder unexpectedStatus = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        var generator = new LoadGenerator();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--host" -> generator.host = args[i + 1];
+                case "--port" -> generator.port = Integer.parseInt(args[i + 1]);
+                case "--connections" -> generator.connections = Integer.parseInt(args[i + 1]);
+                case "--rate" -> generator.rate = Integer.parseInt(args[i + 1]);
+                case "--duration" -> generator.durationSeconds = Integer.parseInt(args[i + 1]);
+                case "--warmup" -> generator.warmupSeconds = Integer.parseInt(args[i + 1]);
+                case "--pipeline" -> generator.pipeline = Integer.parseInt(args[i + 1]);
+                case "--keep-alive" -> generator.keepAlive = Boolean.parseBoolean(args[i + 1]);
+                case "--file-size" -> generator.fileSize = Integer.parseInt(args[i + 1]);
+                case "--mix" -> generator.mix = args[i + 1];
+                default -> System.out.println("Unknown option " + args[i]);
+            }
+        }
+        generator.run();
+    }
+
+    public void run() throws Exception {
+        parseMix();
+        fileBody = new byte[fileSize];
+        ThreadLocalRandom.current().nextBytes(fileBody);
+        if (routes.contains("files-get")) {
+            // Created once up front; a 409 from an earlier run is fine
+            exchangeOnce(request("files-seed", false));
+        }
+
+        System.out.printf("Running %ds (+%ds warmup) at %d req/s over %d %s connections, pipeline %d, mix %s%n",
+                durationSeconds, warmupSeconds, rate, connections, keepAlive ? "keep-alive" : "one-shot", pipeline, mix);
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * connections / Math.max(1, rate);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        List<LatencyHistogram> histograms = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            var histogram = new LatencyHistogram();
+            histograms.add(histogram);
+            // Spread the connections' schedules across one interval so they don't fire in bursts
+            long firstSend = start + intervalNanos * i / connections;
+            Runnable worker = keepAlive
+                    ? () -> runPersistent(firstSend, intervalNanos, measureFrom, end, histogram)
+                    : () -> runOneShot(firstSend, intervalNanos, measureFrom, end, histogram);
+            threads.add(Thread.ofVirtual().start(worker));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        var total = new LatencyHistogram();
+        for (LatencyHistogram histogram : histograms) {
+            total.add(histogram);
+        }
+        report(total);
+    }
+
+    private void runPersistent(long firstSend, long intervalNanos, long measureFrom, long end, LatencyHistogram histogram) {
+        long due = firstSend;
+        // Requests a closed connection never answered; they are sent again on the next one with their original due time
+        Deque<Long> unanswered = new ArrayDeque<>();
+        while (due < end || !unanswered.isEmpty()) {
+            try (Socket socket = connect()) {
+                OutputStream output = socket.getOutputStream();
+                var input = new DataInputStream(socket.getInputStream());
+                BlockingQueue<Long> inFlight = new LinkedBlockingQueue<>();
+                Semaphore slots = new Semaphore(pipeline);
+                long[] lost = {NONE};
+                Thread reader = Thread.ofVirtual().start(() -> readResponses(input, inFlight, slots, lost, measureFrom, histogram));
+
+                try {
+                    while (reader.isAlive() && (due < end || !unanswered.isEmpty())) {
+                        long next = unanswered.isEmpty() ? due : unanswered.peekFirst();
+                        waitUntil(next);
+                        // Waits while the pipeline is full; that wait still counts against this request's latency
+                        if (!slots.tryAcquire(1, TimeUnit.MILLISECONDS)) {
+                            continue;
+                        }
+                        inFlight.add(next);
+                        if (unanswered.isEmpty()) {
+                            due += intervalNanos;
+                        } else {
+                            unanswered.pollFirst();
+                        }
+                        output.write(request(pickRoute(), true));
+                    }
+                    inFlight.add(NONE);
+                } catch (IOException e) {
+                    // The server closed the connection; the reader sees the same and stops
+                }
+                reader.join();
+                if (lost[0] != NONE) {
+                    unanswered.addFirst(lost[0]);
+                }
+                for (Long pending : inFlight) {
+                    if (pending != NONE) {
+                        unanswered.addLast(pending);
+                    }
+                }
+            } catch (IOException e) {
+                // Can't connect: count what was due and move on rather than retrying forever
+                errors.add(unanswered.size() + 1);
+                unanswered.clear();
+                due += intervalNanos;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void readResponses(DataInputStream input, BlockingQueue<Long> inFlight, Semaphore slots, long[] lost,
+                               long measureFrom, LatencyHistogram histogram) {
+        try {
+            while (true) {
+                long due = inFlight.take();
+                if (due == NONE) {
+                    return;
+                }
+                boolean open;
+                try {
+                    open = readResponse(input);
+                } catch (IOException e) {
+                    lost[0] = due;
+                    return;
+                }
+                if (due >= measureFrom) {
+                    histogram.record(System.nanoTime() - due);
+                }
+                slots.release();
+                if (!open) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runOneShot(long firstSend, long intervalNanos, long measureFrom, long end, LatencyHistogram histogram) {
+        for (long due = firstSend; due < end; due += intervalNanos) {
+            waitUntil(due);
+            try {
+                exchangeOnce(request(pickRoute(), false));
+                if (due >= measureFrom) {
+                    histogram.record(System.nanoTime() - due);
+                }
+            } catch (IOException e) {
+                errors.increment();
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        var socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    private void exchangeOnce(byte[] request) throws IOException {
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write(request);
+            readResponse(new DataInputStream(socket.getInputStream()));
+        }
+    }
+
+    private byte[] request(String route, boolean persistent) {
+        String connection = persistent ? "" : "Connection: close\r\n";
+        String head = switch (route) {
+            case "echo" -> "GET /echo/" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + " HTTP/1.1\r\n"
+                    + "Host: localhost:4221\r\n" + connection + "\r\n";
+            case "user-agent" -> "GET /user-agent HTTP/1.1\r\nHost: localhost:4221\r\nUser-Agent: hts-load/1.0\r\n"
+                    + connection + "\r\n";
+            case "files-get" -> "GET /files/load-" + fileSize + ".bin HTTP/1.1\r\nHost: localhost:4221\r\n"
+                    + connection + "\r\n";
+            case "files-post", "files-seed" -> "POST /files/"
+                    + ("files-seed".equals(route) ? "load-" + fileSize + ".bin" : "load-" + runId + "-" + postSequence.incrementAndGet() + ".bin")
+                    + " HTTP/1.1\r\nHost: localhost:4221\r\nContent-Type: application/octet-stream\r\n"
+                    + "Content-Length: " + fileSize + "\r\n" + connection + "\r\n";
+            default -> throw new IllegalArgumentException("Unknown route " + route);
+        };
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        if (!route.equals("files-post") && !route.equals("files-seed")) {
+            return headBytes;
+        }
+        var request = new ByteArrayOutputStream(headBytes.length + fileSize);
+        request.writeBytes(headBytes);
+        request.writeBytes(fileBody);
+        return request.toByteArray();
+    }
+
+    // Returns false when the server closes the connection after this response
+    private boolean readResponse(DataInputStream input) throws IOException {
+        String head = readHead(input);
+        int status = Integer.parseInt(head.substring(9, 12));
+        if (status >= 400 && status != 409) {
+            unexpectedStatus.increment();
+        }
+        String lowerHead = head.toLowerCase();
+        int lengthAt = lowerHead.indexOf("\r\ncontent-length:");
+        if (lengthAt >= 0) {
+            int valueStart = lengthAt + "\r\ncontent-length:".length();
+            long length = Long.parseLong(head.substring(valueStart, head.indexOf("\r\n", valueStart)).trim());
+            input.skipNBytes(length);
+        } else if (lowerHead.contains("\r\ntransfer-encoding: chunked")) {
+            long size;
+            while ((size = Long.parseLong(readLine(input), 16)) > 0) {
+                input.skipNBytes(size);
+                readLine(input);
+            }
+            readLine(input);
+        } else if (status != 304) {
+            input.transferTo(OutputStream.nullOutputStream());
+            return false;
+        }
+        return !lowerHead.contains("\r\nconnection: close");
+    }
+
+    private String readHead(InputStream input) throws IOException {
+        var head = new StringBuilder(256);
+        int matched = 0;
+        while (matched < 4) {
+            int b = input.read();
+            if (b == -1) {
+                throw new EOFException("Connection closed before the response head");
+            }
+            if (head.length() >= MAX_HEAD_SIZE) {
+                throw new IOException("Response head too large");
+            }
+            head.append((char) b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return head.toString();
+    }
+
+    private String readLine(InputStream input) throws IOException {
+        var line = new StringBuilder();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Connection closed inside a chunked body");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private void parseMix() {
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+            if (!ROUTES.contains(parts[0])) {
+                throw new IllegalArgumentException("Unknown route " + parts[0] + ", expected one of " + ROUTES);
+            }
+            routes.add(parts[0]);
+            weights.add(weight);
+            totalWeight += weight;
+        }
+    }
+
+    private String pickRoute() {
+        int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < routes.size(); i++) {
+            pick -= weights.get(i);
+            if (pick < 0) {
+                return routes.get(i);
+            }
+        }
+        return routes.get(routes.size() - 1);
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void report(LatencyHistogram histogram) {
+        System.out.printf("Requests: %d in %ds, %.1f req/s (target %d), errors %d, unexpected status %d%n",
+                histogram.getTotalCount(), durationSeconds, (double) histogram.getTotalCount() / durationSeconds,
+                rate, errors.sum(), unexpectedStatus.sum());
+        System.out.printf("Latency ms: min %.3f  mean %.3f  p50 %.3f  p90 %.3f  p99 %.3f  p999 %.3f  p9999 %.3f  max %.3f%n",
+                millis(histogram.getMin()), histogram.getMean() / 1e6,
+                millis(histogram.valueAtPercentile(50)), millis(histogram.valueAtPercentile(90)),
+                millis(histogram.valueAtPercentile(99)), millis(histogram.valueAtPercentile(99.9)),
+                millis(histogram.valueAtPercentile(99.99)), millis(histogram.getMax()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
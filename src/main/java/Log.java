@@ -0,0 +1,76 @@
+// Static entry point for the server's AsyncLogger, so call sites stay one line. Arguments are
+// passed as references and only turned into text on the writer thread; fixed-arity overloads keep
+// callers from allocating a varargs array per line.
+public final class Log {
+
+    private static volatile AsyncLogger logger = new AsyncLogger(LogLevel.INFO, 16 * 1024, null, 0, 0);
+
+    private Log() {
+    }
+
+    public static void configure(AsyncLogger replacement) {
+        AsyncLogger previous = logger;
+        logger = replacement;
+        previous.close();
+    }
+
+    public static AsyncLogger get() {
+        return logger;
+    }
+
+    public static boolean isDebugEnabled() {
+        return logger.isEnabled(LogLevel.DEBUG);
+    }
+
+    public static void debug(String template) {
+        logger.log(LogLevel.DEBUG, template, null, null, null);
+    }
+
+    public static void debug(String template, Object a) {
+        logger.log(LogLevel.DEBUG, template, a, null, null);
+    }
+
+    public static void debug(String template, Object a, Object b) {
+        logger.log(LogLevel.DEBUG, template, a, b, null);
+    }
+
+    public static void info(String template) {
+        logger.log(LogLevel.INFO, template, null, null, null);
+    }
+
+    public static void info(String template, Object a) {
+        logger.log(LogLevel.INFO, template, a, null, null);
+    }
+
+    public static void info(String template, Object a, Object b) {
+        logger.log(LogLevel.INFO, template, a, b, null);
+    }
+
+    public static void info(String template, Object a, Object b, Object c) {
+        logger.log(LogLevel.INFO, template, a, b, c);
+    }
+
+    public static void warn(String template) {
+        logger.log(LogLevel.WARN, template, null, null, null);
+    }
+
+    public static void warn(String template, Object a) {
+        logger.log(LogLevel.WARN, template, a, null, null);
+    }
+
+    public static void warn(String template, Object a, Object b) {
+        logger.log(LogLevel.WARN, template, a, b, null);
+    }
+
+    public static void error(String template, Object a) {
+        logger.log(LogLevel.ERROR, template, a, null, null);
+    }
+
+    public static void access(Object method, Object path, HttpStatus status, long bytes, long nanos) {
+        logger.access(method, path, status, bytes, nanos);
+    }
+
+    public static void flush() {
+        logger.flush();
+    }
+}
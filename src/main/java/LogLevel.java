@@ -0,0 +1,7 @@
+public enum LogLevel {
+    DEBUG, INFO, WARN, ERROR, OFF;
+
+    public static LogLevel of(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
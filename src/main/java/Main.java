@@ -1,13 +1,27 @@
+import java.nio.file.Path;
+import java.util.List;
+
 public class Main {
 
     public static void main(String[] args) {
-        System.out.println("Logs from your program will appear here!");
+        List<String> unknownOptions = ConfigLoader.load(args, System.getenv());
 
-        if (args.length > 1 && args[0].equals("--directory")) {
-            AppConfig.directory = args[1];
+        Log.configure(new AsyncLogger(LogLevel.of(AppConfig.logLevel), AppConfig.logBufferSize,
+                AppConfig.logFile == null ? null : Path.of(AppConfig.logFile), AppConfig.logMaxFileBytes, AppConfig.logMaxFiles));
+        Log.info("Logs from your program will appear here!");
+        for (String option : unknownOptions) {
+            Log.warn("Unknown setting {}", option);
         }
 
-        HTSController controller = new HTSController();
-        controller.run();
+        if (AppConfig.tlsPort > 0 && !AppConfig.engine.equals("blocking")) {
+            Log.warn("TLS is only served by the blocking engine, --tls-port is ignored");
+        }
+        HttpServerEngine server = HttpServerEngine.forName(AppConfig.engine);
+        // SIGTERM from a rolling restart drains connections instead of cutting them off
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stopServer();
+            Log.flush();
+        }, "hts-shutdown"));
+        server.run();
     }
 }
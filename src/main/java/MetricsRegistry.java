@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Counters, fixed-bucket histograms and pulled gauges, rendered in the Prometheus text format.
+// Metrics are created up front and held by their callers, so recording is a LongAdder increment
+// with no lookups or locks; only registration and scraping touch the maps.
+public class MetricsRegistry {
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+    private final List<Family> order = new CopyOnWriteArrayList<>();
+
+    // labels are pre-rendered, e.g. route="/echo/",method="GET"; empty for none
+    public Counter counter(String name, String help, String labels) {
+        return (Counter) family(name, help, "counter").series.computeIfAbsent(labels, key -> new Counter());
+    }
+
+    // A counter whose value is kept elsewhere, e.g. in FileCache, and read when scraped
+    public void counter(String name, String help, String labels, LongSupplier supplier) {
+        family(name, help, "counter").series.put(labels, new Gauge(supplier));
+    }
+
+    public Histogram histogram(String name, String help, String labels, double... bounds) {
+        return (Histogram) family(name, help, "histogram").series.computeIfAbsent(labels, key -> new Histogram(bounds));
+    }
+
+    public void gauge(String name, String help, String labels, LongSupplier supplier) {
+        family(name, help, "gauge").series.put(labels, new Gauge(supplier));
+    }
+
+    public String scrape() {
+        var text = new StringBuilder(4096);
+        for (Family family : order) {
+            text.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            text.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Metric> series : family.series.entrySet()) {
+                series.getValue().write(text, family.name, series.getKey());
+            }
+        }
+        return text.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> {
+            var created = new Family(name, help, type);
+            order.add(created);
+            return created;
+        });
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static void appendName(StringBuilder text, String name, String suffix, String labels, String extraLabel) {
+        text.append(name).append(suffix);
+        if (!labels.isEmpty() || extraLabel != null) {
+            text.append('{').append(labels);
+            if (extraLabel != null) {
+                text.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            text.append('}');
+        }
+        text.append(' ');
+    }
+
+    private record Family(String name, String help, String type, Map<String, Metric> series) {
+        Family(String name, String help, String type) {
+            this(name, help, type, new ConcurrentHashMap<>());
+        }
+    }
+
+    private interface Metric {
+        void write(StringBuilder text, String name, String labels);
+    }
+
+    public static class Counter implements Metric {
+
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        public void write(StringBuilder text, String name, String labels) {
+            appendName(text, name, "", labels, null);
+            text.append(value.sum()).append('\n');
+        }
+    }
+
+    // Durations are recorded in nanoseconds and exposed in seconds, as Prometheus expects
+    public static class Histogram implements Metric {
+
+        private final double[] bounds;
+        private final long[] nanoBounds;
+        private final LongAdder[] buckets;
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram(double[] bounds) {
+            this.bounds = bounds.clone();
+            this.nanoBounds = new long[bounds.length];
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < bounds.length; i++) {
+                nanoBounds[i] = (long) (bounds[i] * 1e9);
+            }
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void recordNanos(long nanos) {
+            int bucket = 0;
+            while (bucket < nanoBounds.length && nanos > nanoBounds[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        public long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        @Override
+        public void write(StringBuilder text, String name, String labels) {
+            List<Long> cumulative = new ArrayList<>(buckets.length);
+            long running = 0;
+            for (LongAdder bucket : buckets) {
+                running += bucket.sum();
+                cumulative.add(running);
+            }
+            for (int i = 0; i < bounds.length; i++) {
+                appendName(text, name, "_bucket", labels, "le=\"" + bounds[i] + "\"");
+                text.append(cumulative.get(i)).append('\n');
+            }
+            appendName(text, name, "_bucket", labels, "le=\"+Inf\"");
+            text.append(running).append('\n');
+            appendName(text, name, "_sum", labels, null);
+            text.append(sumNanos.sum() / 1e9).append('\n');
+            appendName(text, name, "_count", labels, null);
+            text.append(running).append('\n');
+        }
+    }
+
+    private record Gauge(LongSupplier supplier) implements Metric {
+        @Override
+        public void write(StringBuilder text, String name, String labels) {
+            appendName(text, name, "", labels, null);
+            text.append(supplier.getAsLong()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+public class NioConnection {
+
+    public static final int INCOMPLETE = 0;
+    public static final int MALFORMED = -1;
+    public static final int BODY_TOO_LARGE = -2;
+
+    private static final byte[] LINE_END = {'\r', '\n'};
+
+    private final SocketChannel channel;
+    private final HttpRequestParser parser = new HttpRequestParser();
+    private HttpParseException parseError;
+    private int headEnd;
+    private final Deque<HttpResponse> outbound = new ArrayDeque<>();
+    private byte[] inbound = new byte[1024];
+    private int inboundLength = 0;
+    private int requestsServed = 0;
+    private long lastActivityNanos = System.nanoTime();
+    private boolean closeAfterWrite = false;
+    // A worker is serving its request; nothing more is read until the response comes back
+    private boolean busy = false;
+
+    public NioConnection(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public void append(ByteBuffer source) {
+        int count = source.remaining();
+        if (inboundLength + count > inbound.length) {
+            inbound = Arrays.copyOf(inbound, Math.max(inbound.length * 2, inboundLength + count));
+        }
+        source.get(inbound, inboundLength, count);
+        inboundLength += count;
+        lastActivityNanos = System.nanoTime();
+    }
+
+    public byte[] getInbound() {
+        return inbound;
+    }
+
+    public boolean hasInbound() {
+        return inboundLength > 0;
+    }
+
+    // Bodies are buffered whole before dispatch, so the limit also bounds the memory of one connection
+    public static long maxBodySize() {
+        return Math.min(AppConfig.maxBodySize, AppConfig.nioMaxBodySize);
+    }
+
+    // Length of the next complete request in the inbound buffer, or INCOMPLETE / MALFORMED / BODY_TOO_LARGE
+    public int nextRequestLength() {
+        try {
+            headEnd = parser.parse(inbound, 0, inboundLength);
+        } catch (HttpParseException e) {
+            parseError = e;
+            return MALFORMED;
+        }
+        if (headEnd == HttpRequestParser.NEED_MORE) {
+            return INCOMPLETE;
+        }
+        var request = parser.getRequest();
+        if (request.headerContainsToken("Transfer-Encoding", HTSConstants.CHUNKED)) {
+            return chunkedRequestLength(headEnd);
+        }
+
+        long length;
+        try {
+            length = request.headerAsLong("Content-Length", 0);
+        } catch (NumberFormatException e) {
+            // Dispatch the head alone, HTSService answers 400 and closes the connection
+            length = 0;
+        }
+        if (length > maxBodySize() || headEnd + length > Integer.MAX_VALUE) {
+            return BODY_TOO_LARGE;
+        }
+        long total = headEnd + length;
+        return total <= inboundLength ? (int) total : INCOMPLETE;
+    }
+
+    // The request framed by the last successful nextRequestLength call
+    public HttpRequest getRequest() {
+        return parser.getRequest();
+    }
+
+    public int getHeadEnd() {
+        return headEnd;
+    }
+
+    public HttpParseException getParseError() {
+        return parseError;
+    }
+
+    public void consume(int length) {
+        System.arraycopy(inbound, length, inbound, 0, inboundLength - length);
+        inboundLength -= length;
+    }
+
+    public int nextRequestNumber() {
+        return ++requestsServed;
+    }
+
+    public void queue(HttpResponse response) {
+        outbound.add(response);
+    }
+
+    public boolean hasPendingWrites() {
+        return !outbound.isEmpty();
+    }
+
+    public Deque<HttpResponse> getOutbound() {
+        return outbound;
+    }
+
+    public boolean isCloseAfterWrite() {
+        return closeAfterWrite;
+    }
+
+    public void closeAfterWrite() {
+        closeAfterWrite = true;
+    }
+
+    public boolean isBusy() {
+        return busy;
+    }
+
+    public void setBusy(boolean busy) {
+        this.busy = busy;
+    }
+
+    public void release() {
+        HttpResponse response;
+        while ((response = outbound.poll()) != null) {
+            response.close();
+        }
+    }
+
+    public void touch() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    public boolean isIdleSince(long deadlineNanos) {
+        return lastActivityNanos - deadlineNanos < 0;
+    }
+
+    private int chunkedRequestLength(int bodyStart) {
+        long bodySize = 0;
+        int position = bodyStart;
+        while (true) {
+            int sizeEnd = indexOf(position, inboundLength, LINE_END);
+            if (sizeEnd < 0) {
+                return inboundLength - bodyStart > maxBodySize() ? BODY_TOO_LARGE : INCOMPLETE;
+            }
+            long chunkSize = parseChunkSize(position, sizeEnd);
+            if (chunkSize < 0) {
+                // Malformed framing is left to ChunkedInputStream, which fails the upload
+                return sizeEnd + LINE_END.length;
+            }
+            bodySize += chunkSize;
+            if (bodySize > maxBodySize()) {
+                return BODY_TOO_LARGE;
+            }
+            position = sizeEnd + LINE_END.length;
+            if (chunkSize == 0) {
+                int trailersEnd = position;
+                while (true) {
+                    int trailerEnd = indexOf(trailersEnd, inboundLength, LINE_END);
+                    if (trailerEnd < 0) {
+                        return INCOMPLETE;
+                    }
+                    if (trailerEnd == trailersEnd) {
+                        return trailerEnd + LINE_END.length;
+                    }
+                    trailersEnd = trailerEnd + LINE_END.length;
+                }
+            }
+            if ((long) position + chunkSize + LINE_END.length > inboundLength) {
+                return INCOMPLETE;
+            }
+            position += (int) chunkSize + LINE_END.length;
+        }
+    }
+
+    private long parseChunkSize(int from, int to) {
+        long size = 0;
+        int digits = 0;
+        for (int i = from; i < to && inbound[i] != ';'; i++) {
+            int digit = Character.digit(inbound[i], 16);
+            if (digit >= 0 && digits < ChunkedInputStream.MAX_CHUNK_SIZE_DIGITS) {
+                size = size * 16 + digit;
+                digits++;
+            } else if (inbound[i] != ' ' && inbound[i] != '\t') {
+                return -1;
+            }
+        }
+        return digits == 0 ? -1 : size;
+    }
+
+    private int indexOf(int from, int to, byte[] pattern) {
+        for (int i = from; i + pattern.length <= to; i++) {
+            int j = 0;
+            while (j < pattern.length && inbound[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class NioEventLoop implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+    private final HTSService service;
+    private final Selector selector;
+    private final int index;
+    private Thread thread;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    // Requests that may block run here, and their responses come back through completions
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private volatile boolean running = true;
+    private volatile boolean draining = false;
+
+    public NioEventLoop(HTSService service, int index) throws IOException {
+        this.service = service;
+        this.selector = Selector.open();
+        this.index = index;
+    }
+
+    public void start() {
+        thread = new Thread(this, "hts-event-loop-" + index);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    // Idle connections close now, and one in the middle of a request once its response is written.
+    // The loop ends when no connection is left.
+    public void drain() {
+        draining = true;
+        selector.wakeup();
+    }
+
+    // True once the loop has ended
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        if (thread == null) {
+            return true;
+        }
+        thread.join(Math.max(1, timeoutMillis));
+        return !thread.isAlive();
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                registerPendingChannels();
+                runCompletions();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+                closeIdleConnections();
+                if (draining && closeDrainedConnections()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Event loop error: {}", e.getMessage());
+        } finally {
+            workers.shutdownNow();
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                Log.warn("Error closing selector: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                channel.register(selector, SelectionKey.OP_READ, new NioConnection(channel));
+                service.getMetrics().connectionOpened();
+            } catch (IOException e) {
+                Log.warn("Error registering channel: {}", e.getMessage());
+                service.getAdmission().connectionClosed(channel.socket().getInetAddress());
+                try {
+                    channel.close();
+                } catch (IOException closeError) {
+                    Log.warn("Error closing client channel: {}", closeError.getMessage());
+                }
+            }
+        }
+    }
+
+    private void runCompletions() {
+        Runnable completion;
+        while ((completion = completions.poll()) != null) {
+            completion.run();
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isReadable()) {
+                read(key);
+            } else if (key.isWritable()) {
+                processRequests(key, (NioConnection) key.attachment());
+            }
+        } catch (IOException e) {
+            Log.warn("Error processing request: {}", e.getMessage());
+            close(key);
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        var connection = (NioConnection) key.attachment();
+        readBuffer.clear();
+        int count = connection.getChannel().read(readBuffer);
+        if (count == -1) {
+            close(key);
+            return;
+        }
+        service.getMetrics().bytesReceived(count);
+        readBuffer.flip();
+        connection.append(readBuffer);
+        processRequests(key, connection);
+    }
+
+    private void processRequests(SelectionKey key, NioConnection connection) throws IOException {
+        while (!connection.isBusy() && flush(key, connection)) {
+            int length = connection.nextRequestLength();
+            if (length == NioConnection.INCOMPLETE) {
+                if (draining && !connection.hasInbound()) {
+                    close(key);
+                }
+                return;
+            } else if (length == NioConnection.MALFORMED) {
+                reject(connection, service.rejectRequest(connection.getParseError()));
+            } else if (length == NioConnection.BODY_TOO_LARGE) {
+                var response = HttpResponse.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                        .text("Request body exceeds " + NioConnection.maxBodySize() + " bytes");
+                response.frame(false);
+                reject(connection, response);
+            } else {
+                dispatch(key, connection, length);
+            }
+        }
+    }
+
+    private void reject(NioConnection connection, HttpResponse response) {
+        connection.queue(response);
+        connection.closeAfterWrite();
+    }
+
+    private void dispatch(SelectionKey key, NioConnection connection, int length) throws IOException {
+        int headEnd = connection.getHeadEnd();
+        var request = connection.getRequest();
+        boolean lastRequest = connection.nextRequestNumber() >= AppConfig.maxRequestsPerConnection;
+        var remoteAddress = connection.getChannel().socket().getInetAddress();
+
+        if (length == headEnd && !service.touchesFilesystem(request)) {
+            var body = new ByteArrayInputStream(connection.getInbound(), headEnd, 0);
+            var response = service.handleRequest(request, body, lastRequest, remoteAddress);
+            connection.consume(length);
+            respond(connection, response);
+            return;
+        }
+
+        // The worker gets its own copy of the request, as the inbound buffer moves on to the next one
+        byte[] copy = Arrays.copyOf(connection.getInbound(), length);
+        var detached = request.copyOnto(copy);
+        var body = new ByteArrayInputStream(copy, headEnd, length - headEnd);
+        connection.consume(length);
+        connection.setBusy(true);
+        key.interestOps(0);
+        workers.execute(() -> {
+            HttpResponse response = null;
+            try {
+                response = service.handleRequest(detached, body, lastRequest, remoteAddress);
+            } catch (IOException e) {
+                Log.warn("Error processing request: {}", e.getMessage());
+            } finally {
+                handBack(key, connection, response);
+            }
+        });
+    }
+
+    // Worker thread
+    private void handBack(SelectionKey key, NioConnection connection, HttpResponse response) {
+        completions.add(() -> complete(key, connection, response));
+        selector.wakeup();
+    }
+
+    // Event loop thread; a null response means the request failed and the connection is closed
+    private void complete(SelectionKey key, NioConnection connection, HttpResponse response) {
+        connection.setBusy(false);
+        if (!key.isValid()) {
+            if (response != null) {
+                response.close();
+            }
+            return;
+        }
+        if (response == null) {
+            close(key);
+            return;
+        }
+        connection.touch();
+        respond(connection, response);
+        try {
+            processRequests(key, connection);
+        } catch (IOException e) {
+            Log.warn("Error processing request: {}", e.getMessage());
+            close(key);
+        }
+    }
+
+    private void respond(NioConnection connection, HttpResponse response) {
+        connection.queue(response);
+        if (!response.isKeepAlive()) {
+            connection.closeAfterWrite();
+        }
+    }
+
+    // Returns true once everything queued is written and the connection can take more requests
+    private boolean flush(SelectionKey key, NioConnection connection) throws IOException {
+        var outbound = connection.getOutbound();
+        while (!outbound.isEmpty()) {
+            HttpResponse response = outbound.peek();
+            boolean written = response.write(connection.getChannel());
+            connection.touch();
+            if (!written) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return false;
+            }
+            service.getMetrics().responseWritten(response);
+            outbound.poll().close();
+        }
+
+        if (connection.isCloseAfterWrite()) {
+            close(key);
+            return false;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        return true;
+    }
+
+    private void closeIdleConnections() {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(AppConfig.keepAliveTimeoutMillis);
+        for (SelectionKey key : selector.keys()) {
+            var connection = (NioConnection) key.attachment();
+            if (connection != null && !connection.isBusy() && !connection.hasPendingWrites() && connection.isIdleSince(deadline)) {
+                Log.debug("Closing idle connection {}", connection.getChannel());
+                close(key);
+            }
+        }
+    }
+
+    // Returns true once no connection is left open
+    private boolean closeDrainedConnections() {
+        boolean open = !pendingChannels.isEmpty();
+        for (SelectionKey key : selector.keys()) {
+            var connection = (NioConnection) key.attachment();
+            // A request partly read is let finish, its response then closes the connection
+            if (connection != null && !connection.isBusy() && !connection.hasPendingWrites() && !connection.hasInbound()) {
+                close(key);
+            } else if (key.isValid()) {
+                open = true;
+            }
+        }
+        return !open;
+    }
+
+    private void close(SelectionKey key) {
+        if (key.channel().isOpen() && key.attachment() != null) {
+            service.getMetrics().connectionClosed();
+            service.getAdmission().connectionClosed(((NioConnection) key.attachment()).getChannel().socket().getInetAddress());
+        }
+        key.cancel();
+        if (key.attachment() != null) {
+            ((NioConnection) key.attachment()).release();
+        }
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            Log.warn("Error closing client channel: {}", e.getMessage());
+        }
+    }
+}
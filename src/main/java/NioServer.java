@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioServer implements HttpServerEngine {
+
+    private final HTSService service;
+    private final NioEventLoop[] eventLoops;
+    private final List<ServerSocketChannel> serverChannels = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running = false;
+    private volatile boolean listening = false;
+
+    public NioServer() {
+        this(AppConfig.eventLoops);
+    }
+
+    public NioServer(int eventLoopCount) {
+        this.service = new HTSService();
+        this.eventLoops = new NioEventLoop[eventLoopCount];
+    }
+
+    @Override
+    public void run() {
+        running = true;
+
+        List<Thread> acceptors = new ArrayList<>();
+        try {
+            List<ServerSocketChannel> bound = ServerSockets.bind(AppConfig.port, AppConfig.acceptors);
+            serverChannels.addAll(bound);
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new NioEventLoop(service, i);
+                eventLoops[i].start();
+            }
+            for (int i = 1; i < bound.size(); i++) {
+                ServerSocketChannel serverChannel = bound.get(i);
+                acceptors.add(Thread.ofPlatform().name("hts-nio-acceptor-" + i).start(() -> acceptConnections(serverChannel)));
+            }
+            Log.info("NIO server started with {} event loops. Awaiting connection", eventLoops.length);
+            listening = true;
+            ready.countDown();
+            acceptConnections(bound.get(0));
+        } catch (IOException e) {
+            Log.error("Error starting server: {}", e.getMessage());
+        } finally {
+            ready.countDown();
+            closeServerChannels();
+            for (Thread acceptor : acceptors) {
+                try {
+                    acceptor.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            drainEventLoops();
+            service.close();
+            stopped.countDown();
+        }
+    }
+
+    // Idle connections close now, busy ones after their current response, and whatever is left at
+    // the deadline is cut off
+    private void drainEventLoops() {
+        // Responses framed from here on carry Connection: close
+        service.getConnections().drain();
+        for (NioEventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.drain();
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(AppConfig.shutdownTimeoutMillis);
+        boolean drained = true;
+        try {
+            for (NioEventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) {
+                    drained &= eventLoop.awaitTermination(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        if (!drained) {
+            Log.warn("Shutdown deadline of {} ms passed, closing the connections still open", AppConfig.shutdownTimeoutMillis);
+            for (NioEventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) {
+                    eventLoop.shutdown();
+                }
+            }
+        } else {
+            Log.info("All connections drained.");
+        }
+    }
+
+    private void acceptConnections(ServerSocketChannel serverChannel) {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                InetAddress address = channel.socket().getInetAddress();
+                if (!service.getAdmission().admitConnection(address)) {
+                    Log.debug("Refusing connection {}, too many from its address", channel);
+                    channel.close();
+                    continue;
+                }
+                try {
+                    channel.configureBlocking(false);
+                    ServerSockets.configure(channel);
+                } catch (IOException e) {
+                    // The admitted slot goes back with the channel
+                    service.getAdmission().connectionClosed(address);
+                    channel.close();
+                    throw e;
+                }
+                eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)].register(channel);
+            } catch (IOException e) {
+                if (!running) {
+                    Log.info("Server has been stopped.");
+                } else {
+                    Log.warn("Connection processing error: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    public HTSService getService() {
+        return service;
+    }
+
+    // Stops accepting, drains open connections and returns once run() has finished
+    @Override
+    public void stopServer() {
+        running = false;
+        closeServerChannels();
+        if (listening) {
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.await(timeout, unit) && listening;
+    }
+
+    private void closeServerChannels() {
+        for (ServerSocketChannel serverChannel : serverChannels) {
+            if (serverChannel.isOpen()) {
+                try {
+                    serverChannel.close();
+                    Log.info("Server channel closed.");
+                } catch (IOException e) {
+                    Log.warn("Error closing server channel: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
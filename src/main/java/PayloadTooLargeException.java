@@ -0,0 +1,8 @@
+import java.io.IOException;
+
+public class PayloadTooLargeException extends IOException {
+
+    public PayloadTooLargeException(long maxBodySize) {
+        super("Request body exceeds " + maxBodySize + " bytes");
+    }
+}
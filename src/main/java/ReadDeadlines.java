@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.atomic.LongAdder;
+
+// Deadlines on what a blocking connection waits for: its request head, its request body and the next
+// request on a kept-alive connection. Per-read socket timeouts can't stop a client that trickles a
+// byte at a time, so each phase gets one deadline for all of it. A connection has a single wheel
+// timer, re-armed as it moves from phase to phase; when it expires the socket is closed, which ends
+// the connection's blocked read.
+public class ReadDeadlines {
+
+    public enum Phase {
+        HEADER, BODY, IDLE;
+
+        private long millis() {
+            return switch (this) {
+                case HEADER -> AppConfig.headerTimeoutMillis;
+                case BODY -> AppConfig.bodyTimeoutMillis;
+                case IDLE -> AppConfig.keepAliveTimeoutMillis;
+            };
+        }
+    }
+
+    private final TimerWheel wheel;
+    private final LongAdder[] expired = new LongAdder[Phase.values().length];
+
+    public ReadDeadlines(TimerWheel wheel) {
+        this.wheel = wheel;
+        for (Phase phase : Phase.values()) {
+            expired[phase.ordinal()] = new LongAdder();
+        }
+    }
+
+    public Deadline forConnection(Socket socket) {
+        return new Deadline(socket);
+    }
+
+    public long getExpired(Phase phase) {
+        return expired[phase.ordinal()].sum();
+    }
+
+    public final class Deadline {
+
+        private final Socket socket;
+        private final TimerWheel.Timer timer;
+        private volatile Phase phase;
+        private volatile Phase expiredPhase;
+
+        private Deadline(Socket socket) {
+            this.socket = socket;
+            this.timer = wheel.newTimer(this::expire);
+        }
+
+        // A phase whose timeout is 0 has no deadline
+        public void start(Phase phase) {
+            this.phase = phase;
+            long millis = phase.millis();
+            if (millis > 0) {
+                timer.arm(millis);
+            } else {
+                timer.disarm();
+            }
+        }
+
+        public void cancel() {
+            timer.disarm();
+        }
+
+        // The phase whose deadline closed the connection, or null
+        public Phase getExpiredPhase() {
+            return expiredPhase;
+        }
+
+        private void expire() {
+            Phase current = phase;
+            expiredPhase = current;
+            expired[current.ordinal()].increment();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.warn("Error closing client socket: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+// Everything that belongs to one request. HTSService is shared by all connections and keeps no per-request fields.
+public class RequestContext {
+
+    private final HttpRequest request;
+    private InputStream body;
+    private ContentEncoding contentEncoding;
+    private Route route;
+    private final boolean http2;
+    private final InetAddress remoteAddress;
+
+    public RequestContext(HttpRequest request, InputStream body) {
+        this(request, body, false, null);
+    }
+
+    // HTTP/2 bodies arrive already framed by DATA frames and can't use the chunked transfer coding
+    public RequestContext(HttpRequest request, InputStream body, boolean http2, InetAddress remoteAddress) {
+        this.request = request;
+        this.body = body;
+        this.http2 = http2;
+        this.remoteAddress = remoteAddress;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    // Null when the request didn't come from a socket, which exempts it from per-client limits
+    public InetAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    public String getPath() {
+        return request.getPath();
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    // Replaced by the framed body, e.g. a BoundedInputStream, before the handler runs
+    public void setBody(InputStream body) {
+        this.body = body;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public void setRoute(Route route) {
+        this.route = route;
+    }
+
+    public String pathParam(String name) {
+        return route == null ? null : route.param(getPath(), name);
+    }
+
+    // The first value of a query parameter, decoded, or null
+    public String queryParam(String name) {
+        String query = request.getQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            if (key.equals(name)) {
+                return equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    public ContentEncoding getContentEncoding() {
+        if (contentEncoding == null) {
+            contentEncoding = ContentEncoding.negotiate(request.header(HTSConstants.ACCEPT_ENCODING));
+        }
+        return contentEncoding;
+    }
+}
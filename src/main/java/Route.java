@@ -0,0 +1,84 @@
+// A registered handler and what its pattern captures. Captures are not recorded while matching;
+// pathParam slices them out of the path on demand, because literal segments always match exactly
+// and so a capture's segment index is the same in the pattern and in every path it matched.
+public class Route {
+
+    private final HttpMethod method;
+    private final String pattern;
+    private final RouteHandler handler;
+    private final ServerMetrics.RouteMetrics metrics;
+    private final String[] segmentNames;
+    private final String wildcardName;
+    private volatile TokenBuckets rateLimit;
+
+    Route(HttpMethod method, String pattern, RouteHandler handler, ServerMetrics.RouteMetrics metrics) {
+        this.method = method;
+        this.pattern = pattern;
+        this.handler = handler;
+        this.metrics = metrics;
+        String[] segments = pattern.substring(1).split("/", -1);
+        this.segmentNames = new String[segments.length];
+        String wildcard = null;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.startsWith("{")) {
+                segmentNames[i] = segment.substring(1, segment.length() - 1);
+            } else if (segment.startsWith("*")) {
+                segmentNames[i] = segment.substring(1);
+                wildcard = segmentNames[i];
+            }
+        }
+        this.wildcardName = wildcard;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public RouteHandler getHandler() {
+        return handler;
+    }
+
+    public ServerMetrics.RouteMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Requests per second each client may make to this route, on top of the server-wide limit
+    public Route rateLimit(double perSecond, int burst) {
+        this.rateLimit = perSecond > 0 ? new TokenBuckets(perSecond, burst) : null;
+        return this;
+    }
+
+    public TokenBuckets getRateLimit() {
+        return rateLimit;
+    }
+
+    // The text a {name} segment or *name wildcard matched in path, or null if the pattern has no such capture
+    public String param(String path, String name) {
+        int index = 0;
+        while (index < segmentNames.length && !name.equals(segmentNames[index])) {
+            index++;
+        }
+        if (index == segmentNames.length) {
+            return null;
+        }
+        int start = 0;
+        for (int i = 0; i <= index; i++) {
+            start = path.indexOf('/', start) + 1;
+        }
+        if (name.equals(wildcardName)) {
+            return path.substring(start);
+        }
+        int end = path.indexOf('/', start);
+        return path.substring(start, end < 0 ? path.length() : end);
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + pattern;
+    }
+}
@@ -0,0 +1,7 @@
+import java.io.IOException;
+
+@FunctionalInterface
+public interface RouteHandler {
+
+    HttpResponse handle(RequestContext context) throws IOException;
+}
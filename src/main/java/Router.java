@@ -0,0 +1,182 @@
+import java.util.Arrays;
+
+// Maps method and path to a Route through one radix trie per method. Patterns are literal text plus
+// whole-segment captures: {name} matches one non-empty segment and a trailing *name matches the rest
+// of the path, slashes included, possibly empty. Literal edges win over {name}, which wins over *name,
+// backtracking when a more specific branch dead-ends. Matching only compares regions of the path,
+// so a lookup allocates nothing.
+// Routes are registered before the server starts; the trie is not safe to modify while serving.
+public class Router {
+
+    private final ServerMetrics metrics;
+    private final Node[] roots = new Node[HttpMethod.values().length];
+
+    public Router(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Route get(String pattern, RouteHandler handler) {
+        return add(HttpMethod.GET, pattern, handler);
+    }
+
+    public Route post(String pattern, RouteHandler handler) {
+        return add(HttpMethod.POST, pattern, handler);
+    }
+
+    public Route add(HttpMethod method, String pattern, RouteHandler handler) {
+        validate(pattern);
+        var route = new Route(method, pattern, handler, metrics.route(method + " " + pattern));
+        Node root = roots[method.ordinal()];
+        if (root == null) {
+            root = roots[method.ordinal()] = new Node("");
+        }
+        Node node = root;
+        int position = 0;
+        while (position < pattern.length()) {
+            char c = pattern.charAt(position);
+            if (c == '{') {
+                int end = pattern.indexOf('}', position);
+                if (node.param == null) {
+                    node.param = new Node("");
+                }
+                node = node.param;
+                position = end + 1;
+            } else if (c == '*') {
+                if (node.wildcard == null) {
+                    node.wildcard = new Node("");
+                }
+                node = node.wildcard;
+                position = pattern.length();
+            } else {
+                int end = position;
+                while (end < pattern.length() && pattern.charAt(end) != '{' && pattern.charAt(end) != '*') {
+                    end++;
+                }
+                node = node.insert(pattern.substring(position, end));
+                position = end;
+            }
+        }
+        if (node.route != null) {
+            throw new IllegalArgumentException(route + " conflicts with " + node.route);
+        }
+        node.route = route;
+        return route;
+    }
+
+    public Route match(HttpMethod method, String path) {
+        Node root = roots[method.ordinal()];
+        return root == null ? null : match(root, path, 0);
+    }
+
+    public boolean hasRoutes(HttpMethod method) {
+        return roots[method.ordinal()] != null;
+    }
+
+    private static Route match(Node node, String path, int position) {
+        if (position == path.length()) {
+            if (node.route != null) {
+                return node.route;
+            }
+            return node.wildcard != null ? node.wildcard.route : null;
+        }
+        char c = path.charAt(position);
+        for (int i = 0; i < node.indices.length; i++) {
+            if (node.indices[i] == c) {
+                Node child = node.children[i];
+                if (path.regionMatches(position, child.prefix, 0, child.prefix.length())) {
+                    Route route = match(child, path, position + child.prefix.length());
+                    if (route != null) {
+                        return route;
+                    }
+                }
+                break;
+            }
+        }
+        if (node.param != null && c != '/') {
+            int end = path.indexOf('/', position);
+            Route route = match(node.param, path, end < 0 ? path.length() : end);
+            if (route != null) {
+                return route;
+            }
+        }
+        return node.wildcard != null ? node.wildcard.route : null;
+    }
+
+    private static void validate(String pattern) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route pattern must start with /: " + pattern);
+        }
+        String[] segments = pattern.substring(1).split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            boolean param = segment.startsWith("{");
+            boolean wildcard = segment.startsWith("*");
+            if (param && (segment.length() < 3 || !segment.endsWith("}") || segment.indexOf('}') != segment.length() - 1)) {
+                throw new IllegalArgumentException("Malformed {name} segment in " + pattern);
+            }
+            if (wildcard && (segment.length() < 2 || i != segments.length - 1)) {
+                throw new IllegalArgumentException("*name must be a named, final segment in " + pattern);
+            }
+            if (!param && !wildcard && (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0 || segment.indexOf('*') >= 0)) {
+                throw new IllegalArgumentException("Captures must span a whole segment in " + pattern);
+            }
+        }
+    }
+
+    private static final class Node {
+        String prefix;
+        char[] indices = new char[0];
+        Node[] children = new Node[0];
+        Node param;
+        Node wildcard;
+        Route route;
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        // Walks or extends the literal edges below this node for text, splitting an edge where text diverges
+        Node insert(String text) {
+            Node node = this;
+            while (!text.isEmpty()) {
+                int index = node.indexOf(text.charAt(0));
+                if (index < 0) {
+                    var child = new Node(text);
+                    node.addChild(child);
+                    return child;
+                }
+                Node child = node.children[index];
+                int common = 0;
+                while (common < child.prefix.length() && common < text.length() && child.prefix.charAt(common) == text.charAt(common)) {
+                    common++;
+                }
+                if (common < child.prefix.length()) {
+                    var split = new Node(child.prefix.substring(0, common));
+                    child.prefix = child.prefix.substring(common);
+                    split.addChild(child);
+                    node.children[index] = split;
+                    child = split;
+                }
+                node = child;
+                text = text.substring(common);
+            }
+            return node;
+        }
+
+        private int indexOf(char c) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void addChild(Node child) {
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            indices[indices.length - 1] = child.prefix.charAt(0);
+            children[children.length - 1] = child;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// The server's own metrics on top of MetricsRegistry. Routes are resolved once by HTSService and
+// carried on each response, so recording a finished request touches only its route's adders.
+public class ServerMetrics {
+
+    private static final double[] LATENCY_BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+    private final MetricsRegistry.Counter connectionsAccepted;
+    private final LongAdder connectionsOpen = new LongAdder();
+    private final MetricsRegistry.Counter bytesReceived;
+    private final MetricsRegistry.Counter[] compressedResponses = new MetricsRegistry.Counter[ContentEncoding.values().length];
+    private final MetricsRegistry.Counter compressionInputBytes;
+    private final MetricsRegistry.Counter compressionOutputBytes;
+
+    public ServerMetrics() {
+        connectionsAccepted = registry.counter("hts_connections_accepted_total", "Connections accepted", "");
+        registry.gauge("hts_connections_open", "Connections currently open", "", connectionsOpen::sum);
+        bytesReceived = registry.counter("hts_received_bytes_total", "Bytes read from client connections", "");
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            if (encoding != ContentEncoding.IDENTITY) {
+                compressedResponses[encoding.ordinal()] = registry.counter("hts_compressed_responses_total",
+                        "Responses sent with a content coding", "encoding=\"" + encoding.getToken() + "\"");
+            }
+        }
+        compressionInputBytes = registry.counter("hts_compression_input_bytes_total", "Body bytes before in-memory compression", "");
+        compressionOutputBytes = registry.counter("hts_compression_output_bytes_total", "Body bytes after in-memory compression", "");
+        registry.counter("hts_log_lines_total", "Log lines written", "", () -> Log.get().getWritten());
+        registry.counter("hts_log_dropped_total", "Log lines dropped because the log buffer was full", "", () -> Log.get().getDropped());
+    }
+
+    public RouteMetrics route(String route) {
+        return routes.computeIfAbsent(route, key -> new RouteMetrics(registry, key));
+    }
+
+    public void registerExecutor(ConnectionExecutor executor) {
+        registry.gauge("hts_executor_active", "Connections being handled by the executor", "", executor::activeCount);
+        registry.gauge("hts_executor_queued", "Connections waiting for a worker", "", executor::queuedCount);
+        registry.counter("hts_executor_rejected_total", "Connections shed because the executor was saturated", "", executor::rejectedCount);
+    }
+
+    public void registerTls(TlsContext tls) {
+        registry.counter("hts_tls_handshakes_total", "Completed TLS handshakes, full or resumed", "", tls::getHandshakes);
+        registry.counter("hts_tls_handshake_failures_total", "TLS handshakes that failed or were abandoned", "", tls::getHandshakeFailures);
+        registry.counter("hts_tls_buffer_allocations_total", "Buffers allocated because the pool was empty", "", tls.getBuffers()::getAllocations);
+        registry.gauge("hts_tls_buffers_pooled", "Idle buffers in the TLS pool", "", tls.getBuffers()::getPooled);
+    }
+
+    public void registerFileCache(FileCache cache) {
+        registry.counter("hts_file_cache_hits_total", "File cache hits", "", cache::getHits);
+        registry.counter("hts_file_cache_misses_total", "File cache misses", "", cache::getMisses);
+        registry.counter("hts_file_cache_evictions_total", "File cache evictions", "", cache::getEvictions);
+        registry.gauge("hts_file_cache_bytes", "Bytes held by the file cache", "", cache::getCachedBytes);
+    }
+
+    public void registerGroupCommit(GroupCommit groupCommit) {
+        registry.counter("hts_upload_fsync_batches_total", "Group commits of uploaded files", "", groupCommit::getBatches);
+        registry.counter("hts_upload_fsync_files_total", "Uploaded files synced by group commit", "", groupCommit::getFiles);
+    }
+
+    public void registerConnections(ConnectionTracker connections) {
+        registry.counter("hts_requests_aborted_total", "Requests cut off when shutdown's drain deadline passed", "", connections::getAbortedRequests);
+    }
+
+    public void registerAdmission(AdmissionControl admission) {
+        String help = "Connections and requests turned away by admission control";
+        registry.counter("hts_admission_rejected_total", help, "reason=\"rate_limit\"", admission::getRateLimited);
+        registry.counter("hts_admission_rejected_total", help, "reason=\"route_rate_limit\"", admission::getRouteRateLimited);
+        registry.counter("hts_admission_rejected_total", help, "reason=\"connection_limit\"", admission::getConnectionLimited);
+        registry.counter("hts_admission_rejected_total", help, "reason=\"in_flight_limit\"", admission::getOverloaded);
+        registry.gauge("hts_requests_in_flight", "Requests being handled, when max-in-flight-requests is set", "", admission::getInFlight);
+    }
+
+    public void registerDeadlines(ReadDeadlines deadlines) {
+        for (ReadDeadlines.Phase phase : ReadDeadlines.Phase.values()) {
+            registry.counter("hts_deadline_closed_connections_total", "Connections closed because a read deadline passed",
+                    "deadline=\"" + phase.name().toLowerCase(Locale.ROOT) + "\"", () -> deadlines.getExpired(phase));
+        }
+    }
+
+    public void connectionOpened() {
+        connectionsAccepted.increment();
+        connectionsOpen.increment();
+    }
+
+    public void connectionClosed() {
+        connectionsOpen.decrement();
+    }
+
+    public void bytesReceived(long count) {
+        bytesReceived.add(count);
+    }
+
+    public void compressed(ContentEncoding encoding, long inputBytes, long outputBytes) {
+        compressedResponses[encoding.ordinal()].increment();
+        if (outputBytes >= 0) {
+            compressionInputBytes.add(inputBytes);
+            compressionOutputBytes.add(outputBytes);
+        }
+    }
+
+    // Both engines call this once the last byte is out, so it also writes the access log line
+    public void responseWritten(HttpResponse response) {
+        RouteMetrics route = response.getRouteMetrics();
+        if (route != null) {
+            long nanos = System.nanoTime() - response.getStartNanos();
+            route.record(response.getStatus(), nanos, response.getBytesWritten());
+            Log.access(response.getMethod(), response.getPath(), response.getStatus(), response.getBytesWritten(), nanos);
+        }
+    }
+
+    public long getRequestCount() {
+        long count = 0;
+        for (RouteMetrics route : routes.values()) {
+            count += route.getRequestCount();
+        }
+        return count;
+    }
+
+    public String scrape() {
+        return registry.scrape();
+    }
+
+    public static class RouteMetrics {
+
+        private final MetricsRegistry registry;
+        private final String labels;
+        private final AtomicReferenceArray<MetricsRegistry.Counter> requests = new AtomicReferenceArray<>(HttpStatus.values().length);
+        private final MetricsRegistry.Histogram latency;
+        private final MetricsRegistry.Counter bytesSent;
+
+        private RouteMetrics(MetricsRegistry registry, String route) {
+            this.registry = registry;
+            this.labels = "route=\"" + route + "\"";
+            this.latency = registry.histogram("hts_request_duration_seconds",
+                    "Time from a parsed request head to its last response byte", labels, LATENCY_BUCKETS);
+            this.bytesSent = registry.counter("hts_sent_bytes_total", "Response bytes written", labels);
+        }
+
+        public long getRequestCount() {
+            return latency.count();
+        }
+
+        void record(HttpStatus status, long nanos, long bytes) {
+            MetricsRegistry.Counter counter = requests.get(status.ordinal());
+            if (counter == null) {
+                // Series for a status appear the first time it is seen instead of as a wall of zeros
+                counter = registry.counter("hts_requests_total", "Requests by route and status",
+                        labels + ",status=\"" + status.getCode() + "\"");
+                requests.set(status.ordinal(), counter);
+            }
+            counter.increment();
+            latency.recordNanos(nanos);
+            bytesSent.add(bytes);
+        }
+    }
+}
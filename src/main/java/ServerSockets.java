@@ -0,0 +1,68 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Listening sockets and the options of the sockets they accept, as configured in AppConfig, for
+// both engines
+public final class ServerSockets {
+
+    private ServerSockets() {
+    }
+
+    // One listener per acceptor. With SO_REUSEPORT each is a socket of its own and the kernel spreads
+    // new connections over them, so acceptors don't queue on one accept lock; without it they all
+    // share a single listener.
+    public static List<ServerSocketChannel> bind(int port, int acceptors) throws IOException {
+        List<ServerSocketChannel> listeners = new ArrayList<>(acceptors);
+        try {
+            ServerSocketChannel first = open(port, acceptors > 1 && AppConfig.reusePort);
+            listeners.add(first);
+            boolean reusePort = acceptors > 1 && AppConfig.reusePort && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+            if (acceptors > 1 && AppConfig.reusePort && !reusePort) {
+                Log.warn("SO_REUSEPORT is not supported here, {} acceptors share one listener", acceptors);
+            }
+            while (listeners.size() < acceptors) {
+                listeners.add(reusePort ? open(port, true) : first);
+            }
+            return listeners;
+        } catch (IOException e) {
+            for (ServerSocketChannel listener : listeners) {
+                listener.close();
+            }
+            throw e;
+        }
+    }
+
+    public static void configure(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, AppConfig.tcpNoDelay);
+        if (AppConfig.socketSendBuffer > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, AppConfig.socketSendBuffer);
+        }
+    }
+
+    private static ServerSocketChannel open(int port, boolean reusePort) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort && channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            // Set before bind so accepted sockets inherit it and the TCP window scale can cover it
+            if (AppConfig.socketReceiveBuffer > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, AppConfig.socketReceiveBuffer);
+            }
+            InetSocketAddress address = AppConfig.bindAddress == null
+                    ? new InetSocketAddress(port)
+                    : new InetSocketAddress(AppConfig.bindAddress, port);
+            channel.bind(address, AppConfig.acceptBacklog);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+// A fixed set of locks shared out by hash, so operations on different keys almost never wait for
+// each other and there's no per-key lock object to create or clean up
+public class StripedLocks {
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    public StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.locks = new ReentrantLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public ReentrantLock forKey(Object key) {
+        int hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    public int getStripes() {
+        return locks.length;
+    }
+}
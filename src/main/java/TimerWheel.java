@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// A hashed timing wheel: one thread advances a ring of slots every tick and runs the timers whose
+// expiry has come, so a timer costs no thread and no scheduler entry of its own. Timers are meant to
+// be re-armed many times: arming later only writes the new expiry, and the wheel moves a timer to its
+// new slot, or drops it once disarmed, when it reaches the old one. Arming earlier than that visit
+// hands the timer back to the ticker to be placed again. Expiry is late by up to one tick.
+public class TimerWheel {
+
+    private static final long DISARMED = 0;
+
+    private final long tickNanos;
+    private final List<Timer>[] slots;
+    private final Queue<Timer> added = new ConcurrentLinkedQueue<>();
+    private long tick;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(String name, long tickMillis, int slotCount) {
+        if (tickMillis <= 0 || Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("A timer wheel needs a positive tick and a power-of-two slot count");
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.slots = new List[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        Thread.ofPlatform().name(name).daemon().start(this::run);
+    }
+
+    public Timer newTimer(Runnable onExpiry) {
+        return new Timer(onExpiry);
+    }
+
+    private void run() {
+        long next = System.nanoTime() + tickNanos;
+        while (true) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            next += tickNanos;
+            long now = System.nanoTime();
+            Timer timer;
+            while ((timer = added.poll()) != null) {
+                if (timer.slot >= 0) {
+                    slots[timer.slot].remove(timer);
+                }
+                place(timer, now);
+            }
+            List<Timer> slot = slots[(int) (tick & (slots.length - 1))];
+            tick++;
+            if (slot.isEmpty()) {
+                continue;
+            }
+            List<Timer> due = new ArrayList<>(slot);
+            slot.clear();
+            for (Timer candidate : due) {
+                candidate.slot = -1;
+                candidate.advance(now);
+            }
+        }
+    }
+
+    // Ticker thread only
+    private void place(Timer timer, long now) {
+        long expiresAt = timer.expiresAt.get();
+        long ticks = Math.max(1, (expiresAt - now + tickNanos - 1) / tickNanos);
+        // A timer further out than one turn lands early and is placed again when its slot comes up
+        long slotTicks = Math.min(ticks, slots.length);
+        int slot = (int) ((tick + slotTicks - 1) & (slots.length - 1));
+        slots[slot].add(timer);
+        timer.slot = slot;
+        timer.visitAt = now + (slotTicks - 1) * tickNanos;
+    }
+
+    public final class Timer {
+
+        private final Runnable onExpiry;
+        private final AtomicLong expiresAt = new AtomicLong(DISARMED);
+        private final AtomicBoolean inWheel = new AtomicBoolean();
+        // Where the ticker placed the timer and when it will get there; written by the ticker only
+        private int slot = -1;
+        private volatile long visitAt;
+
+        private Timer(Runnable onExpiry) {
+            this.onExpiry = onExpiry;
+        }
+
+        public void arm(long delayMillis) {
+            long expiry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            expiresAt.set(expiry == DISARMED ? 1 : expiry);
+            if (inWheel.compareAndSet(false, true) || visitAt - expiry > tickNanos) {
+                added.add(this);
+            }
+        }
+
+        public void disarm() {
+            expiresAt.set(DISARMED);
+        }
+
+        // Ticker thread only
+        private void advance(long now) {
+            long expiry = expiresAt.get();
+            if (expiry == DISARMED) {
+                inWheel.set(false);
+                // Armed again between the read above and leaving the wheel
+                if (expiresAt.get() != DISARMED && inWheel.compareAndSet(false, true)) {
+                    place(this, now);
+                }
+            } else if (expiry - now > 0) {
+                place(this, now);
+            } else if (expiresAt.compareAndSet(expiry, DISARMED)) {
+                inWheel.set(false);
+                if (expiresAt.get() != DISARMED && inWheel.compareAndSet(false, true)) {
+                    place(this, now);
+                }
+                try {
+                    onExpiry.run();
+                } catch (RuntimeException e) {
+                    Log.warn("Timer callback failed: {}", e.getMessage());
+                }
+            } else {
+                advance(now);
+            }
+        }
+    }
+}
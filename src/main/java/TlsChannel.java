@@ -0,0 +1,352 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+// A blocking channel that speaks TLS over a socket's streams through an SSLEngine, so the connection
+// code can read and write plaintext as it does for a bare socket. Buffers come from the context's
+// pool and go back as soon as they are empty, so an idle keep-alive connection holds at most the
+// inbound one. Reads and writes may run on different threads, as HTTP/2 does.
+public class TlsChannel implements ByteChannel, GatheringByteChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+    private final InputStream in;
+    private final OutputStream out;
+    private final BufferPool pool;
+    private final TlsContext context;
+    // Locks rather than synchronized, which would pin a virtual thread to its carrier while it
+    // waits for the socket. For the same reason the streams below replace Channels.newInputStream.
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Both in write mode: ciphertext not yet unwrapped, and plaintext not yet read
+    private ByteBuffer netIn;
+    private ByteBuffer appIn;
+    private boolean inboundDone;
+    private volatile boolean open = true;
+
+    TlsChannel(SSLEngine engine, InputStream in, OutputStream out, BufferPool pool, TlsContext context) {
+        this.engine = engine;
+        this.in = in;
+        this.out = out;
+        this.pool = pool;
+        this.context = context;
+    }
+
+    public void handshake() throws IOException {
+        readLock.lock();
+        try {
+            engine.beginHandshake();
+            while (true) {
+                switch (engine.getHandshakeStatus()) {
+                    case NOT_HANDSHAKING, FINISHED -> {
+                        context.handshakeCompleted(true);
+                        return;
+                    }
+                    case NEED_TASK -> runDelegatedTasks();
+                    case NEED_WRAP -> wrapHandshake();
+                    case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                        if (!unwrap()) {
+                            throw new EOFException("Connection closed during the TLS handshake");
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            context.handshakeCompleted(false);
+            throw e;
+        } finally {
+            releaseEmpty();
+            readLock.unlock();
+        }
+    }
+
+    public String getApplicationProtocol() {
+        return engine.getApplicationProtocol();
+    }
+
+    public InputStream getInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] target, int offset, int length) throws IOException {
+                return length == 0 ? 0 : TlsChannel.this.read(ByteBuffer.wrap(target, offset, length));
+            }
+        };
+    }
+
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] source, int offset, int length) throws IOException {
+                TlsChannel.this.write(ByteBuffer.wrap(source, offset, length));
+            }
+        };
+    }
+
+    @Override
+    public int read(ByteBuffer target) throws IOException {
+        readLock.lock();
+        try {
+            while (appIn == null || appIn.position() == 0) {
+                if (inboundDone || !unwrap()) {
+                    return -1;
+                }
+                handleHandshakeStatus();
+            }
+            appIn.flip();
+            int count = Math.min(appIn.remaining(), target.remaining());
+            int limit = appIn.limit();
+            appIn.limit(appIn.position() + count);
+            target.put(appIn);
+            appIn.limit(limit);
+            appIn.compact();
+            return count;
+        } finally {
+            releaseEmpty();
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+        return (int) write(new ByteBuffer[]{source}, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] sources) throws IOException {
+        return write(sources, 0, sources.length);
+    }
+
+    // Everything is written before returning; sources that fit in one record go out as one
+    @Override
+    public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        writeLock.lock();
+        ByteBuffer netOut = pool.acquire();
+        try {
+            long written = 0;
+            do {
+                netOut.clear();
+                SSLEngineResult result = engine.wrap(sources, offset, length, netOut);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("TLS connection already closed");
+                }
+                written += result.bytesConsumed();
+                flush(netOut);
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                }
+            } while (hasRemaining(sources, offset, length));
+            return written;
+        } finally {
+            pool.release(netOut);
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    // Sends close_notify; the socket underneath is closed by its owner
+    @Override
+    public void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        engine.closeOutbound();
+        writeLock.lock();
+        ByteBuffer netOut = pool.acquire();
+        try {
+            while (!engine.isOutboundDone()) {
+                netOut.clear();
+                engine.wrap(EMPTY, netOut);
+                flush(netOut);
+            }
+        } catch (IOException e) {
+            Log.debug("Error sending TLS close_notify: {}", e.getMessage());
+        } finally {
+            pool.release(netOut);
+            writeLock.unlock();
+        }
+        if (readLock.tryLock()) {
+            try {
+                releaseBuffers();
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+    // Unwraps one record into appIn, reading more ciphertext when needed; false at the end of input
+    private boolean unwrap() throws IOException {
+        if (netIn == null) {
+            netIn = pool.acquire();
+        }
+        while (true) {
+            // With no ciphertext yet there is nothing to unwrap, and waiting needs no plaintext buffer
+            if (netIn.position() == 0 && !fill()) {
+                return false;
+            }
+            if (appIn == null) {
+                appIn = pool.acquire();
+            }
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case OK -> {
+                    if (result.bytesProduced() > 0 || result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_UNWRAP
+                            || netIn.position() > 0) {
+                        return true;
+                    }
+                }
+                case CLOSED -> {
+                    inboundDone = true;
+                    return result.bytesProduced() > 0;
+                }
+                case BUFFER_OVERFLOW -> {
+                    // Plaintext from an earlier record has to be read first
+                    if (appIn.position() > 0) {
+                        return true;
+                    }
+                    throw new SSLException("TLS record larger than the application buffer");
+                }
+                case BUFFER_UNDERFLOW -> {
+                    if (!netIn.hasRemaining()) {
+                        throw new SSLException("TLS record larger than the packet buffer");
+                    }
+                }
+            }
+            if (netIn.position() > 0 && !fill()) {
+                return false;
+            }
+        }
+    }
+
+    // Reads ciphertext straight into the pooled buffer; the socket's stream keeps SO_TIMEOUT working
+    private boolean fill() throws IOException {
+        int count = in.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+        if (count == -1) {
+            inboundDone = true;
+            if (netIn.position() > 0 || engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                throw new EOFException("Connection closed in the middle of a TLS record");
+            }
+            // Clients often skip close_notify; HTTP framing tells whether anything was cut off
+            return false;
+        }
+        netIn.position(netIn.position() + count);
+        return true;
+    }
+
+    // Handshake messages after the handshake itself, e.g. a TLS 1.3 key update
+    private void handleHandshakeStatus() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK -> runDelegatedTasks();
+                case NEED_WRAP -> wrapHandshake();
+                default -> {
+                    return;
+                }
+            }
+        }
+    }
+
+    // A flight of handshake records goes out in one write: sent one by one, Nagle's algorithm would
+    // hold each small record back until the client's delayed ACK for the previous one
+    private void wrapHandshake() throws IOException {
+        writeLock.lock();
+        ByteBuffer netOut = pool.acquire();
+        try {
+            while (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                SSLEngineResult result = engine.wrap(EMPTY, netOut);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    if (netOut.position() == 0) {
+                        throw new SSLException("TLS record larger than the packet buffer");
+                    }
+                    flush(netOut);
+                    netOut.clear();
+                } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    flush(netOut);
+                    throw new EOFException("TLS connection closed by the peer");
+                }
+            }
+            flush(netOut);
+        } finally {
+            pool.release(netOut);
+            writeLock.unlock();
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private void flush(ByteBuffer netOut) throws IOException {
+        if (netOut.position() > 0) {
+            out.write(netOut.array(), netOut.arrayOffset(), netOut.position());
+        }
+    }
+
+    private void releaseEmpty() {
+        if (appIn != null && appIn.position() == 0) {
+            pool.release(appIn);
+            appIn = null;
+        }
+        if (netIn != null && netIn.position() == 0) {
+            pool.release(netIn);
+            netIn = null;
+        }
+    }
+
+    private void releaseBuffers() {
+        if (appIn != null) {
+            pool.release(appIn);
+            appIn = null;
+        }
+        if (netIn != null) {
+            pool.release(netIn);
+            netIn = null;
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+
+// Server-side TLS setup shared by all connections: the key material, the session cache that lets
+// returning clients resume instead of doing a full handshake, and the pool of buffers for TlsChannel.
+public class TlsContext {
+
+    private final SSLContext sslContext;
+    private final String[] protocols;
+    private final BufferPool buffers;
+    private final LongAdder handshakes = new LongAdder();
+    private final LongAdder handshakeFailures = new LongAdder();
+
+    public TlsContext(SSLContext sslContext, String[] protocols, int sessionCacheSize, int sessionTimeoutSeconds, int maxPooledBuffers) {
+        this.sslContext = sslContext;
+        this.protocols = protocols;
+        sslContext.getServerSessionContext().setSessionCacheSize(sessionCacheSize);
+        sslContext.getServerSessionContext().setSessionTimeout(sessionTimeoutSeconds);
+        SSLSession session = sslContext.createSSLEngine().getSession();
+        this.buffers = new BufferPool(Math.max(session.getPacketBufferSize(), session.getApplicationBufferSize()), maxPooledBuffers);
+    }
+
+    // A bad keystore is a configuration error, reported like an unknown option value
+    public static TlsContext fromConfig() {
+        // Read once when JSSE initializes, so it has to be set before the first SSLContext
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension", Boolean.toString(AppConfig.tlsSessionTickets));
+        try {
+            KeyStore keyStore = KeyStore.getInstance(AppConfig.tlsKeystoreType);
+            char[] password = AppConfig.tlsKeystorePassword.toCharArray();
+            try (InputStream in = Files.newInputStream(Path.of(AppConfig.tlsKeystore))) {
+                keyStore.load(in, password);
+            }
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, password);
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagers.getKeyManagers(), null, null);
+            return new TlsContext(sslContext, AppConfig.tlsProtocols.split(","), AppConfig.tlsSessionCacheSize,
+                    AppConfig.tlsSessionTimeoutSeconds, AppConfig.tlsMaxPooledBuffers);
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalArgumentException("Cannot load keystore " + AppConfig.tlsKeystore + ": " + e.getMessage(), e);
+        }
+    }
+
+    public TlsChannel open(InputStream in, OutputStream out) {
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setProtocols(protocols);
+        parameters.setUseCipherSuitesOrder(true);
+        // Clients that negotiate h2 send the HTTP/2 preface, which the connection already recognizes
+        parameters.setApplicationProtocols(AppConfig.http2 ? new String[]{"h2", "http/1.1"} : new String[]{"http/1.1"});
+        engine.setSSLParameters(parameters);
+        return new TlsChannel(engine, in, out, buffers, this);
+    }
+
+    void handshakeCompleted(boolean succeeded) {
+        (succeeded ? handshakes : handshakeFailures).increment();
+    }
+
+    public BufferPool getBuffers() {
+        return buffers;
+    }
+
+    public long getHandshakes() {
+        return handshakes.sum();
+    }
+
+    public long getHandshakeFailures() {
+        return handshakeFailures.sum();
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token buckets keyed by client. Each bucket is a single long, the time at which it will be full
+// again (the generic cell rate algorithm), so taking a token is one CAS and needs no refill thread.
+// A bucket whose time has passed is full and carries no state, so idle keys are swept out every
+// few seconds by whichever caller finds the sweep due.
+public class TokenBuckets {
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final long nanosPerToken;
+    private final long capacityNanos;
+    private final Map<Object, AtomicLong> fullAt = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep;
+
+    public TokenBuckets(double perSecond, int burst) {
+        if (perSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("A rate limit needs a positive rate and burst, got " + perSecond + "/s with burst " + burst);
+        }
+        this.nanosPerToken = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        this.capacityNanos = nanosPerToken * burst;
+        this.nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+    }
+
+    public boolean tryAcquire(Object key) {
+        return tryAcquire(key, System.nanoTime());
+    }
+
+    boolean tryAcquire(Object key, long now) {
+        sweepIfDue(now);
+        AtomicLong bucket = fullAt.get(key);
+        if (bucket == null) {
+            AtomicLong created = new AtomicLong(now);
+            bucket = fullAt.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        while (true) {
+            long full = bucket.get();
+            long next = (full - now > 0 ? full : now) + nanosPerToken;
+            if (next - now > capacityNanos) {
+                return false;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+
+    public int size() {
+        return fullAt.size();
+    }
+
+    // A token taken from a bucket while it is being swept is forgiven, which errs on the lenient side
+    private void sweepIfDue(long now) {
+        long due = nextSweep.get();
+        if (now - due >= 0 && nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) {
+            fullAt.values().removeIf(bucket -> bucket.get() - now <= 0);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VirtualThreadConnectionExecutor implements ConnectionExecutor {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger active = new AtomicInteger();
+
+    @Override
+    public boolean execute(Runnable connectionHandler) {
+        active.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                connectionHandler.run();
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public int activeCount() {
+        return active.get();
+    }
+
+    @Override
+    public int queuedCount() {
+        return 0;
+    }
+
+    @Override
+    public long rejectedCount() {
+        return 0;
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncLoggerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void log_formatsOnTheWriterThreadAndFiltersByLevel() throws IOException {
+        // GIVEN
+        Path file = directory.resolve("server.log");
+        var logger = new AsyncLogger(LogLevel.INFO, 64, file, 0, 0);
+
+        // WHEN
+        logger.log(LogLevel.DEBUG, "hidden {}", "x", null, null);
+        logger.log(LogLevel.INFO, "Serving {} from {}", "asset.txt", "/tmp", null);
+        logger.access(HttpMethod.GET, "/echo/abc", HttpStatus.OK, 42, 1_500_000);
+        logger.flush();
+        logger.close();
+
+        // THEN
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).endsWith("Z INFO Serving asset.txt from /tmp"), lines.get(0));
+        assertTrue(lines.get(1).endsWith("Z INFO access GET /echo/abc 200 42B 1500us"), lines.get(1));
+        assertEquals(2, logger.getWritten());
+    }
+
+    @Test
+    void log_dropsInsteadOfBlockingWhenTheBufferIsFull() {
+        // GIVEN
+        var logger = new AsyncLogger(LogLevel.INFO, 2, directory.resolve("server.log"), 0, 0);
+
+        // WHEN
+        for (int i = 0; i < 10_000; i++) {
+            logger.log(LogLevel.INFO, "line {}", "x", null, null);
+        }
+        logger.flush();
+        logger.close();
+
+        // THEN
+        assertEquals(10_000, logger.getWritten() + logger.getDropped());
+    }
+
+    @Test
+    void log_rollsTheFileWhenItExceedsTheLimit() throws IOException {
+        // GIVEN
+        Path file = directory.resolve("server.log");
+        var logger = new AsyncLogger(LogLevel.INFO, 64, file, 100, 2);
+
+        // WHEN
+        for (int i = 0; i < 10; i++) {
+            logger.log(LogLevel.INFO, "line number {}", i, null, null);
+            logger.flush();
+        }
+        logger.close();
+
+        // THEN
+        assertTrue(Files.exists(directory.resolve("server.log.1")));
+        assertTrue(Files.exists(directory.resolve("server.log.2")));
+        assertFalse(Files.exists(directory.resolve("server.log.3")));
+        assertTrue(Files.size(file) <= 100);
+        assertTrue(Files.readString(file).endsWith("line number 9\n"));
+    }
+}
@@ -0,0 +1,27 @@
+import org.junit.jupiter.api.*;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteRangeTest {
+
+    @Test
+    void parse_resolvesOpenEndedAndSuffixRanges() {
+        assertEquals(List.of(new ByteRange(0, 99)), ByteRange.parse("bytes=0-99", 1000));
+        assertEquals(List.of(new ByteRange(900, 999)), ByteRange.parse("bytes=900-", 1000));
+        assertEquals(List.of(new ByteRange(950, 999)), ByteRange.parse("bytes=-50", 1000));
+        assertEquals(List.of(new ByteRange(990, 999)), ByteRange.parse("bytes=990-5000", 1000));
+        assertEquals(List.of(new ByteRange(0, 19), new ByteRange(50, 59)), ByteRange.parse("bytes=50-59, 0-9, 5-19", 1000));
+    }
+
+    @Test
+    void parse_distinguishesIgnoredFromUnsatisfiable() {
+        assertNull(ByteRange.parse("items=0-5", 1000));
+        assertNull(ByteRange.parse("bytes=5-1", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+        assertNull(ByteRange.parse("bytes=" + "1-1,".repeat(17), 1000));
+        assertEquals(List.of(), ByteRange.parse("bytes=1000-1100", 1000));
+        assertEquals(List.of(), ByteRange.parse("bytes=1000-", 1000));
+    }
+}
@@ -0,0 +1,80 @@
+import org.junit.jupiter.api.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigLoaderTest {
+
+    private int previousPort;
+    private int previousBacklog;
+    private int previousAcceptors;
+    private boolean previousTcpNoDelay;
+    private int previousKeepAliveTimeout;
+
+    @BeforeEach
+    public void saveConfig() {
+        previousPort = AppConfig.port;
+        previousBacklog = AppConfig.acceptBacklog;
+        previousAcceptors = AppConfig.acceptors;
+        previousTcpNoDelay = AppConfig.tcpNoDelay;
+        previousKeepAliveTimeout = AppConfig.keepAliveTimeoutMillis;
+    }
+
+    @AfterEach
+    public void restoreConfig() {
+        AppConfig.port = previousPort;
+        AppConfig.acceptBacklog = previousBacklog;
+        AppConfig.acceptors = previousAcceptors;
+        AppConfig.tcpNoDelay = previousTcpNoDelay;
+        AppConfig.keepAliveTimeoutMillis = previousKeepAliveTimeout;
+    }
+
+    @Test
+    public void load_commandLineOverridesEnvironmentWhichOverridesTheFile() throws Exception {
+        // GIVEN
+        Path file = Files.createTempFile("hts", ".properties");
+        Files.writeString(file, """
+                port = 8080
+                accept-backlog = 512
+                acceptors = 2
+                tcp-no-delay = false
+                bogus = 1
+                """);
+        Map<String, String> env = Map.of(
+                "HTS_CONFIG", file.toString(),
+                "HTS_ACCEPT_BACKLOG", "1024",
+                "HTS_ACCEPTORS", "3",
+                "PATH", "/usr/bin");
+        String[] args = {"--acceptors", "4", "--keep-alive-timeout", "750", "--nope", "x"};
+
+        // WHEN
+        List<String> unknown = ConfigLoader.load(args, env);
+
+        // THEN
+        assertEquals(8080, AppConfig.port);
+        assertEquals(1024, AppConfig.acceptBacklog);
+        assertEquals(4, AppConfig.acceptors);
+        assertFalse(AppConfig.tcpNoDelay);
+        assertEquals(750, AppConfig.keepAliveTimeoutMillis);
+        assertEquals(List.of("bogus in " + file, "--nope"), unknown);
+    }
+
+    @Test
+    public void load_rejectsBadValuesAndMissingFiles() {
+        var badNumber = assertThrows(IllegalArgumentException.class,
+                () -> ConfigLoader.load(new String[0], Map.of("HTS_PORT", "eighty")));
+        assertEquals("Invalid value eighty for HTS_PORT", badNumber.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> ConfigLoader.load(new String[]{"--config", "/does/not/exist.properties"}, Map.of()));
+        var flagStyle = assertThrows(IllegalArgumentException.class,
+                () -> ConfigLoader.load(new String[]{"--reuse-port", "--port", "8080"}, Map.of()));
+        assertEquals("Missing value for --reuse-port", flagStyle.getMessage());
+        var trailing = assertThrows(IllegalArgumentException.class,
+                () -> ConfigLoader.load(new String[]{"--port", "8080", "--directory"}, Map.of()));
+        assertEquals("Missing value for --directory", trailing.getMessage());
+    }
+}
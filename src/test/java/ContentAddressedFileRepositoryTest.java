@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentAddressedFileRepositoryTest {
+
+    private static final String HELLO_SHA256 = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+    private String previousDirectory;
+    private Path directory;
+
+    @BeforeEach
+    void useTemporaryDirectory() throws Exception {
+        previousDirectory = AppConfig.directory;
+        directory = Files.createTempDirectory("hts");
+        AppConfig.directory = directory.toString();
+    }
+
+    @AfterEach
+    void restoreDirectory() {
+        AppConfig.directory = previousDirectory;
+    }
+
+    @Test
+    void postFile_identicalContentIsStoredOnce() throws Exception {
+        // GIVEN
+        var repository = new ContentAddressedFileRepository(null);
+
+        // WHEN
+        var first = repository.postFile("/files/a.txt", body("hello"));
+        var second = repository.postFile("/files/nested/b.txt", body("hello"));
+        var duplicate = repository.postFile("/files/a.txt", body("other"));
+        var response = repository.getFileByName(get("/files/nested/b.txt", null));
+
+        // THEN
+        assertEquals(HttpStatus.CREATED, first.getStatus());
+        assertEquals(HttpStatus.CREATED, second.getStatus());
+        assertEquals(HttpStatus.CONFLICT, duplicate.getStatus());
+        assertEquals(HttpStatus.OK, response.getStatus());
+        assertEquals(5, response.getBodyLength());
+        assertEquals(1, countBlobs());
+        assertEquals(HttpStatus.NOT_MODIFIED,
+                repository.getFileByName(get("/files/a.txt", "\"" + HELLO_SHA256 + "\"")).getStatus());
+    }
+
+    @Test
+    void postFile_replacesABlobTornByACrashInsteadOfSharingIt() throws Exception {
+        // GIVEN a blob left truncated under its digest name
+        Path blob = directory.resolve(".blobs/" + HELLO_SHA256.substring(0, 2) + "/" + HELLO_SHA256);
+        Files.createDirectories(blob.getParent());
+        Files.writeString(blob, "he");
+        var repository = new ContentAddressedFileRepository(null);
+
+        // WHEN
+        var posted = repository.postFile("/files/a.txt", body("hello"));
+
+        // THEN
+        assertEquals(HttpStatus.CREATED, posted.getStatus());
+        assertEquals("hello", Files.readString(blob));
+        assertEquals(5, repository.getFileByName(get("/files/a.txt", null)).getBodyLength());
+    }
+
+    @Test
+    void index_survivesRestartAndDropsATornRecord() throws Exception {
+        // GIVEN
+        new ContentAddressedFileRepository(null).postFile("/files/kept.txt", body("hello"));
+        Files.write(directory.resolve(".blobs/index"), new byte[]{0, 9, 'p', 'a', 'r'}, StandardOpenOption.APPEND);
+
+        // WHEN
+        var restarted = new ContentAddressedFileRepository(null);
+        var kept = restarted.getFileByName(get("/files/kept.txt", null));
+        var added = restarted.postFile("/files/added.txt", body("world"));
+        var reopened = new ContentAddressedFileRepository(null).getFileByName(get("/files/added.txt", null));
+
+        // THEN
+        assertEquals(HttpStatus.OK, kept.getStatus());
+        assertEquals(HttpStatus.CREATED, added.getStatus());
+        assertEquals(HttpStatus.OK, reopened.getStatus());
+        assertEquals(2, countBlobs());
+    }
+
+    private long countBlobs() throws Exception {
+        try (Stream<Path> files = Files.walk(directory.resolve(".blobs"))) {
+            return files.filter(file -> file.getFileName().toString().length() == 64).count();
+        }
+    }
+
+    private static InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static RequestContext get(String path, String ifNoneMatch) throws HttpParseException {
+        byte[] head = ("GET " + path + " HTTP/1.1\r\nHost: localhost:4221\r\n"
+                + (ifNoneMatch != null ? "If-None-Match: " + ifNoneMatch + "\r\n" : "")
+                + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        var parser = new HttpRequestParser();
+        parser.parse(head, 0, head.length);
+        return new RequestContext(parser.getRequest(), InputStream.nullInputStream());
+    }
+}
@@ -0,0 +1,44 @@
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentEncodingTest {
+
+    @Test
+    void negotiate_picksHighestQuality() {
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip, deflate, br"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("invalid-encoding, GZIP ; q=0.8"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("*;q=0.3, gzip;q=0"));
+    }
+
+    @Test
+    void negotiate_fallsBackToIdentity() {
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate(null));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("br"));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("gzip;q=0"));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("gzip;q=0.4, identity;q=0.9"));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("gzip;q=banana"));
+    }
+
+    @Test
+    void compress_producesStandardGzipAndZlibStreams() throws Exception {
+        // GIVEN
+        byte[] content = "banana".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+        // WHEN
+        byte[] gzipped = Compressor.compress(ContentEncoding.GZIP, content);
+        byte[] deflated = Compressor.compress(ContentEncoding.DEFLATE, content);
+        byte[] gzippedAgain = Compressor.compress(ContentEncoding.GZIP, content);
+
+        // THEN
+        assertArrayEquals(content, new GZIPInputStream(new ByteArrayInputStream(gzipped)).readAllBytes());
+        assertArrayEquals(content, new InflaterInputStream(new ByteArrayInputStream(deflated)).readAllBytes());
+        assertArrayEquals(gzipped, gzippedAgain);
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.jupiter.api.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectoryIndexTest {
+
+    @Test
+    void open_indexesNestedFilesButNotUploadsInProgress() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        Files.writeString(directory.resolve("top.txt"), "top");
+        Files.createDirectories(directory.resolve("a/b"));
+        Files.writeString(directory.resolve("a/b/deep.bin"), "deeper");
+        Files.writeString(directory.resolve(".upload-123.part"), "partial");
+
+        // WHEN
+        try (DirectoryIndex index = DirectoryIndex.open(directory)) {
+
+            // THEN
+            assertEquals(2, index.size());
+            assertEquals(6, index.get("a/b/deep.bin").size());
+            assertEquals(3, index.get("./a/../top.txt").size());
+            assertNull(index.get("../" + directory.getFileName() + "/top.txt/.."));
+            assertNull(index.get(".upload-123.part"));
+        }
+    }
+
+    @Test
+    void watch_picksUpChangesMadeOutsideTheServer() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        Files.writeString(directory.resolve("old.txt"), "old");
+
+        try (DirectoryIndex index = DirectoryIndex.open(directory)) {
+            // WHEN
+            Files.delete(directory.resolve("old.txt"));
+            Files.createDirectories(directory.resolve("new"));
+            Files.writeString(directory.resolve("new/file.txt"), "fresh content");
+
+            // THEN
+            long deadline = System.currentTimeMillis() + 10_000;
+            while ((index.get("old.txt") != null || index.get("new/file.txt") == null) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertNull(index.get("old.txt"));
+            assertEquals(13, index.get("new/file.txt").size());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileCacheTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("hts-cache");
+    }
+
+    @Test
+    void get_returnsCachedContentUntilFileChanges() throws Exception {
+        // GIVEN
+        var cache = new FileCache(1024, 1024, 0);
+        File file = write("a.txt", "alpha");
+        cache.put(file, file.lastModified(), "alpha".getBytes(StandardCharsets.UTF_8));
+
+        // WHEN
+        var hit = cache.get(file);
+        write("a.txt", "alpha, but longer");
+        var stale = cache.get(file);
+
+        // THEN
+        assertEquals("alpha", new String(hit.getContent(), StandardCharsets.UTF_8));
+        assertNull(stale);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    @Test
+    void put_evictsLeastRecentlyUsedWhenOverBudget() throws Exception {
+        // GIVEN
+        var cache = new FileCache(10, 10, 60_000);
+        File a = write("a", "aaaa");
+        File b = write("b", "bbbb");
+        File c = write("c", "cccc");
+        cache.put(a, a.lastModified(), "aaaa".getBytes(StandardCharsets.UTF_8));
+        cache.put(b, b.lastModified(), "bbbb".getBytes(StandardCharsets.UTF_8));
+
+        // WHEN
+        cache.get(a);
+        cache.put(c, c.lastModified(), "cccc".getBytes(StandardCharsets.UTF_8));
+
+        // THEN
+        assertNotNull(cache.get(a));
+        assertNull(cache.get(b));
+        assertNotNull(cache.get(c));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(8, cache.getCachedBytes());
+    }
+
+    @Test
+    void getGzipped_compressesOnceAndCountsTowardsBudget() throws Exception {
+        // GIVEN
+        var cache = new FileCache(1024, 1024, 60_000);
+        File file = write("g.txt", "banana".repeat(20));
+        var cached = cache.put(file, file.lastModified(), Files.readAllBytes(file.toPath()));
+
+        // WHEN
+        byte[] gzipped = cached.getGzipped();
+        cache.invalidate(file);
+
+        // THEN
+        assertSame(gzipped, cached.getGzipped());
+        assertEquals("banana".repeat(20), new String(new GZIPInputStream(new ByteArrayInputStream(gzipped)).readAllBytes(), StandardCharsets.UTF_8));
+        assertNull(cache.get(file));
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    private File write(String name, String content) throws Exception {
+        Path path = directory.resolve(name);
+        Files.writeString(path, content);
+        return path.toFile();
+    }
+}
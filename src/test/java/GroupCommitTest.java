@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupCommitTest {
+
+    @Test
+    void sync_concurrentCallersShareBatches() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        GroupCommit groupCommit = new GroupCommit(20);
+        int callers = 32;
+        List<Future<?>> results = new ArrayList<>();
+
+        // WHEN
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < callers; i++) {
+                Path file = Files.writeString(directory.resolve("file-" + i), "content " + i);
+                results.add(executor.submit(() -> {
+                    groupCommit.sync(file);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        }
+
+        // THEN
+        assertEquals(callers, groupCommit.getFiles());
+        assertTrue(groupCommit.getBatches() < callers, "batches: " + groupCommit.getBatches());
+    }
+
+    @Test
+    void syncDataAndSyncDirectory_syncOnlyWhatTheyAreGiven() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        Path file = Files.writeString(directory.resolve("data"), "content");
+        GroupCommit groupCommit = new GroupCommit(0);
+
+        // WHEN
+        groupCommit.syncData(file);
+        groupCommit.syncDirectory(directory);
+
+        // THEN
+        assertEquals(1, groupCommit.getFiles());
+        assertEquals(2, groupCommit.getBatches());
+        assertThrows(IOException.class, () -> groupCommit.syncData(directory.resolve("missing")));
+    }
+
+    @Test
+    void sync_failsEveryCallerInAFailedBatch() throws Exception {
+        // GIVEN
+        Path missing = Files.createTempDirectory("hts").resolve("missing");
+        GroupCommit groupCommit = new GroupCommit(0);
+
+        // WHEN / THEN
+        assertThrows(IOException.class, () -> groupCommit.sync(missing));
+    }
+}
@@ -3,6 +3,18 @@ import org.junit.jupiter.api.*;
 import java.io.*;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -13,14 +25,18 @@ class HTSControllerTest {
 
     @BeforeEach
     public void startServer() {
-        controller = new HTSController();
+        startServer(new HTSController());
+    }
+
+    private void startServer(HTSController newController) {
+        controller = newController;
         serverThread = new Thread(() -> {
             controller.run();
         });
         serverThread.start();
 
         try {
-            Thread.sleep(1000);
+            assertTrue(controller.awaitReady(10, TimeUnit.SECONDS), "Server did not start");
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
@@ -131,6 +147,29 @@ class HTSControllerTest {
         }
     }
 
+    @Test
+    public void testEchoContentLengthCountsBytes() throws Exception {
+        // GIVEN
+        String testString = "caf\u00e9";
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            String request = "GET /echo/" + testString + " HTTP/1.1\r\nHost: localhost:4221\r\n\r\n";
+
+            // WHEN
+            outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            String head = readHead(inputStream);
+            byte[] body = new byte[5];
+            inputStream.readFully(body);
+
+            // THEN
+            assertTrue(head.contains("Content-Length: 5\r\n"));
+            assertEquals(testString, new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
     @Test
     public void testUserAgentEndpoint() throws Exception {
         // GIVEN
@@ -368,4 +407,1037 @@ class HTSControllerTest {
             assertEquals("gzip", contentEncoding);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void keepAlive_servesSequentialRequestsOnOneConnection() throws Exception {
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            // WHEN
+            outputStream.write("GET /echo/first HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+            String firstBody = readResponseBody(reader);
+
+            outputStream.write("GET /echo/second HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+            String secondBody = readResponseBody(reader);
+
+            // THEN
+            assertEquals("first", firstBody);
+            assertEquals("second", secondBody);
+        }
+    }
+
+    @Test
+    public void keepAlive_answersPipelinedRequestsInOrder() throws Exception {
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            String request = "GET /echo/one HTTP/1.1\r\nHost: localhost:4221\r\n\r\n" +
+                    "GET /user-agent HTTP/1.1\r\nHost: localhost:4221\r\nUser-Agent: pipeline/1.0\r\n\r\n" +
+                    "GET /echo/three HTTP/1.1\r\nHost: localhost:4221\r\n\r\n";
+
+            // WHEN
+            outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            // THEN
+            assertEquals("one", readResponseBody(reader));
+            assertEquals("pipeline/1.0", readResponseBody(reader));
+            assertEquals("three", readResponseBody(reader));
+        }
+    }
+
+    @Test
+    public void keepAlive_connectionCloseIsHonoured() throws Exception {
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            String request = "GET /echo/bye HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Connection: close\r\n" +
+                    "\r\n";
+
+            // WHEN
+            outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String statusLine = reader.readLine();
+
+            String connection = null;
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                if (line.startsWith("Connection:")) {
+                    connection = line.substring("Connection:".length()).trim();
+                }
+            }
+            String responseBody = reader.readLine();
+
+            // THEN
+            assertEquals("HTTP/1.1 200 OK", statusLine);
+            assertEquals("close", connection);
+            assertEquals("bye", responseBody);
+            assertEquals(-1, reader.read());
+        }
+    }
+
+    @Test
+    public void getFile_streamsBinaryContentUnchanged() throws Exception {
+        assertBinaryFileServed();
+    }
+
+    @Test
+    public void getFile_memoryMappedStreamsBinaryContentUnchanged() throws Exception {
+        AppConfig.memoryMappedFiles = true;
+        try {
+            assertBinaryFileServed();
+        } finally {
+            AppConfig.memoryMappedFiles = false;
+        }
+    }
+
+    @Test
+    public void getFile_repeatedSmallFileIsServedFromCache() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        Files.writeString(directory.resolve("hot.txt"), "hot content");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+        var fileCache = controller.getService().getFileRepository().getFileCache();
+        long hitsBefore = fileCache.getHits();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            // WHEN
+            outputStream.write("GET /files/hot.txt HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+            String first = readResponseBody(reader);
+            outputStream.write("GET /files/hot.txt HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+            String second = readResponseBody(reader);
+
+            // THEN
+            assertEquals("hot content", first);
+            assertEquals("hot content", second);
+            assertEquals(hitsBefore + 1, fileCache.getHits());
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    public void getFile_largeFileIsCompressedWhileStreamed() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        byte[] content = "line of compressible text\n".repeat(40_000).getBytes(StandardCharsets.UTF_8);
+        Files.write(directory.resolve("large.txt"), content);
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+
+            // WHEN
+            outputStream.write(("GET /files/large.txt HTTP/1.1\r\nHost: localhost:4221\r\n" +
+                    "Accept-Encoding: br;q=1.0, gzip;q=0.8\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+            String head = readHead(inputStream);
+            byte[] body = readChunkedBody(inputStream);
+            outputStream.write("GET /echo/next HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+            String nextHead = readHead(inputStream);
+
+            // THEN
+            assertTrue(head.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(head.contains("Transfer-Encoding: chunked"));
+            assertTrue(head.contains("Content-Encoding: gzip"));
+            assertTrue(head.contains("Vary: Accept-Encoding"));
+            assertFalse(head.contains("Content-Length"));
+            assertTrue(body.length < content.length / 10);
+            assertArrayEquals(content, new GZIPInputStream(new ByteArrayInputStream(body)).readAllBytes());
+            assertTrue(nextHead.startsWith("HTTP/1.1 200 OK"));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    public void getFile_precompressedSidecarIsServedAsIs() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        Files.write(directory.resolve("site.js"), new byte[512 * 1024]);
+        byte[] sidecar = Compressor.compress(ContentEncoding.GZIP, "precompressed".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("site.js.gz"), sidecar);
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+
+            // WHEN
+            outputStream.write(("GET /files/site.js HTTP/1.1\r\nHost: localhost:4221\r\n" +
+                    "Accept-Encoding: gzip\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+            String head = readHead(inputStream);
+            byte[] body = inputStream.readAllBytes();
+
+            // THEN
+            assertTrue(head.contains("Content-Encoding: gzip"));
+            assertTrue(head.contains("Content-Length: " + sidecar.length));
+            assertArrayEquals(sidecar, body);
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    public void echo_deflateIsUsedWhenPreferred() throws Exception {
+        try (Socket socket = new Socket("localhost", 4221)) {
+            // WHEN
+            socket.getOutputStream().write(("GET /echo/inflate-me HTTP/1.1\r\nHost: localhost:4221\r\n" +
+                    "Accept-Encoding: gzip;q=0.5, deflate\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            String head = readHead(inputStream);
+            byte[] body = inputStream.readAllBytes();
+
+            // THEN
+            assertTrue(head.contains("Content-Encoding: deflate"));
+            assertEquals("inflate-me", new String(new InflaterInputStream(new ByteArrayInputStream(body)).readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void getFile_conditionalRequestWithCurrentETagIsNotModified() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        Files.writeString(directory.resolve("artifact.txt"), "artifact v1");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            outputStream.write("GET /files/artifact.txt HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            String head = readHead(inputStream);
+            inputStream.readFully(new byte["artifact v1".length()]);
+            String etag = headerValue(head, "ETag");
+            String lastModified = headerValue(head, "Last-Modified");
+
+            // WHEN
+            outputStream.write(("GET /files/artifact.txt HTTP/1.1\r\nHost: localhost:4221\r\n" +
+                    "If-None-Match: \"other\", " + etag + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            String byETag = readHead(inputStream);
+            outputStream.write(("GET /files/artifact.txt HTTP/1.1\r\nHost: localhost:4221\r\n" +
+                    "If-Modified-Since: " + lastModified + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            String byDate = readHead(inputStream);
+            outputStream.write("GET /echo/after HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            String next = readHead(inputStream);
+
+            // THEN
+            assertTrue(head.contains("Accept-Ranges: bytes"));
+            assertTrue(etag.startsWith("\""));
+            assertTrue(byETag.startsWith("HTTP/1.1 304 Not Modified"));
+            assertTrue(byETag.contains("ETag: " + etag));
+            assertFalse(byETag.contains("Content-Length"));
+            assertTrue(byDate.startsWith("HTTP/1.1 304 Not Modified"));
+            assertTrue(next.startsWith("HTTP/1.1 200 OK"));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    public void getFile_notModifiedKeepsTheETagFormOfTheCodedResponse() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        Files.writeString(directory.resolve("notes.txt"), "notes ".repeat(100));
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            outputStream.write("GET /files/notes.txt HTTP/1.1\r\nHost: localhost:4221\r\nAccept-Encoding: gzip\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            String head = readHead(inputStream);
+            inputStream.readFully(new byte[Integer.parseInt(headerValue(head, "Content-Length"))]);
+            String etag = headerValue(head, "ETag");
+
+            // WHEN
+            outputStream.write(("GET /files/notes.txt HTTP/1.1\r\nHost: localhost:4221\r\nAccept-Encoding: gzip\r\n" +
+                    "If-None-Match: " + etag + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            String coded = readHead(inputStream);
+            outputStream.write(("GET /files/notes.txt HTTP/1.1\r\nHost: localhost:4221\r\n" +
+                    "If-None-Match: " + etag + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            String identity = readHead(inputStream);
+
+            // THEN
+            assertTrue(head.contains("Content-Encoding: gzip"), head);
+            assertTrue(etag.startsWith("W/\""), etag);
+            assertTrue(coded.startsWith("HTTP/1.1 304 Not Modified"), coded);
+            assertEquals(etag, headerValue(coded, "ETag"));
+            assertTrue(identity.startsWith("HTTP/1.1 304 Not Modified"), identity);
+            assertEquals(etag.substring(2), headerValue(identity, "ETag"));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    public void getFile_rangeRequestsReturnPartialContent() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        byte[] content = new byte[512 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        Files.write(directory.resolve("download.bin"), content);
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+
+            // WHEN
+            outputStream.write(("GET /files/download.bin HTTP/1.1\r\nHost: localhost:4221\r\n" +
+                    "Range: bytes=100000-\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            String single = readHead(inputStream);
+            byte[] tail = new byte[content.length - 100000];
+            inputStream.readFully(tail);
+
+            outputStream.write(("GET /files/download.bin HTTP/1.1\r\nHost: localhost:4221\r\n" +
+                    "Range: bytes=0-1,-2\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            String multi = readHead(inputStream);
+            byte[] parts = new byte[Integer.parseInt(headerValue(multi, "Content-Length"))];
+            inputStream.readFully(parts);
+
+            outputStream.write(("GET /files/download.bin HTTP/1.1\r\nHost: localhost:4221\r\n" +
+                    "Range: bytes=0-9\r\nIf-Range: \"stale\"\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            String stale = readHead(inputStream);
+            inputStream.readFully(new byte[content.length]);
+
+            outputStream.write(("GET /files/download.bin HTTP/1.1\r\nHost: localhost:4221\r\n" +
+                    "Range: bytes=600000-\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            String unsatisfiable = readHead(inputStream);
+
+            // THEN
+            assertTrue(single.startsWith("HTTP/1.1 206 Partial Content"));
+            assertEquals("bytes 100000-524287/524288", headerValue(single, "Content-Range"));
+            assertArrayEquals(Arrays.copyOfRange(content, 100000, content.length), tail);
+
+            assertTrue(multi.startsWith("HTTP/1.1 206 Partial Content"));
+            String boundary = headerValue(multi, "Content-Type").substring("multipart/byteranges; boundary=".length());
+            String partsText = new String(parts, StandardCharsets.ISO_8859_1);
+            assertTrue(partsText.contains("Content-Range: bytes 0-1/524288\r\n\r\n" + (char) 0 + (char) 1 + "\r\n--" + boundary));
+            assertTrue(partsText.contains("Content-Range: bytes 524286-524287/524288\r\n\r\n"));
+            assertTrue(partsText.endsWith("\r\n--" + boundary + "--\r\n"));
+
+            assertTrue(stale.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(unsatisfiable.startsWith("HTTP/1.1 416 Range Not Satisfiable"));
+            assertEquals("bytes */524288", headerValue(unsatisfiable, "Content-Range"));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    private String headerValue(String head, String name) {
+        for (String line : head.split("\r\n")) {
+            if (line.regionMatches(true, 0, name + ": ", 0, name.length() + 2)) {
+                return line.substring(name.length() + 2);
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void metrics_exposesRouteCountersInPrometheusFormat() throws Exception {
+        // GIVEN
+        exchangeEcho("metered", true);
+        exchangeEcho("metered", false);
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            // WHEN
+            socket.getOutputStream().write("GET /metrics HTTP/1.1\r\nHost: localhost:4221\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            String head = readHead(inputStream);
+            String metrics = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+
+            // THEN
+            assertTrue(head.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(metrics.contains("hts_requests_total{route=\"GET /echo/*message\",status=\"200\"} 2\n"));
+            assertTrue(metrics.contains("hts_request_duration_seconds_count{route=\"GET /echo/*message\"} 2\n"));
+            assertTrue(metrics.contains("hts_compressed_responses_total{encoding=\"gzip\"} 1\n"));
+            assertTrue(metrics.contains("hts_connections_accepted_total 3\n"));
+            assertTrue(metrics.contains("# TYPE hts_connections_open gauge"));
+            assertTrue(metrics.contains("# TYPE hts_executor_rejected_total counter"));
+        }
+    }
+
+    private byte[] readChunkedBody(DataInputStream inputStream) throws IOException {
+        var body = new ByteArrayOutputStream();
+        while (true) {
+            int size = Integer.parseInt(readLine(inputStream), 16);
+            if (size == 0) {
+                assertEquals("", readLine(inputStream));
+                return body.toByteArray();
+            }
+            byte[] chunk = new byte[size];
+            inputStream.readFully(chunk);
+            body.write(chunk);
+            assertEquals("", readLine(inputStream));
+        }
+    }
+
+    private String readLine(InputStream inputStream) throws IOException {
+        var line = new StringBuilder();
+        int b;
+        while ((b = inputStream.read()) != '\n' && b != -1) {
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private void assertBinaryFileServed() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        byte[] content = new byte[512 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Files.write(directory.resolve("binary.bin"), content);
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+
+            // WHEN
+            outputStream.write("GET /files/binary.bin HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            String head = readHead(inputStream);
+            byte[] body = new byte[content.length];
+            inputStream.readFully(body);
+
+            // THEN
+            assertTrue(head.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(head.contains("Content-Length: " + content.length));
+            assertArrayEquals(content, body);
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    void postFile_bodySplitAcrossWritesIsStoredCompletely() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+        byte[] content = new byte[100_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            String head = "POST /files/upload.bin HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Content-Length: " + content.length + "\r\n" +
+                    "\r\n";
+
+            // WHEN
+            outputStream.write(head.getBytes(StandardCharsets.UTF_8));
+            outputStream.write(content, 0, 1000);
+            outputStream.flush();
+            Thread.sleep(200);
+            outputStream.write(content, 1000, content.length - 1000);
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String statusLine = reader.readLine();
+
+            // THEN
+            assertEquals(HTSConstants.HTTP_CREATED, statusLine);
+            assertArrayEquals(content, Files.readAllBytes(directory.resolve("upload.bin")));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    void postFile_chunkedBodyIsDecoded() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            String request = "POST /files/chunked.txt HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Transfer-Encoding: chunked\r\n" +
+                    "\r\n" +
+                    "5\r\nhello\r\n" +
+                    "7;ext=1\r\n chunky\r\n" +
+                    "0\r\n\r\n" +
+                    "GET /echo/next HTTP/1.1\r\nHost: localhost:4221\r\n\r\n";
+
+            // WHEN
+            outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String statusLine = reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                // Skipping header lines
+            }
+
+            // THEN
+            assertEquals(HTSConstants.HTTP_CREATED, statusLine);
+            assertEquals("next", readResponseBody(reader));
+            assertEquals("hello chunky", Files.readString(directory.resolve("chunked.txt")));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    void postFile_chunkSizeThatOverflowsALongIsRejected() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            String request = "POST /files/overflow.txt HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Transfer-Encoding: chunked\r\n" +
+                    "\r\n" +
+                    "8000000000000000\r\nhello\r\n" +
+                    "0\r\n\r\n";
+
+            // WHEN
+            outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String statusLine = reader.readLine();
+
+            // THEN
+            assertEquals(HTSConstants.HTTP_BAD_REQUEST, statusLine);
+            assertFalse(Files.exists(directory.resolve("overflow.txt")));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    void postFile_concurrentUploadsToOneNameLetExactlyOneWin() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+        int uploads = 8;
+        List<Socket> sockets = new ArrayList<>();
+
+        try {
+            // WHEN every upload is past the existence check before any of them finishes
+            for (int i = 0; i < uploads; i++) {
+                Socket socket = new Socket("localhost", 4221);
+                sockets.add(socket);
+                String request = "POST /files/race.txt HTTP/1.1\r\n" +
+                        "Host: localhost:4221\r\n" +
+                        "Content-Type: application/octet-stream\r\n" +
+                        "Content-Length: 8\r\n" +
+                        "\r\n" +
+                        "upload";
+                socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+            }
+            Thread.sleep(300);
+            List<String> statusLines = new ArrayList<>();
+            for (int i = 0; i < uploads; i++) {
+                Socket socket = sockets.get(i);
+                socket.getOutputStream().write(String.format("%02d", i).getBytes(StandardCharsets.UTF_8));
+                statusLines.add(new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine());
+            }
+
+            // THEN
+            assertEquals(1, statusLines.stream().filter(HTSConstants.HTTP_CREATED::equals).count());
+            assertEquals(uploads - 1, statusLines.stream().filter(line -> line.startsWith("HTTP/1.1 409")).count());
+            String winner = String.format("%02d", statusLines.indexOf(HTSConstants.HTTP_CREATED));
+            assertEquals("upload" + winner, Files.readString(directory.resolve("race.txt")));
+            try (var files = Files.list(directory)) {
+                assertEquals(List.of(directory.resolve("race.txt")), files.toList());
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    void listFiles_pagesThroughTheDirectoryByName() throws Exception {
+        // GIVEN
+        stopServer();
+        Path directory = Files.createTempDirectory("hts");
+        Files.writeString(directory.resolve("b.txt"), "bb");
+        Files.writeString(directory.resolve("a.txt"), "a");
+        Files.createDirectories(directory.resolve("docs"));
+        Files.writeString(directory.resolve("docs/c.json"), "{}");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+        startServer(new HTSController());
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            // WHEN
+            outputStream.write("GET /files/?limit=2 HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+            String firstPage = readResponseBody(reader);
+            outputStream.write("GET /files/?limit=2&after=b.txt HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+            String secondPage = readResponseBody(reader);
+
+            // THEN
+            assertTrue(firstPage.startsWith("{\"files\":[{\"name\":\"a.txt\",\"size\":1,\"modified\":\""), firstPage);
+            assertTrue(firstPage.contains("{\"name\":\"b.txt\",\"size\":2,"), firstPage);
+            assertTrue(firstPage.endsWith("],\"next\":\"b.txt\"}"), firstPage);
+            assertTrue(secondPage.contains("\"name\":\"docs/c.json\",\"size\":2,"), secondPage);
+            assertTrue(secondPage.contains("\"contentType\":\"application/json\""), secondPage);
+            assertTrue(secondPage.endsWith("],\"next\":null}"), secondPage);
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    void postFile_bodyAboveLimitIsRejected() throws Exception {
+        long previousMaxBodySize = AppConfig.maxBodySize;
+        AppConfig.maxBodySize = 10;
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            String request = "POST /files/big HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Content-Length: 11\r\n" +
+                    "\r\n" +
+                    "12345678901";
+
+            // WHEN
+            outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String statusLine = reader.readLine();
+
+            // THEN
+            assertEquals(HTSConstants.HTTP_PAYLOAD_TOO_LARGE, statusLine);
+        } finally {
+            AppConfig.maxBodySize = previousMaxBodySize;
+        }
+    }
+
+    @Test
+    public void concurrentMixedGzipEchoRequestsGetTheirOwnResponses() throws Exception {
+        // GIVEN
+        int requests = 4000;
+        long countBefore = controller.getService().getRequestCount();
+        ExecutorService clients = Executors.newFixedThreadPool(64);
+        List<Future<String>> results = new ArrayList<>();
+
+        // WHEN
+        for (int i = 0; i < requests; i++) {
+            int id = i;
+            results.add(clients.submit(() -> exchangeEcho("request-" + id, id % 2 == 0)));
+        }
+
+        // THEN
+        try {
+            for (int i = 0; i < requests; i++) {
+                assertEquals("request-" + i + (i % 2 == 0 ? "/gzip" : "/plain"), results.get(i).get());
+            }
+        } finally {
+            clients.shutdown();
+        }
+        // Counted once each response is written, which may trail the client reading it
+        stopServer();
+        assertEquals(countBefore + requests, controller.getService().getRequestCount());
+    }
+
+    private String exchangeEcho(String param, boolean gzip) throws IOException {
+        try (Socket socket = new Socket("localhost", 4221)) {
+            String request = "GET /echo/" + param + " HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    (gzip ? "Accept-Encoding: gzip\r\n" : "") +
+                    "Connection: close\r\n" +
+                    "\r\n";
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            String head = readHead(inputStream);
+            int lengthStart = head.indexOf("Content-Length: ") + "Content-Length: ".length();
+            byte[] body = new byte[Integer.parseInt(head.substring(lengthStart, head.indexOf("\r\n", lengthStart)))];
+            inputStream.readFully(body);
+
+            boolean gzipped = head.contains("Content-Encoding: gzip");
+            if (gzipped) {
+                body = new GZIPInputStream(new ByteArrayInputStream(body)).readAllBytes();
+            }
+            return new String(body, StandardCharsets.UTF_8) + (gzipped ? "/gzip" : "/plain");
+        }
+    }
+
+    private String readHead(InputStream inputStream) throws IOException {
+        var head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = inputStream.read();
+            if (b == -1) {
+                break;
+            }
+            head.write(b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return head.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void boundedExecutor_shedsConnectionsWhenSaturated() throws Exception {
+        // GIVEN
+        stopServer();
+        var executor = new BoundedConnectionExecutor(1, 0);
+        startServer(new HTSController(executor));
+
+        try (Socket busySocket = new Socket("localhost", 4221)) {
+            OutputStream busyOutput = busySocket.getOutputStream();
+            busyOutput.write("GET /echo/busy HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            busyOutput.flush();
+            assertEquals("busy", readResponseBody(new BufferedReader(new InputStreamReader(busySocket.getInputStream()))));
+
+            // WHEN
+            try (Socket shedSocket = new Socket("localhost", 4221)) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(shedSocket.getInputStream()));
+                String statusLine = reader.readLine();
+
+                // THEN
+                assertEquals(HTSConstants.HTTP_SERVICE_UNAVAILABLE, statusLine);
+                assertEquals(1, executor.rejectedCount());
+                assertEquals(1, executor.activeCount());
+            }
+        }
+    }
+
+    @Test
+    public void run_servesAConfiguredPortThroughReusePortAcceptors() throws Exception {
+        // GIVEN
+        stopServer();
+        AppConfig.port = 4222;
+        AppConfig.acceptors = 4;
+        AppConfig.reusePort = true;
+        AppConfig.socketReceiveBuffer = 256 * 1024;
+        try {
+            startServer(new HTSController());
+
+            // WHEN
+            for (int i = 0; i < 20; i++) {
+                try (Socket socket = new Socket("localhost", 4222)) {
+                    socket.getOutputStream().write(("GET / HTTP/1.1\r\nHost: localhost:4222\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+
+                    // THEN
+                    assertEquals("HTTP/1.1 200 OK", new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine());
+                }
+            }
+            assertThrows(IOException.class, () -> new Socket("localhost", 4221).close());
+        } finally {
+            AppConfig.port = 4221;
+            AppConfig.acceptors = 1;
+            AppConfig.reusePort = false;
+            AppConfig.socketReceiveBuffer = 0;
+        }
+    }
+
+    @Test
+    public void stopServer_letsAnInFlightUploadFinishWithConnectionClose() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket idleSocket = new Socket("localhost", 4221);
+             Socket uploadSocket = new Socket("localhost", 4221)) {
+            idleSocket.getOutputStream().write("GET /echo/idle HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            InputStream idleInput = idleSocket.getInputStream();
+            readHead(idleInput);
+            assertEquals("idle", new String(idleInput.readNBytes(4), StandardCharsets.UTF_8));
+            OutputStream uploadOutput = uploadSocket.getOutputStream();
+            uploadOutput.write(("POST /files/drained.txt HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Content-Length: 10\r\n" +
+                    "\r\n" +
+                    "hello").getBytes(StandardCharsets.UTF_8));
+            uploadOutput.flush();
+            Thread.sleep(100);
+
+            // WHEN
+            Thread stopper = Thread.ofVirtual().start(controller::stopServer);
+            assertEquals(-1, idleInput.read());
+            assertThrows(IOException.class, () -> new Socket("localhost", 4221).close());
+            uploadOutput.write("world".getBytes(StandardCharsets.UTF_8));
+            uploadOutput.flush();
+            InputStream uploadInput = uploadSocket.getInputStream();
+            String head = readHead(uploadInput);
+            stopper.join();
+
+            // THEN
+            assertTrue(head.startsWith(HTSConstants.HTTP_CREATED));
+            assertEquals("close", headerValue(head, "Connection"));
+            uploadInput.transferTo(OutputStream.nullOutputStream());
+            assertEquals("helloworld", Files.readString(directory.resolve("drained.txt")));
+            assertEquals(0, controller.getService().getConnections().getAbortedRequests());
+            assertEquals(0, controller.getService().getConnections().getOpenConnections());
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    public void stopServer_abortsRequestsStillRunningAtTheDeadline() throws Exception {
+        // GIVEN
+        long previousTimeout = AppConfig.shutdownTimeoutMillis;
+        AppConfig.shutdownTimeoutMillis = 300;
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            socket.getOutputStream().write(("POST /files/stalled.txt HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Content-Length: 10\r\n" +
+                    "\r\n" +
+                    "hel").getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            Thread.sleep(100);
+
+            // WHEN
+            long start = System.nanoTime();
+            controller.stopServer();
+
+            // THEN
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertEquals(1, controller.getService().getConnections().getAbortedRequests());
+            assertTrue(controller.getService().getMetrics().scrape().contains("hts_requests_aborted_total 1"));
+        } finally {
+            AppConfig.shutdownTimeoutMillis = previousTimeout;
+        }
+    }
+
+    @Test
+    public void admission_rateLimitsUploadsPerClient() throws Exception {
+        // GIVEN
+        stopServer();
+        Path directory = Files.createTempDirectory("hts");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+        AppConfig.uploadRateLimit = 0.1;
+        AppConfig.uploadRateLimitBurst = 2;
+        try {
+            startServer(new HTSController());
+            List<String> heads = new ArrayList<>();
+
+            // WHEN
+            for (int i = 0; i < 3; i++) {
+                try (Socket socket = new Socket("localhost", 4221)) {
+                    socket.getOutputStream().write(("POST /files/limited-" + i + ".txt HTTP/1.1\r\n" +
+                            "Host: localhost:4221\r\n" +
+                            "Content-Type: application/octet-stream\r\n" +
+                            "Content-Length: 5\r\n" +
+                            "\r\n" +
+                            "hello").getBytes(StandardCharsets.UTF_8));
+                    heads.add(readHead(socket.getInputStream()));
+                }
+            }
+
+            // THEN
+            assertTrue(heads.get(0).startsWith(HTSConstants.HTTP_CREATED));
+            assertTrue(heads.get(1).startsWith(HTSConstants.HTTP_CREATED));
+            assertTrue(heads.get(2).startsWith(HTSConstants.HTTP_TOO_MANY_REQUESTS));
+            assertEquals("1", headerValue(heads.get(2), "Retry-After"));
+            assertEquals("close", headerValue(heads.get(2), "Connection"));
+            assertFalse(Files.exists(directory.resolve("limited-2.txt")));
+            assertEquals("other/plain", exchangeEcho("other", false));
+            assertTrue(controller.getService().getMetrics().scrape()
+                    .contains("hts_admission_rejected_total{reason=\"route_rate_limit\"} 1"));
+        } finally {
+            AppConfig.directory = previousDirectory;
+            AppConfig.uploadRateLimit = 0;
+            AppConfig.uploadRateLimitBurst = 10;
+        }
+    }
+
+    @Test
+    public void admission_capsConnectionsPerAddressAndRequestsInFlight() throws Exception {
+        // GIVEN
+        stopServer();
+        AppConfig.maxConnectionsPerAddress = 2;
+        AppConfig.maxInFlightRequests = 1;
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        try {
+            var newController = new HTSController();
+            newController.getService().getRouter().get("/slow", context -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return HttpResponse.status(HttpStatus.OK).text("slow");
+            });
+            startServer(newController);
+
+            try (Socket slowSocket = new Socket("localhost", 4221);
+                 Socket secondSocket = new Socket("localhost", 4221)) {
+                slowSocket.getOutputStream().write("GET /slow HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+
+                // WHEN
+                String refused;
+                try (Socket thirdSocket = new Socket("localhost", 4221)) {
+                    refused = readHead(thirdSocket.getInputStream());
+                }
+                secondSocket.getOutputStream().write("GET /echo/second HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+                String overloaded = readHead(secondSocket.getInputStream());
+                release.countDown();
+
+                // THEN
+                assertTrue(overloaded.startsWith(HTSConstants.HTTP_SERVICE_UNAVAILABLE));
+                assertTrue(refused.startsWith(HTSConstants.HTTP_TOO_MANY_REQUESTS));
+                assertEquals("slow", readResponseBody(new BufferedReader(new InputStreamReader(slowSocket.getInputStream()))));
+                String metrics = controller.getService().getMetrics().scrape();
+                assertTrue(metrics.contains("hts_admission_rejected_total{reason=\"in_flight_limit\"} 1"));
+                assertTrue(metrics.contains("hts_admission_rejected_total{reason=\"connection_limit\"} 1"));
+            }
+        } finally {
+            release.countDown();
+            AppConfig.maxConnectionsPerAddress = 0;
+            AppConfig.maxInFlightRequests = 0;
+        }
+    }
+
+    @Test
+    public void readDeadlines_closeConnectionsThatTrickleTheirHeadOrBody() throws Exception {
+        // GIVEN
+        long previousHeaderTimeout = AppConfig.headerTimeoutMillis;
+        long previousBodyTimeout = AppConfig.bodyTimeoutMillis;
+        AppConfig.headerTimeoutMillis = 500;
+        AppConfig.bodyTimeoutMillis = 500;
+        try (Socket slowHead = new Socket("localhost", 4221);
+             Socket slowBody = new Socket("localhost", 4221)) {
+            slowBody.getOutputStream().write(("POST /files/slow.txt HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Content-Length: 10\r\n" +
+                    "\r\n" +
+                    "abc").getBytes(StandardCharsets.UTF_8));
+            long start = System.nanoTime();
+
+            // WHEN every byte arrives well within any per-read timeout
+            boolean headCut = false;
+            try {
+                OutputStream output = slowHead.getOutputStream();
+                output.write("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+                for (int i = 0; i < 50; i++) {
+                    output.write('X');
+                    output.flush();
+                    Thread.sleep(100);
+                }
+            } catch (IOException e) {
+                headCut = true;
+            }
+            int bodyRead = slowBody.getInputStream().read();
+
+            // THEN
+            assertTrue(headCut);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+            assertEquals(-1, bodyRead);
+            String metrics = controller.getService().getMetrics().scrape();
+            assertTrue(metrics.contains("hts_deadline_closed_connections_total{deadline=\"header\"} 1"));
+            assertTrue(metrics.contains("hts_deadline_closed_connections_total{deadline=\"body\"} 1"));
+        } finally {
+            AppConfig.headerTimeoutMillis = previousHeaderTimeout;
+            AppConfig.bodyTimeoutMillis = previousBodyTimeout;
+        }
+    }
+
+    @Test
+    public void stopServer_closesTheDirectoryIndex() throws Exception {
+        // GIVEN
+        stopServer();
+        Path directory = Files.createTempDirectory("hts");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+        long watchersBefore = directoryWatchers();
+        try {
+            startServer(new HTSController());
+            assertEquals(watchersBefore + 1, directoryWatchers());
+
+            // WHEN
+            stopServer();
+
+            // THEN
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (directoryWatchers() > watchersBefore && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(watchersBefore, directoryWatchers());
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    private static long directoryWatchers() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("hts-directory-watch"))
+                .count();
+    }
+
+    private String readResponseBody(BufferedReader reader) throws IOException {
+        String statusLine = reader.readLine();
+        assertEquals("HTTP/1.1 200 OK", statusLine);
+
+        int contentLength = 0;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            if (line.startsWith("Content-Length:")) {
+                contentLength = Integer.parseInt(line.substring("Content-Length:".length()).trim());
+            }
+        }
+
+        char[] body = new char[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            read += reader.read(body, read, contentLength - read);
+        }
+        return new String(body);
+    }
+}
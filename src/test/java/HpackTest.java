@@ -0,0 +1,61 @@
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HpackTest {
+
+    @Test
+    void decode_huffmanRequestsFromRfc7541AppendixC4() throws Exception {
+        // GIVEN
+        var decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        byte[] first = HexFormat.of().parseHex("828684418cf1e3c2e5f23a6ba0ab90f4ff");
+        byte[] second = HexFormat.of().parseHex("828684be5886a8eb10649cbf");
+        byte[] third = HexFormat.of().parseHex("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf");
+
+        // WHEN
+        List<String> firstFields = decode(decoder, first);
+        List<String> secondFields = decode(decoder, second);
+        List<String> thirdFields = decode(decoder, third);
+
+        // THEN
+        assertEquals(List.of(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com"), firstFields);
+        assertEquals(List.of(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com", "cache-control: no-cache"), secondFields);
+        assertEquals(List.of(":method: GET", ":scheme: https", ":path: /index.html", ":authority: www.example.com", "custom-key: custom-value"), thirdFields);
+        assertEquals(164, decoder.getTableSize());
+    }
+
+    @Test
+    void encoder_roundTripsThroughTheDecoder() throws Exception {
+        // GIVEN
+        var encoder = new Hpack.Encoder()
+                .header(":status", "200")
+                .header(":status", "201")
+                .header("content-type", "text/plain")
+                .header("x-trace", "Ünïcode-free but Latin-1");
+
+        // WHEN
+        List<String> fields = decode(new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE), encoder.toByteArray());
+
+        // THEN
+        assertEquals(List.of(":status: 200", ":status: 201", "content-type: text/plain", "x-trace: Ünïcode-free but Latin-1"), fields);
+        assertEquals((byte) 0x88, encoder.toByteArray()[0]);
+    }
+
+    @Test
+    void decode_rejectsBadIndexesAndPadding() {
+        var decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        assertThrows(Http2Exception.class, () -> decode(decoder, new byte[]{(byte) 0xBE}));
+        // "a" Huffman-coded (00011) padded with zeros instead of EOS bits
+        assertThrows(Http2Exception.class, () -> decode(decoder, new byte[]{0x00, 0x01, 0x61, (byte) 0x81, 0x18}));
+    }
+
+    private static List<String> decode(Hpack.Decoder decoder, byte[] block) throws Http2Exception {
+        List<String> fields = new ArrayList<>();
+        decoder.decode(block, 0, block.length, (name, value) -> fields.add(name + ": " + value));
+        return fields;
+    }
+}
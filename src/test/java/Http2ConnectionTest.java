@@ -0,0 +1,211 @@
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Http2ConnectionTest {
+
+    private static Thread serverThread;
+    private static HTSController controller;
+
+    @BeforeEach
+    public void startServer() {
+        controller = new HTSController();
+        serverThread = new Thread(() -> {
+            controller.run();
+        });
+        serverThread.start();
+
+        try {
+            assertTrue(controller.awaitReady(10, TimeUnit.SECONDS), "Server did not start");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @AfterEach
+    public void stopServer() {
+        controller.stopServer();
+        try {
+            serverThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void upgrade_servesConcurrentRequestsOverOneConnection() throws Exception {
+        // GIVEN
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+
+        // WHEN
+        HttpResponse<String> first = client.send(request("/echo/first"), HttpResponse.BodyHandlers.ofString());
+        for (int i = 0; i < 50; i++) {
+            responses.add(client.sendAsync(request("/echo/hello-" + i), HttpResponse.BodyHandlers.ofString()));
+        }
+
+        // THEN
+        assertEquals(HttpClient.Version.HTTP_2, first.version());
+        assertEquals("first", first.body());
+        for (int i = 0; i < responses.size(); i++) {
+            HttpResponse<String> response = responses.get(i).join();
+            assertEquals(HttpClient.Version.HTTP_2, response.version());
+            assertEquals(200, response.statusCode());
+            assertEquals("hello-" + i, response.body());
+        }
+    }
+
+    @Test
+    public void upgrade_uploadsAndDownloadsBodiesLargerThanTheWindow() throws Exception {
+        // GIVEN
+        String previousDirectory = AppConfig.directory;
+        Path directory = Files.createTempDirectory("hts");
+        AppConfig.directory = directory.toString();
+        byte[] content = new byte[1024 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+
+        try {
+            // WHEN
+            client.send(request("/echo/warmup"), HttpResponse.BodyHandlers.discarding());
+            HttpResponse<Void> created = client.send(HttpRequest.newBuilder(URI.create("http://localhost:4221/files/big.bin"))
+                    .header("Content-Type", "application/octet-stream")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(content)).build(), HttpResponse.BodyHandlers.discarding());
+            HttpResponse<byte[]> downloaded = client.send(request("/files/big.bin"), HttpResponse.BodyHandlers.ofByteArray());
+
+            // THEN
+            assertEquals(201, created.statusCode());
+            assertEquals(HttpClient.Version.HTTP_2, downloaded.version());
+            assertArrayEquals(content, downloaded.body());
+            assertArrayEquals(content, Files.readAllBytes(directory.resolve("big.bin")));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    public void priorKnowledge_multiplexesStreamsAndAnswersPing() throws Exception {
+        try (Socket socket = new Socket("localhost", 4221)) {
+            // GIVEN
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(Http2Connection.PREFACE);
+            writeFrame(out, Http2Connection.SETTINGS, 0, 0, new byte[0]);
+
+            // WHEN
+            writeFrame(out, Http2Connection.HEADERS, Http2Connection.FLAG_END_HEADERS | Http2Connection.FLAG_END_STREAM, 1,
+                    requestHeaders("GET", "/echo/one"));
+            writeFrame(out, Http2Connection.HEADERS, Http2Connection.FLAG_END_HEADERS | Http2Connection.FLAG_END_STREAM, 3,
+                    requestHeaders("GET", "/missing"));
+            writeFrame(out, Http2Connection.PING, 0, 0, "8 bytes!".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            // THEN
+            Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+            Map<Integer, String> statuses = new HashMap<>();
+            Map<Integer, ByteArrayOutputStream> bodies = new HashMap<>();
+            int ended = 0;
+            boolean ponged = false;
+            while (ended < 2 || !ponged) {
+                int length = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+                int type = in.readUnsignedByte();
+                int flags = in.readUnsignedByte();
+                int streamId = in.readInt();
+                byte[] payload = in.readNBytes(length);
+                if (type == Http2Connection.HEADERS) {
+                    decoder.decode(payload, 0, length, (name, value) -> {
+                        if (name.equals(":status")) {
+                            statuses.put(streamId, value);
+                        }
+                    });
+                } else if (type == Http2Connection.DATA) {
+                    bodies.computeIfAbsent(streamId, id -> new ByteArrayOutputStream()).write(payload);
+                } else if (type == Http2Connection.PING) {
+                    assertEquals(Http2Connection.FLAG_ACK, flags);
+                    assertEquals("8 bytes!", new String(payload, StandardCharsets.US_ASCII));
+                    ponged = true;
+                }
+                if ((type == Http2Connection.HEADERS || type == Http2Connection.DATA) && (flags & Http2Connection.FLAG_END_STREAM) != 0) {
+                    ended++;
+                }
+            }
+            assertEquals("200", statuses.get(1));
+            assertEquals("one", bodies.get(1).toString(StandardCharsets.UTF_8));
+            assertEquals("404", statuses.get(3));
+        }
+    }
+
+    @Test
+    public void priorKnowledge_closesAConnectionThatTricklesAFrame() throws Exception {
+        long previousHeaderTimeout = AppConfig.headerTimeoutMillis;
+        AppConfig.headerTimeoutMillis = 500;
+        try (Socket socket = new Socket("localhost", 4221)) {
+            // GIVEN
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.write(Http2Connection.PREFACE);
+            writeFrame(out, Http2Connection.SETTINGS, 0, 0, new byte[0]);
+            out.flush();
+            long start = System.nanoTime();
+
+            // WHEN a frame header arrives a byte at a time, each well within any per-read timeout
+            boolean cut = false;
+            try {
+                for (int i = 0; i < 50; i++) {
+                    out.write(0);
+                    out.flush();
+                    Thread.sleep(100);
+                }
+            } catch (IOException e) {
+                cut = true;
+            }
+
+            // THEN
+            assertTrue(cut);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+            String metrics = controller.getService().getMetrics().scrape();
+            assertTrue(metrics.contains("hts_deadline_closed_connections_total{deadline=\"header\"} 1"), metrics);
+        } finally {
+            AppConfig.headerTimeoutMillis = previousHeaderTimeout;
+        }
+    }
+
+    private static HttpRequest request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:4221" + path)).GET().build();
+    }
+
+    private static byte[] requestHeaders(String method, String path) {
+        return new Hpack.Encoder()
+                .header(":method", method)
+                .header(":scheme", "http")
+                .header(":path", path)
+                .header(":authority", "localhost:4221")
+                .toByteArray();
+    }
+
+    private static void writeFrame(DataOutputStream out, int type, int flags, int streamId, byte[] payload) throws IOException {
+        out.writeShort(payload.length >>> 8);
+        out.writeByte(payload.length);
+        out.writeByte(type);
+        out.writeByte(flags);
+        out.writeInt(streamId);
+        out.write(payload);
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.jupiter.api.*;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpRequestParserTest {
+
+    private final HttpRequestParser parser = new HttpRequestParser(64, 256);
+
+    @Test
+    void parse_readsRequestLineAndHeaders() throws Exception {
+        // GIVEN
+        byte[] bytes = ("\r\nPOST /files/a%20b HTTP/1.1\r\n" +
+                "Host: localhost:4221\r\n" +
+                "content-length:  12 \r\n" +
+                "Connection: keep-alive, Upgrade\r\n" +
+                "\r\n" +
+                "body").getBytes(StandardCharsets.US_ASCII);
+
+        // WHEN
+        int headEnd = parser.parse(bytes, 0, bytes.length);
+        HttpRequest request = parser.getRequest();
+
+        // THEN
+        assertEquals(bytes.length - 4, headEnd);
+        assertEquals(HttpMethod.POST, request.getMethod());
+        assertEquals("/files/a%20b", request.getPath());
+        assertTrue(request.isHttp11());
+        assertEquals("localhost:4221", request.header("HOST"));
+        assertEquals(12, request.headerAsLong("Content-Length", -1));
+        assertTrue(request.headerContainsToken("connection", "upgrade"));
+        assertFalse(request.headerContainsToken("Connection", "close"));
+        assertNull(request.header("User-Agent"));
+    }
+
+    @Test
+    void parse_needsMoreUntilHeadIsComplete() throws Exception {
+        byte[] bytes = "GET / HTTP/1.0\r\nHost: localhost\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(HttpRequestParser.NEED_MORE, parser.parse(bytes, 0, bytes.length));
+    }
+
+    @Test
+    void parse_unknownMethodIsReported() throws Exception {
+        byte[] bytes = "BREW /pot HTTP/1.0\n\n".getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(bytes.length, parser.parse(bytes, 0, bytes.length));
+        assertEquals(HttpMethod.UNKNOWN, parser.getRequest().getMethod());
+        assertFalse(parser.getRequest().isHttp11());
+    }
+
+    @Test
+    void parse_enforcesLimits() {
+        byte[] longLine = ("GET /" + "a".repeat(100) + " HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] largeHeaders = ("GET / HTTP/1.1\r\nCookie: " + "c".repeat(300)).getBytes(StandardCharsets.US_ASCII);
+        byte[] badVersion = "GET / HTTP/2.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        var uriTooLong = assertThrows(HttpParseException.class, () -> parser.parse(longLine, 0, longLine.length));
+        var headersTooLarge = assertThrows(HttpParseException.class, () -> parser.parse(largeHeaders, 0, largeHeaders.length));
+        var badRequest = assertThrows(HttpParseException.class, () -> parser.parse(badVersion, 0, badVersion.length));
+
+        assertEquals(HttpStatus.URI_TOO_LONG, uriTooLong.getStatus());
+        assertEquals(HttpStatus.HEADERS_TOO_LARGE, headersTooLarge.getStatus());
+        assertEquals(HttpStatus.BAD_REQUEST, badRequest.getStatus());
+    }
+}
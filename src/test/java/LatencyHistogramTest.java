@@ -0,0 +1,53 @@
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void valueAtPercentile_staysWithinOnePercent() {
+        // GIVEN
+        var histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        // WHEN / THEN
+        assertEquals(100_000, histogram.getTotalCount());
+        assertEquals(1000, histogram.getMin());
+        assertEquals(100_000_000, histogram.getMax());
+        assertEquals(50_000_000, histogram.valueAtPercentile(50), 500_000);
+        assertEquals(99_000_000, histogram.valueAtPercentile(99), 990_000);
+        assertEquals(99_900_000, histogram.valueAtPercentile(99.9), 999_000);
+        assertEquals(100_000_000, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    void add_mergesCountsAndExtremes() {
+        // GIVEN
+        var fast = new LatencyHistogram();
+        var slow = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            fast.record(200);
+        }
+        slow.record(5_000_000_000L);
+
+        // WHEN
+        fast.add(slow);
+
+        // THEN
+        assertEquals(100, fast.getTotalCount());
+        assertEquals(200, fast.valueAtPercentile(99));
+        assertEquals(5_000_000_000L, fast.valueAtPercentile(99.9), 50_000_000);
+        assertEquals(5_000_000_000L, fast.getMax());
+    }
+
+    @Test
+    void indexOf_roundTripsThroughBucketBounds() {
+        for (long value : new long[]{0, 1, 255, 256, 257, 1_000_000, Long.MAX_VALUE / 3}) {
+            long highest = LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= Math.max(1, value / 128));
+        }
+    }
+}
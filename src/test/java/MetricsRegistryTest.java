@@ -0,0 +1,38 @@
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+    @Test
+    void scrape_rendersCountersGaugesAndCumulativeBuckets() {
+        // GIVEN
+        var registry = new MetricsRegistry();
+        registry.counter("hts_requests_total", "Requests", "route=\"GET /echo/\"").add(3);
+        registry.gauge("hts_connections_open", "Open connections", "", () -> 7);
+        var histogram = registry.histogram("hts_request_duration_seconds", "Latency", "route=\"GET /echo/\"", 0.001, 0.01);
+        histogram.recordNanos(500_000);
+        histogram.recordNanos(5_000_000);
+        histogram.recordNanos(50_000_000);
+
+        // WHEN
+        String text = registry.scrape();
+
+        // THEN
+        assertTrue(text.contains("# TYPE hts_requests_total counter\nhts_requests_total{route=\"GET /echo/\"} 3\n"));
+        assertTrue(text.contains("# TYPE hts_connections_open gauge\nhts_connections_open 7\n"));
+        assertTrue(text.contains("hts_request_duration_seconds_bucket{route=\"GET /echo/\",le=\"0.001\"} 1\n"));
+        assertTrue(text.contains("hts_request_duration_seconds_bucket{route=\"GET /echo/\",le=\"0.01\"} 2\n"));
+        assertTrue(text.contains("hts_request_duration_seconds_bucket{route=\"GET /echo/\",le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("hts_request_duration_seconds_sum{route=\"GET /echo/\"} 0.0555\n"));
+        assertTrue(text.contains("hts_request_duration_seconds_count{route=\"GET /echo/\"} 3\n"));
+    }
+
+    @Test
+    void counter_returnsTheSameSeriesForTheSameLabels() {
+        var registry = new MetricsRegistry();
+        assertSame(registry.counter("a_total", "A", "x=\"1\""), registry.counter("a_total", "A", "x=\"1\""));
+        assertNotSame(registry.counter("a_total", "A", "x=\"1\""), registry.counter("a_total", "A", "x=\"2\""));
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("a_total", "A", "", () -> 1));
+    }
+}
@@ -0,0 +1,399 @@
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioServerTest {
+
+    private static Thread serverThread;
+    private static NioServer server;
+
+    @BeforeEach
+    public void startServer() {
+        server = new NioServer(2);
+        serverThread = new Thread(() -> {
+            server.run();
+        });
+        serverThread.start();
+
+        try {
+            assertTrue(server.awaitReady(10, TimeUnit.SECONDS), "Server did not start");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stopServer();
+        try {
+            serverThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testValidRequest() throws Exception {
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write("GET / HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String responseLine = reader.readLine();
+
+            assertEquals("HTTP/1.1 200 OK", responseLine);
+        }
+    }
+
+    @Test
+    public void testPipelinedRequestsSplitAcrossWrites() throws Exception {
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            String request = "GET /echo/one HTTP/1.1\r\nHost: localhost:4221\r\n\r\n" +
+                    "GET /user-agent HTTP/1.1\r\nHost: localhost:4221\r\nUser-Agent: nio/1.0\r\n\r\n" +
+                    "GET /echo/three HTTP/1.1\r\nHost: localhost:4221\r\n\r\n";
+            byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+
+            // WHEN
+            outputStream.write(bytes, 0, 30);
+            outputStream.flush();
+            Thread.sleep(100);
+            outputStream.write(bytes, 30, bytes.length - 30);
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            // THEN
+            assertEquals("one", readResponseBody(reader));
+            assertEquals("nio/1.0", readResponseBody(reader));
+            assertEquals("three", readResponseBody(reader));
+        }
+    }
+
+    @Test
+    public void testConnectionClose() throws Exception {
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            String request = "GET /echo/bye HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Connection: close\r\n" +
+                    "\r\n";
+
+            // WHEN
+            outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            // THEN
+            assertEquals("bye", readResponseBody(reader));
+            assertEquals(-1, reader.read());
+        }
+    }
+
+    @Test
+    public void testGetLargeFileWithTransferTo() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        byte[] content = new byte[8 * 1024 * 1024];
+        new Random(42).nextBytes(content);
+        Files.write(directory.resolve("large.bin"), content);
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+
+            // WHEN
+            outputStream.write(("GET /files/large.bin HTTP/1.1\r\nHost: localhost:4221\r\n\r\n" +
+                    "GET /echo/after HTTP/1.1\r\nHost: localhost:4221\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            String head = readHead(inputStream);
+            byte[] body = new byte[content.length];
+            inputStream.readFully(body);
+            String nextHead = readHead(inputStream);
+
+            // THEN
+            assertTrue(head.startsWith("HTTP/1.1 200 OK"));
+            assertArrayEquals(content, body);
+            assertTrue(nextHead.startsWith("HTTP/1.1 200 OK"));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    void postFile_chunkedBodyIsDecoded() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            String request = "POST /files/chunked.txt HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Transfer-Encoding: chunked\r\n" +
+                    "\r\n" +
+                    "5\r\nhello\r\n" +
+                    "7\r\n chunky\r\n" +
+                    "0\r\n\r\n";
+            byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+
+            // WHEN
+            outputStream.write(bytes, 0, bytes.length - 10);
+            outputStream.flush();
+            Thread.sleep(100);
+            outputStream.write(bytes, bytes.length - 10, 10);
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String statusLine = reader.readLine();
+
+            // THEN
+            assertEquals(HTSConstants.HTTP_CREATED, statusLine);
+            assertEquals("hello chunky", Files.readString(directory.resolve("chunked.txt")));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    private String readHead(InputStream inputStream) throws IOException {
+        var head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = inputStream.read();
+            if (b == -1) {
+                break;
+            }
+            head.write(b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return head.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void postFile_chunkSizeThatOverflowsALongIsRejected() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            OutputStream outputStream = socket.getOutputStream();
+            String request = "POST /files/overflow.txt HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Transfer-Encoding: chunked\r\n" +
+                    "\r\n" +
+                    "8000000000000000\r\nhello\r\n" +
+                    "0\r\n\r\n";
+
+            // WHEN
+            outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String statusLine = reader.readLine();
+
+            // THEN
+            assertEquals(HTSConstants.HTTP_BAD_REQUEST, statusLine);
+            assertFalse(Files.exists(directory.resolve("overflow.txt")));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    void postFile_contentLengthMissing() throws IOException {
+        try (Socket socket = new Socket("localhost", 4221)) {
+
+            // GIVEN
+            OutputStream outputStream = socket.getOutputStream();
+
+            String request = "POST /files/number HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "\r\n";
+
+            // WHEN
+            outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String responseLine = reader.readLine();
+
+            // THEN
+            assertEquals(HTSConstants.HTTP_BAD_REQUEST, responseLine);
+        }
+    }
+
+    @Test
+    void postFile_bodyAboveTheNioLimitIsRejectedBeforeItIsBuffered() throws IOException {
+        long previousNioMaxBodySize = AppConfig.nioMaxBodySize;
+        AppConfig.nioMaxBodySize = 10;
+        try (Socket socket = new Socket("localhost", 4221)) {
+
+            // GIVEN
+            OutputStream outputStream = socket.getOutputStream();
+
+            String request = "POST /files/big HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Content-Length: 1000000\r\n" +
+                    "\r\n";
+
+            // WHEN
+            outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String responseLine = reader.readLine();
+
+            // THEN
+            assertEquals("HTTP/1.1 413 Payload Too Large", responseLine);
+        } finally {
+            AppConfig.nioMaxBodySize = previousNioMaxBodySize;
+        }
+    }
+
+    @Test
+    void requestWithABody_runsOffTheEventLoop() throws Exception {
+        // GIVEN
+        var release = new CountDownLatch(1);
+        server.getService().getRouter().post("/slow", context -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return HttpResponse.status(HttpStatus.OK).text("slow");
+        });
+        try (Socket slow = new Socket("localhost", 4221);
+             Socket first = new Socket("localhost", 4221);
+             Socket second = new Socket("localhost", 4221)) {
+            slow.getOutputStream().write(("POST /slow HTTP/1.1\r\nHost: localhost:4221\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nhi" +
+                    "GET /echo/after HTTP/1.1\r\nHost: localhost:4221\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            slow.getOutputStream().flush();
+
+            // WHEN both event loops are asked for more while the slow request is blocked
+            for (Socket socket : new Socket[]{first, second}) {
+                socket.getOutputStream().write("GET /echo/quick HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+                socket.getOutputStream().flush();
+            }
+
+            // THEN
+            assertEquals("quick", readResponseBody(new BufferedReader(new InputStreamReader(first.getInputStream()))));
+            assertEquals("quick", readResponseBody(new BufferedReader(new InputStreamReader(second.getInputStream()))));
+            release.countDown();
+            BufferedReader slowReader = new BufferedReader(new InputStreamReader(slow.getInputStream()));
+            assertEquals("slow", readResponseBody(slowReader));
+            assertEquals("after", readResponseBody(slowReader));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void stopServer_letsAnInFlightUploadFinishWithConnectionClose() throws Exception {
+        // GIVEN
+        Path directory = Files.createTempDirectory("hts");
+        String previousDirectory = AppConfig.directory;
+        AppConfig.directory = directory.toString();
+
+        try (Socket idleSocket = new Socket("localhost", 4221);
+             Socket uploadSocket = new Socket("localhost", 4221)) {
+            idleSocket.getOutputStream().write("GET /echo/idle HTTP/1.1\r\nHost: localhost:4221\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            InputStream idleInput = idleSocket.getInputStream();
+            readHead(idleInput);
+            assertEquals("idle", new String(idleInput.readNBytes(4), StandardCharsets.UTF_8));
+            OutputStream uploadOutput = uploadSocket.getOutputStream();
+            uploadOutput.write(("POST /files/drained.txt HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Content-Length: 10\r\n" +
+                    "\r\n" +
+                    "hello").getBytes(StandardCharsets.UTF_8));
+            uploadOutput.flush();
+            Thread.sleep(100);
+
+            // WHEN
+            Thread stopper = Thread.ofVirtual().start(server::stopServer);
+            assertEquals(-1, idleInput.read());
+            uploadOutput.write("world".getBytes(StandardCharsets.UTF_8));
+            uploadOutput.flush();
+            InputStream uploadInput = uploadSocket.getInputStream();
+            String head = readHead(uploadInput);
+            stopper.join();
+
+            // THEN
+            assertTrue(head.startsWith(HTSConstants.HTTP_CREATED), head);
+            assertTrue(head.contains("Connection: close"), head);
+            assertEquals(-1, uploadInput.read());
+            assertEquals("helloworld", Files.readString(directory.resolve("drained.txt")));
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    void stopServer_closesRequestsStillRunningAtTheDeadline() throws Exception {
+        // GIVEN
+        long previousTimeout = AppConfig.shutdownTimeoutMillis;
+        AppConfig.shutdownTimeoutMillis = 300;
+
+        try (Socket socket = new Socket("localhost", 4221)) {
+            socket.getOutputStream().write(("POST /files/stalled.txt HTTP/1.1\r\n" +
+                    "Host: localhost:4221\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Content-Length: 10\r\n" +
+                    "\r\n" +
+                    "hel").getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            Thread.sleep(100);
+
+            // WHEN
+            long start = System.nanoTime();
+            server.stopServer();
+
+            // THEN
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            AppConfig.shutdownTimeoutMillis = previousTimeout;
+        }
+    }
+
+    private String readResponseBody(BufferedReader reader) throws IOException {
+        String statusLine = reader.readLine();
+        assertEquals("HTTP/1.1 200 OK", statusLine);
+
+        int contentLength = 0;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            if (line.startsWith("Content-Length:")) {
+                contentLength = Integer.parseInt(line.substring("Content-Length:".length()).trim());
+            }
+        }
+
+        char[] body = new char[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            read += reader.read(body, read, contentLength - read);
+        }
+        return new String(body);
+    }
+}
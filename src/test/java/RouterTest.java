@@ -0,0 +1,52 @@
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouterTest {
+
+    private static final RouteHandler OK = context -> HttpResponse.status(HttpStatus.OK);
+
+    @Test
+    void match_prefersLiteralsOverParamsOverWildcards() {
+        // GIVEN
+        var router = new Router(new ServerMetrics());
+        Route literal = router.get("/users/me", OK);
+        Route param = router.get("/users/{id}", OK);
+        Route nested = router.get("/users/{id}/files/*path", OK);
+        Route wildcard = router.get("/users/*rest", OK);
+        Route root = router.get("/", OK);
+
+        // WHEN / THEN
+        assertSame(literal, router.match(HttpMethod.GET, "/users/me"));
+        assertSame(param, router.match(HttpMethod.GET, "/users/42"));
+        assertSame(nested, router.match(HttpMethod.GET, "/users/42/files/a/b.txt"));
+        assertSame(wildcard, router.match(HttpMethod.GET, "/users/42/photos"));
+        assertSame(wildcard, router.match(HttpMethod.GET, "/users/"));
+        assertSame(root, router.match(HttpMethod.GET, "/"));
+        assertNull(router.match(HttpMethod.GET, "/user"));
+        assertNull(router.match(HttpMethod.POST, "/users/me"));
+    }
+
+    @Test
+    void param_slicesCapturesOutOfTheMatchedPath() {
+        // GIVEN
+        var router = new Router(new ServerMetrics());
+        Route route = router.get("/users/{id}/files/*path", OK);
+
+        // WHEN / THEN
+        assertEquals("42", route.param("/users/42/files/a/b.txt", "id"));
+        assertEquals("a/b.txt", route.param("/users/42/files/a/b.txt", "path"));
+        assertEquals("", route.param("/users/42/files/", "path"));
+        assertNull(route.param("/users/42/files/a", "missing"));
+    }
+
+    @Test
+    void add_rejectsMalformedAndDuplicatePatterns() {
+        var router = new Router(new ServerMetrics());
+        router.get("/echo/*message", OK);
+        assertThrows(IllegalArgumentException.class, () -> router.get("/echo/*text", OK));
+        assertThrows(IllegalArgumentException.class, () -> router.get("/files/*name/more", OK));
+        assertThrows(IllegalArgumentException.class, () -> router.get("/files/a{id}", OK));
+        assertThrows(IllegalArgumentException.class, () -> router.get("files", OK));
+    }
+}
@@ -0,0 +1,74 @@
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+
+    private final TimerWheel wheel = new TimerWheel("test-timer-wheel", 10, 16);
+
+    @Test
+    void arm_firesOnceAfterTheDelay() throws Exception {
+        // GIVEN
+        var fired = new CountDownLatch(1);
+        var runs = new AtomicInteger();
+        TimerWheel.Timer timer = wheel.newTimer(() -> {
+            runs.incrementAndGet();
+            fired.countDown();
+        });
+        long start = System.nanoTime();
+
+        // WHEN
+        timer.arm(50);
+
+        // THEN
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        Thread.sleep(100);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void arm_laterOrDisarmedTimersDoNotFireEarly() throws Exception {
+        // GIVEN
+        var rearmedRuns = new AtomicInteger();
+        var disarmedRuns = new AtomicInteger();
+        TimerWheel.Timer rearmed = wheel.newTimer(rearmedRuns::incrementAndGet);
+        TimerWheel.Timer disarmed = wheel.newTimer(disarmedRuns::incrementAndGet);
+
+        // WHEN a re-armed timer keeps moving out, past more than one turn of the wheel
+        disarmed.arm(50);
+        disarmed.disarm();
+        for (int i = 0; i < 10; i++) {
+            rearmed.arm(100);
+            Thread.sleep(50);
+        }
+        int beforeLastDelay = rearmedRuns.get();
+        Thread.sleep(300);
+
+        // THEN
+        assertEquals(0, beforeLastDelay);
+        assertEquals(1, rearmedRuns.get());
+        assertEquals(0, disarmedRuns.get());
+    }
+
+    @Test
+    void arm_earlierThanTheCurrentExpiryFiresAtTheNewTime() throws Exception {
+        // GIVEN
+        var fired = new CountDownLatch(1);
+        TimerWheel.Timer timer = wheel.newTimer(fired::countDown);
+        timer.arm(TimeUnit.SECONDS.toMillis(10));
+        Thread.sleep(50);
+        long start = System.nanoTime();
+
+        // WHEN
+        timer.arm(50);
+
+        // THEN
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+}
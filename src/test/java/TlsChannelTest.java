@@ -0,0 +1,175 @@
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TlsChannelTest {
+
+    private static final int TLS_PORT = 4443;
+    private static final String PASSWORD = "changeit";
+
+    private static Path keystore;
+    private static SSLContext clientContext;
+    private static Thread serverThread;
+    private static HTSController controller;
+    private int previousTlsPort;
+
+    @BeforeAll
+    public static void createKeystore() throws Exception {
+        keystore = Files.createTempDirectory("hts").resolve("server.p12");
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "hts", "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost", "-validity", "1", "-storetype", "PKCS12",
+                "-keystore", keystore.toString(), "-storepass", PASSWORD)
+                .redirectErrorStream(true).start();
+        keytool.getInputStream().transferTo(OutputStream.nullOutputStream());
+        assertEquals(0, keytool.waitFor());
+
+        // The self-signed certificate is its own trust anchor
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keystore)) {
+            trusted.load(in, PASSWORD.toCharArray());
+        }
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trusted);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagers.getTrustManagers(), null);
+    }
+
+    @BeforeEach
+    public void startServer() {
+        previousTlsPort = AppConfig.tlsPort;
+        AppConfig.tlsPort = TLS_PORT;
+        AppConfig.tlsKeystore = keystore.toString();
+        AppConfig.tlsKeystorePassword = PASSWORD;
+        controller = new HTSController();
+        serverThread = new Thread(() -> {
+            controller.run();
+        });
+        serverThread.start();
+
+        try {
+            assertTrue(controller.awaitReady(10, TimeUnit.SECONDS), "Server did not start");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @AfterEach
+    public void stopServer() {
+        controller.stopServer();
+        try {
+            serverThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            AppConfig.tlsPort = previousTlsPort;
+            AppConfig.tlsKeystore = null;
+            AppConfig.tlsKeystorePassword = "";
+        }
+    }
+
+    @Test
+    public void https_servesHttp11AndHttp2NegotiatedWithAlpn() throws Exception {
+        // GIVEN
+        HttpClient http11 = HttpClient.newBuilder().sslContext(clientContext).version(HttpClient.Version.HTTP_1_1).build();
+        HttpClient http2 = HttpClient.newBuilder().sslContext(clientContext).version(HttpClient.Version.HTTP_2).build();
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+
+        // WHEN
+        HttpResponse<String> overHttp11 = http11.send(request("/echo/one"), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> overHttp2 = http2.send(request("/echo/two"), HttpResponse.BodyHandlers.ofString());
+        for (int i = 0; i < 20; i++) {
+            responses.add(http2.sendAsync(request("/echo/hello-" + i), HttpResponse.BodyHandlers.ofString()));
+        }
+
+        // THEN
+        assertEquals(HttpClient.Version.HTTP_1_1, overHttp11.version());
+        assertEquals("one", overHttp11.body());
+        assertEquals(HttpClient.Version.HTTP_2, overHttp2.version());
+        assertEquals("two", overHttp2.body());
+        for (int i = 0; i < responses.size(); i++) {
+            assertEquals("hello-" + i, responses.get(i).join().body());
+        }
+    }
+
+    @Test
+    public void https_uploadsAndDownloadsBodiesSpanningManyRecords() throws Exception {
+        // GIVEN
+        String previousDirectory = AppConfig.directory;
+        Path directory = Files.createTempDirectory("hts");
+        AppConfig.directory = directory.toString();
+        byte[] content = new byte[512 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        HttpClient client = HttpClient.newBuilder().sslContext(clientContext).version(HttpClient.Version.HTTP_1_1).build();
+
+        try {
+            // WHEN
+            HttpResponse<Void> created = client.send(HttpRequest.newBuilder(URI.create("https://localhost:" + TLS_PORT + "/files/big.bin"))
+                    .header("Content-Type", "application/octet-stream")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(content)).build(), HttpResponse.BodyHandlers.discarding());
+            HttpResponse<byte[]> downloaded = client.send(request("/files/big.bin"), HttpResponse.BodyHandlers.ofByteArray());
+
+            // THEN
+            assertEquals(201, created.statusCode());
+            assertArrayEquals(content, downloaded.body());
+        } finally {
+            AppConfig.directory = previousDirectory;
+        }
+    }
+
+    @Test
+    public void https_resumesSessionsAndCountsHandshakes() throws Exception {
+        // GIVEN
+        byte[] firstId;
+        byte[] secondId;
+
+        // WHEN
+        try (SSLSocket socket = connect()) {
+            firstId = socket.getSession().getId();
+        }
+        try (SSLSocket socket = connect()) {
+            secondId = socket.getSession().getId();
+        }
+        String metrics;
+        try (SSLSocket socket = connect()) {
+            socket.getOutputStream().write("GET /metrics HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            metrics = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        // THEN
+        assertArrayEquals(firstId, secondId);
+        assertTrue(metrics.contains("hts_tls_handshakes_total 3"));
+        assertTrue(metrics.contains("hts_tls_handshake_failures_total 0"));
+    }
+
+    private static SSLSocket connect() throws IOException {
+        SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", TLS_PORT);
+        socket.setEnabledProtocols(new String[]{"TLSv1.2"});
+        socket.startHandshake();
+        return socket;
+    }
+
+    private static HttpRequest request(String path) {
+        return HttpRequest.newBuilder(URI.create("https://localhost:" + TLS_PORT + path)).GET().build();
+    }
+}
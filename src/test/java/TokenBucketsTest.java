@@ -0,0 +1,51 @@
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketsTest {
+
+    @Test
+    void tryAcquire_allowsABurstThenRefillsAtTheRate() {
+        // GIVEN
+        TokenBuckets buckets = new TokenBuckets(10, 3);
+        long now = System.nanoTime();
+
+        // WHEN
+        boolean first = buckets.tryAcquire("a", now);
+        boolean second = buckets.tryAcquire("a", now);
+        boolean third = buckets.tryAcquire("a", now);
+        boolean overBurst = buckets.tryAcquire("a", now);
+        boolean otherClient = buckets.tryAcquire("b", now);
+        boolean refilled = buckets.tryAcquire("a", now + TimeUnit.MILLISECONDS.toNanos(100));
+        boolean drainedAgain = buckets.tryAcquire("a", now + TimeUnit.MILLISECONDS.toNanos(100));
+
+        // THEN
+        assertTrue(first && second && third);
+        assertFalse(overBurst);
+        assertTrue(otherClient);
+        assertTrue(refilled);
+        assertFalse(drainedAgain);
+    }
+
+    @Test
+    void tryAcquire_sweepsBucketsThatRefilledCompletely() {
+        // GIVEN
+        TokenBuckets buckets = new TokenBuckets(1, 5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            buckets.tryAcquire(i, now);
+        }
+        for (int i = 0; i < 5; i++) {
+            buckets.tryAcquire("busy", now + TimeUnit.SECONDS.toNanos(4));
+        }
+
+        // WHEN
+        boolean late = buckets.tryAcquire("late", now + TimeUnit.SECONDS.toNanos(6));
+
+        // THEN
+        assertTrue(late);
+        assertEquals(2, buckets.size());
+    }
+}